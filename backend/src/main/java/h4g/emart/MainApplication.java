@@ -3,11 +3,13 @@ package h4g.emart;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.context.annotation.ComponentScan;
 
 @SpringBootApplication
 @EnableScheduling
+@EnableAsync
 @EnableMongoRepositories(basePackages = "h4g.emart.repositories")
 @ComponentScan(basePackages = "h4g.emart")
 public class MainApplication {
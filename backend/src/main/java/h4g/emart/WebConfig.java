@@ -1,7 +1,11 @@
 package h4g.emart;
 
+import h4g.emart.controllers.ProductController;
+import h4g.emart.utils.Pagination;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.beans.factory.annotation.Value;
@@ -18,6 +22,8 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOrigins(client)  // Allow the frontend to access the backend
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH")
                 .allowedHeaders("*")
+                .exposedHeaders(Pagination.NEXT_CURSOR_HEADER, HttpHeaders.ETAG,
+                    ProductController.CATALOG_VERSION_HEADER)
                 .allowCredentials(true);
     }
 }
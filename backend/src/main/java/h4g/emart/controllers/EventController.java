@@ -0,0 +1,33 @@
+package h4g.emart.controllers;
+
+import h4g.emart.services.EventBroadcastService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/events")
+public class EventController {
+
+    @Autowired
+    private EventBroadcastService eventBroadcastService;
+
+    // 1. Subscribe to Live Changes
+    /**
+     * Streams changes as Server-Sent Events: product stock ("product"), task status ("task"),
+     * preorder status ("preorder") and, if a user ID is given, that user's balance ("balance").
+     * A "reset" event means changes may have been missed and the client should reload.
+     * @param userId The user to receive balance updates for; EventSource cannot send headers, so it is a parameter.
+     * @param lastEventId The ID of the last event received, sent by EventSource when it reconnects.
+     * @param lastEventIdParam The same, for clients that reconnect by opening a new URL.
+     * @return The event stream.
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(
+            @RequestParam(value = "userId", required = false) String userId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(value = "lastEventId", required = false) String lastEventIdParam) {
+        return eventBroadcastService.subscribe(userId, lastEventId != null ? lastEventId : lastEventIdParam);
+    }
+}
@@ -1,14 +1,20 @@
 package h4g.emart.controllers;
 
 import h4g.emart.models.Preorder;
+import h4g.emart.models.PreorderDemand;
 import h4g.emart.models.PreorderStatus;
+import h4g.emart.services.IdempotencyService;
 import h4g.emart.services.PreorderService;
+import h4g.emart.utils.Pagination;
+import h4g.emart.utils.ReportStreams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 
 @RestController
@@ -18,12 +24,28 @@ public class PreorderController {
     @Autowired
     private PreorderService preorderService;
 
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private ReportStreams reportStreams;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
     // 1. Create a Preorder
+    /**
+     * Creates a preorder. A retry that repeats the Idempotency-Key header of an
+     * earlier request receives that request's preorder instead of a duplicate.
+     */
     @PostMapping
-    public ResponseEntity<Preorder> createPreorder(@RequestBody Preorder preorder) {
-        Preorder createdPreorder = preorderService.createPreorder(preorder);
-        if (preorder != null) {
-            return new ResponseEntity<>(preorder, HttpStatus.CREATED);
+    public ResponseEntity<Preorder> createPreorder(@RequestBody Preorder preorder,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        Preorder createdPreorder = idempotencyService.execute("preorders", idempotencyKey,
+            Arrays.asList(preorder.getUserId(), preorder.getProductId(), preorder.getQtyPreordered()),
+            Preorder.class, () -> preorderService.createPreorder(preorder));
+        if (createdPreorder != null) {
+            return new ResponseEntity<>(createdPreorder, HttpStatus.CREATED);
         } else {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
@@ -42,9 +64,12 @@ public class PreorderController {
 
     // 3. Get All Preorders (Read)
     @GetMapping
-    public ResponseEntity<List<Preorder>> getAllPreorders() {
-        List<Preorder> preorders = preorderService.getAllPreorders();
-        return new ResponseEntity<>(preorders, HttpStatus.OK);
+    public ResponseEntity<List<Preorder>> getAllPreorders(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int pageSize = pagination.limit(limit);
+        List<Preorder> preorders = preorderService.getPreordersPage(pagination.after(after), pageSize);
+        return pagination.respond(preorders, pageSize, Preorder::getPreorderId);
     }
 
     // 4. Update a Preorder
@@ -72,8 +97,8 @@ public class PreorderController {
     // 6. Update Preorder Status
     @PatchMapping("/{preorderId}/status")
     public ResponseEntity<Preorder> updatePreorderStatus(@PathVariable String preorderId, @RequestParam("status") String status) {
-        Preorder preorder = preorderService.updatePreorderStatus(preorderId, status);
         try {
+            Preorder preorder = preorderService.updatePreorderStatus(preorderId, status);
             if (preorder != null) {
                 return new ResponseEntity<>(preorder, HttpStatus.OK);
             } else {
@@ -155,4 +180,38 @@ public class PreorderController {
         }
         return new ResponseEntity<>(preorders, HttpStatus.OK); 
     }
+
+    // 11. Export Preorders in Timeframe
+    /**
+     * Streams all preorders within a certain timeframe as NDJSON or CSV.
+     * Rows are written as they are read from the database, so the size of the range is not limited by memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @param format The export format, either "ndjson" (default) or "csv".
+     * @return A ResponseEntity streaming the preorders with HTTP status 200 (OK),
+     *         or HTTP status 400 (Bad Request) if the format is not supported.
+     */
+    @GetMapping("/timeframe/export")
+    public ResponseEntity<StreamingResponseBody> exportPreordersInTimeframe(
+            @RequestParam("start") String start,
+            @RequestParam("end") String end,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format) {
+
+        LocalDateTime startTime = LocalDateTime.parse(start);
+        LocalDateTime endTime = LocalDateTime.parse(end);
+
+        return reportStreams.respond("preorders", format,
+            () -> preorderService.streamPreordersInTimeframe(startTime, endTime));
+    }
+
+    // 12. Get Pending Preorder Demand
+    /**
+     * Retrieves pending preorder demand per product: the quantity, the number of distinct users
+     * and the oldest pending preorder.
+     * @return A ResponseEntity containing the demand rows and HTTP status 200 (OK).
+     */
+    @GetMapping("/demand")
+    public ResponseEntity<List<PreorderDemand>> getPreorderDemand() {
+        return new ResponseEntity<>(preorderService.getPreorderDemand(), HttpStatus.OK);
+    }
 }
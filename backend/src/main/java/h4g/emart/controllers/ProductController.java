@@ -1,9 +1,16 @@
 package h4g.emart.controllers;
 
 import h4g.emart.models.Product;
+import h4g.emart.models.ProductChanges;
+import h4g.emart.models.ProductQueryResult;
+import h4g.emart.models.ProductSort;
+import h4g.emart.services.ProductSearchService;
 import h4g.emart.services.ProductService;
+import h4g.emart.utils.Pagination;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -16,6 +23,14 @@ public class ProductController {
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    public static final String CATALOG_VERSION_HEADER = "X-Catalog-Version";
+
     // 1. Create a Product
     /**
      * Creates a new product in the system.
@@ -33,28 +48,56 @@ public class ProductController {
     /**
      * Retrieves a product by its unique product ID.
      * @param productId The unique ID of the product to be retrieved.
+     * @param ifNoneMatch The ETag of the copy the client already has, if any.
      * @return A ResponseEntity containing the product and HTTP status 200 (OK) if found,
+     *         HTTP status 304 (Not Modified) if the client's copy is current,
      *         or HTTP status 404 (Not Found) if the product doesn't exist.
      */
     @GetMapping("/{productId}")
-    public ResponseEntity<Product> getProductById(@PathVariable String productId) {
+    public ResponseEntity<Product> getProductById(@PathVariable String productId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         Product product = productService.getProductById(productId);
-        if (product != null) {
-            return new ResponseEntity<>(product, HttpStatus.OK);
-        } else {
+        if (product == null) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
+        String etag = "\"" + product.getVersion() + "\"";
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(product);
     }
 
     // 3. Get All Products (Read)
     /**
-     * Retrieves all products in the system.
-     * @return A ResponseEntity containing a list of all products and HTTP status 200 (OK).
+     * Retrieves the full product catalog, served from the pre-serialized catalog cache.
+     * @param ifNoneMatch The ETag of the catalog the client already has, if any.
+     * @return A ResponseEntity containing all products as JSON and HTTP status 200 (OK),
+     *         or HTTP status 304 (Not Modified) if the client's copy is current.
+     */
+    @GetMapping(params = {"!after", "!limit"})
+    public ResponseEntity<byte[]> getAllProducts(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        long version = productService.getCatalogVersion();
+        if (matches(ifNoneMatch, ProductService.Catalog.etagOf(version))) {
+            return notModified(version);
+        }
+        return respond(productService.getCatalog(), ifNoneMatch);
+    }
+
+    /**
+     * Retrieves one page of products in ID order.
+     * @param after The X-Next-Cursor value from the previous page; omit for the first page.
+     * @param limit The page size; defaults to pagination.default-limit.
+     * @return A ResponseEntity containing the page of products and HTTP status 200 (OK),
+     *         with the cursor for the next page in the X-Next-Cursor header if there is one.
      */
     @GetMapping
-    public ResponseEntity<List<Product>> getAllProducts() {
-        List<Product> products = productService.getAllProducts();
-        return new ResponseEntity<>(products, HttpStatus.OK);
+    public ResponseEntity<List<Product>> getProductsPage(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int pageSize = pagination.limit(limit);
+        List<Product> products = productService.getProductsPage(pagination.after(after), pageSize);
+        return pagination.respond(products, pageSize, Product::getProductId);
     }
 
     // 4. Update a Product
@@ -110,19 +153,146 @@ public class ProductController {
         }
     }
 
-    // 7. Get Products by Category
+    // 7. Set Product Hot Mode
+    /**
+     * Turns flash-sale hot mode on or off. Purchases of hot products are served from
+     * in-memory stock leases, so a burst on one product does not contend on its document.
+     * @param productId The ID of the product.
+     * @param enabled Whether hot mode should be on.
+     * @return A ResponseEntity containing the updated product and HTTP status 200 (OK),
+     *         or HTTP status 404 (Not Found) if the product does not exist.
+     */
+    @PatchMapping("/{productId}/hot")
+    public ResponseEntity<Product> setProductHot(@PathVariable String productId, @RequestParam("enabled") boolean enabled, @RequestHeader String userId) {
+        Product product = productService.setHot(productId, enabled, userId);
+        if (product != null) {
+            return new ResponseEntity<>(product, HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    // 8. Get Products by Category
     /**
      * Endpoint to get Products by category
      * 
      * @param category The category to filter products by
-     * @return List of products that belong to the specified category or HTTP 404 if none found
+     * @param ifNoneMatch The ETag of the listing the client already has, if any
+     * @return List of products that belong to the specified category, HTTP 304 if the client's copy
+     *         is current, or HTTP 404 if none found
      */
     @GetMapping("/category/{category}")
-    public ResponseEntity<List<Product>> getProductsByCategory(@PathVariable String category) {
-        List<Product> products = productService.getProductsByCategory(category);
-        if (products.isEmpty()) {
+    public ResponseEntity<byte[]> getProductsByCategory(@PathVariable String category,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        long version = productService.getCatalogVersion();
+        if (matches(ifNoneMatch, ProductService.Catalog.etagOf(version))) {
+            return notModified(version);
+        }
+        ProductService.Catalog catalog = productService.getCategoryCatalog(category);
+        if (catalog.getProducts().isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
-        return new ResponseEntity<>(products, HttpStatus.OK);
+        return respond(catalog, ifNoneMatch);
+    }
+
+    // 9. Search Products
+    /**
+     * Searches products by name, category and description, best match first.
+     * Every word in the query must match; a word also matches longer words it is the start of.
+     * @param q The search text.
+     * @param limit The maximum number of products to return; defaults to 20.
+     * @return A ResponseEntity containing the matching products and HTTP status 200 (OK).
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<Product>> searchProducts(@RequestParam("q") String q,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int max = limit == null || limit <= 0 ? 20 : pagination.limit(limit);
+        return new ResponseEntity<>(productSearchService.search(q, max), HttpStatus.OK);
+    }
+
+    // 10. Get Product Changes
+    /**
+     * Retrieves the products changed and deleted since a catalog version, so a client holding
+     * the catalog can update it without downloading it again.
+     * @param since The catalog version the client has, from the X-Catalog-Version header
+     *              or a previous response.
+     * @return A ResponseEntity containing the changes and the current version with HTTP status 200 (OK).
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<ProductChanges> getProductChanges(@RequestParam("since") long since) {
+        return new ResponseEntity<>(productService.getProductChanges(since), HttpStatus.OK);
+    }
+
+    // 11. Query Products
+    /**
+     * Retrieves one page of products matching the given filters, with counts per category and
+     * price bucket, in a single request. Each facet counts every product the other filters match.
+     * @param category Only products in this category.
+     * @param minPrice The minimum price, inclusive.
+     * @param maxPrice The maximum price, inclusive.
+     * @param inStock Only products with stock on hand.
+     * @param sort One of name (default), price, price_desc or popularity.
+     * @param page The zero-based page number; pages starting beyond product.query.max-offset are refused.
+     * @param size The page size; defaults to pagination.default-limit.
+     * @return A ResponseEntity containing the page and facet counts and HTTP status 200 (OK),
+     *         or HTTP status 400 (Bad Request) if the sort order or page is invalid.
+     */
+    @GetMapping("/query")
+    public ResponseEntity<ProductQueryResult> queryProducts(
+            @RequestParam(value = "category", required = false) String category,
+            @RequestParam(value = "minPrice", required = false) Double minPrice,
+            @RequestParam(value = "maxPrice", required = false) Double maxPrice,
+            @RequestParam(value = "inStock", defaultValue = "false") boolean inStock,
+            @RequestParam(value = "sort", defaultValue = "name") String sort,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", required = false) Integer size) {
+        if (page < 0) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        try {
+            ProductQueryResult result = productService.queryProducts(category, minPrice, maxPrice, inStock,
+                ProductSort.fromString(sort), page, pagination.limit(size));
+            return new ResponseEntity<>(result, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    // Answers from a cached catalog without re-serializing it, or with 304 if the client is current
+    private static ResponseEntity<byte[]> respond(ProductService.Catalog catalog, String ifNoneMatch) {
+        if (matches(ifNoneMatch, catalog.getEtag())) {
+            return notModified(catalog.getVersion());
+        }
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .eTag(catalog.getEtag())
+            .header(CATALOG_VERSION_HEADER, String.valueOf(catalog.getVersion()))
+            .body(catalog.getJson());
+    }
+
+    // Answers a conditional GET for the catalog from its version alone
+    private static ResponseEntity<byte[]> notModified(long version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+            .eTag(ProductService.Catalog.etagOf(version))
+            .header(CATALOG_VERSION_HEADER, String.valueOf(version))
+            .build();
+    }
+
+    // Weak comparison, as If-None-Match uses
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -2,11 +2,14 @@ package h4g.emart.controllers;
 
 import h4g.emart.models.ProductLog;
 import h4g.emart.services.ProductLogService;
+import h4g.emart.utils.Pagination;
+import h4g.emart.utils.ReportStreams;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -18,11 +21,33 @@ public class ProductLogController {
     @Autowired
     private ProductLogService productLogService;
 
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private ReportStreams reportStreams;
+
     // 1. Get all Product Logs (Read)
     @GetMapping
-    public ResponseEntity<List<ProductLog>> getAllProductLogs() {
-        List<ProductLog> productLogs = productLogService.getAllProductLogs();
-        return new ResponseEntity<>(productLogs, HttpStatus.OK);
+    public ResponseEntity<List<ProductLog>> getAllProductLogs(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "field", required = false) String field) {
+        int pageSize = pagination.limit(limit);
+        List<ProductLog> productLogs = productLogService.getProductLogsPage(pagination.after(after), pageSize, field);
+        return pagination.respond(productLogs, pageSize, ProductLog::getLogId);
+    }
+
+    // Get Recent Product Logs
+    /**
+     * Retrieves the most recent product logs, newest first, e.g. for an activity feed.
+     * @param limit The maximum number of product logs to return.
+     * @return A ResponseEntity containing the product logs and HTTP status 200 (OK).
+     */
+    @GetMapping("/recent")
+    public ResponseEntity<List<ProductLog>> getRecentProductLogs(
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        return new ResponseEntity<>(productLogService.getRecentProductLogs(pagination.limit(limit)), HttpStatus.OK);
     }
 
     // 2. Get Product Logs by Product ID
@@ -57,4 +82,27 @@ public class ProductLogController {
         }
         return new ResponseEntity<>(productLog, HttpStatus.OK);
     }
+
+    // 9. Export Product Logs in Timeframe
+    /**
+     * Streams all product logs within a certain timeframe as NDJSON or CSV.
+     * Rows are written as they are read from the database, so the size of the range is not limited by memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @param format The export format, either "ndjson" (default) or "csv".
+     * @return A ResponseEntity streaming the product logs with HTTP status 200 (OK),
+     *         or HTTP status 400 (Bad Request) if the format is not supported.
+     */
+    @GetMapping("/timeframe/export")
+    public ResponseEntity<StreamingResponseBody> exportProductLogsInTimeframe(
+            @RequestParam("start") String start,
+            @RequestParam("end") String end,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format) {
+
+        LocalDateTime startTime = LocalDateTime.parse(start);
+        LocalDateTime endTime = LocalDateTime.parse(end);
+
+        return reportStreams.respond("product-logs", format,
+            () -> productLogService.streamProductLogsInTimeframe(startTime, endTime));
+    }
 }
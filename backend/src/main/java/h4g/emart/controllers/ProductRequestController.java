@@ -2,10 +2,13 @@ package h4g.emart.controllers;
 
 import h4g.emart.models.ProductRequest;
 import h4g.emart.services.ProductRequestService;
+import h4g.emart.utils.Pagination;
+import h4g.emart.utils.ReportStreams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -17,11 +20,20 @@ public class ProductRequestController {
     @Autowired
     private ProductRequestService productRequestService;
 
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private ReportStreams reportStreams;
+
     // 1. Get all Product Requests (Read)
     @GetMapping
-    public ResponseEntity<List<ProductRequest>> getAllProductRequests() {
-        List<ProductRequest> productRequests = productRequestService.getAllProductRequests();
-        return new ResponseEntity<>(productRequests, HttpStatus.OK);
+    public ResponseEntity<List<ProductRequest>> getAllProductRequests(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int pageSize = pagination.limit(limit);
+        List<ProductRequest> productRequests = productRequestService.getProductRequestsPage(pagination.after(after), pageSize);
+        return pagination.respond(productRequests, pageSize, ProductRequest::getRequestId);
     }
 
     // 2. Get Product Request by Request ID
@@ -83,4 +95,27 @@ public class ProductRequestController {
         }
         return new ResponseEntity<>(productRequest, HttpStatus.OK);
     }
+
+    // 9. Export Product Requests in Timeframe
+    /**
+     * Streams all product requests within a certain timeframe as NDJSON or CSV.
+     * Rows are written as they are read from the database, so the size of the range is not limited by memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @param format The export format, either "ndjson" (default) or "csv".
+     * @return A ResponseEntity streaming the product requests with HTTP status 200 (OK),
+     *         or HTTP status 400 (Bad Request) if the format is not supported.
+     */
+    @GetMapping("/timeframe/export")
+    public ResponseEntity<StreamingResponseBody> exportProductRequestsInTimeframe(
+            @RequestParam("start") String start,
+            @RequestParam("end") String end,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format) {
+
+        LocalDateTime startTime = LocalDateTime.parse(start);
+        LocalDateTime endTime = LocalDateTime.parse(end);
+
+        return reportStreams.respond("product-requests", format,
+            () -> productRequestService.streamProductRequestsInTimeframe(startTime, endTime));
+    }
 }
@@ -0,0 +1,66 @@
+package h4g.emart.controllers;
+
+import h4g.emart.models.SalesReportRow;
+import h4g.emart.services.SalesRollupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+@RestController
+@RequestMapping("/reports")
+public class ReportController {
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    // 1. Get Sales Report
+    /**
+     * Retrieves sales between two days, inclusive, from the daily sales rollup.
+     * @param start The first day of the report, as yyyy-MM-dd.
+     * @param end The last day of the report, as yyyy-MM-dd.
+     * @param productId Limits the report to one product if given.
+     * @param by "day" (default) for one row per product per day, or "product" for one row per product.
+     * @return A ResponseEntity containing the report rows and HTTP status 200 (OK),
+     *         or HTTP status 400 (Bad Request) if a day is malformed or the grouping is not supported.
+     */
+    @GetMapping("/sales")
+    public ResponseEntity<List<SalesReportRow>> getSalesReport(
+            @RequestParam("start") String start,
+            @RequestParam("end") String end,
+            @RequestParam(value = "productId", required = false) String productId,
+            @RequestParam(value = "by", defaultValue = "day") String by) {
+
+        if (!by.equals("day") && !by.equals("product")) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        LocalDate startDay;
+        LocalDate endDay;
+        try {
+            startDay = LocalDate.parse(start);
+            endDay = LocalDate.parse(end);
+        } catch (DateTimeParseException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<SalesReportRow> rows = salesRollupService.getSalesReport(startDay, endDay, productId, by.equals("day"));
+        return new ResponseEntity<>(rows, HttpStatus.OK);
+    }
+
+    // 2. Rebuild Sales Rollup
+    /**
+     * Regenerates the daily sales rollup from the full transaction history.
+     * @return HTTP status 204 (No Content) once the rebuild completes,
+     *         or HTTP status 409 (Conflict) if a rebuild is running or the nightly one finished within the lease.
+     */
+    @PostMapping("/sales/rebuild")
+    public ResponseEntity<Void> rebuildSalesRollup() {
+        if (!salesRollupService.rebuild()) {
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
+        }
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+}
@@ -1,15 +1,21 @@
 package h4g.emart.controllers;
 
+import h4g.emart.exceptions.InvalidCursorException;
+import h4g.emart.models.Contributor;
 import h4g.emart.models.Task;
-import h4g.emart.models.Task;
+import h4g.emart.models.TaskSummary;
 import h4g.emart.services.TaskService;
+import h4g.emart.utils.Pagination;
+import h4g.emart.utils.ReportStreams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/tasks")
@@ -18,6 +24,12 @@ public class TaskController {
     @Autowired
     private TaskService taskService;
 
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private ReportStreams reportStreams;
+
     // 1. Create a Task
     /**
      * Creates a new task in the system.
@@ -50,13 +62,22 @@ public class TaskController {
 
     // 3. Get All Tasks (Read)
     /**
-     * Retrieves all tasks in the system.
-     * @return A ResponseEntity containing a list of all tasks and HTTP status 200 (OK).
+     * Retrieves one page of tasks in ID order, each with its number of contributors.
+     * Contributors are listed separately, page by page, with GET /tasks/{taskId}/contributors.
+     * @param after The X-Next-Cursor value from the previous page; omit for the first page.
+     * @param limit The page size; defaults to pagination.default-limit.
+     * @param contributor A user ID; each task then includes that user's contributor status, if they joined.
+     * @return A ResponseEntity containing the page of tasks and HTTP status 200 (OK),
+     *         with the cursor for the next page in the X-Next-Cursor header if there is one.
      */
     @GetMapping
-    public ResponseEntity<List<Task>> getAllTasks() {
-        List<Task> tasks = taskService.getAllTasks();
-        return new ResponseEntity<>(tasks, HttpStatus.OK);
+    public ResponseEntity<List<TaskSummary>> getAllTasks(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "contributor", required = false) String contributor) {
+        int pageSize = pagination.limit(limit);
+        List<TaskSummary> tasks = taskService.getTasksPage(pagination.after(after), pageSize, contributor);
+        return pagination.respond(tasks, pageSize, TaskSummary::getTaskId);
     }
 
     // 4. Update a Task
@@ -100,7 +121,8 @@ public class TaskController {
      * @param taskId The ID of the task to which the contributor will be added.
      * @param contributorId The ID of the contributor to be added.
      * @return A ResponseEntity containing the updated task and HTTP status 200 (OK),
-     *         or HTTP status 404 (Not Found) if the task or contributor does not exist.
+     *         or HTTP status 404 (Not Found) if the task or contributor does not exist,
+     *         the task is not OPEN, or the contributor has already joined.
      */
     @PostMapping("/{taskId}/contributors/{contributorId}")
     public ResponseEntity<Task> addContributor(@PathVariable String taskId, @PathVariable String contributorId) {
@@ -119,9 +141,9 @@ public class TaskController {
      * @return A ResponseEntity containing a list of tasks with the specified status and HTTP status 200 (OK).
      */
     @GetMapping("/status/{status}")
-    public ResponseEntity<List<Task>> getTasksByStatus(@PathVariable String status) {
+    public ResponseEntity<List<TaskSummary>> getTasksByStatus(@PathVariable String status) {
         try {
-            List<Task> tasks = taskService.getTasksByStatus(status);
+            List<TaskSummary> tasks = taskService.getTasksByStatus(status);
             return new ResponseEntity<>(tasks, HttpStatus.OK);
         } catch (IllegalArgumentException e) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
@@ -186,4 +208,103 @@ public class TaskController {
         }
         return new ResponseEntity<>(task, HttpStatus.OK);
     }
+
+    // 11. Export Tasks in Timeframe
+    /**
+     * Streams all tasks within a certain timeframe as NDJSON or CSV.
+     * Rows are written as they are read from the database, so the size of the range is not limited by memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @param format The export format, either "ndjson" (default) or "csv".
+     * @return A ResponseEntity streaming the tasks with HTTP status 200 (OK),
+     *         or HTTP status 400 (Bad Request) if the format is not supported.
+     */
+    @GetMapping("/timeframe/export")
+    public ResponseEntity<StreamingResponseBody> exportTasksInTimeframe(
+            @RequestParam("start") String start,
+            @RequestParam("end") String end,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format) {
+
+        LocalDateTime startTime = LocalDateTime.parse(start);
+        LocalDateTime endTime = LocalDateTime.parse(end);
+
+        return reportStreams.respond("tasks", format,
+            () -> taskService.streamTasksInTimeframe(startTime, endTime));
+    }
+
+    // 12. Get Contributors of a Task
+    /**
+     * Retrieves one page of a task's contributors, in the order they joined.
+     * @param taskId The ID of the task.
+     * @param after The X-Next-Cursor value from the previous page; omit for the first page.
+     * @param limit The page size; defaults to pagination.default-limit.
+     * @return A ResponseEntity containing the page of contributors and HTTP status 200 (OK),
+     *         with the cursor for the next page in the X-Next-Cursor header if there is one,
+     *         or HTTP status 404 (Not Found) if the task does not exist.
+     */
+    @GetMapping("/{taskId}/contributors")
+    public ResponseEntity<List<Contributor>> getContributors(
+            @PathVariable String taskId,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int pageSize = pagination.limit(limit);
+        String position = pagination.after(after);
+        int offset;
+        try {
+            offset = position.isEmpty() ? 0 : Integer.parseInt(position);
+            if (offset < 0) {
+                throw new NumberFormatException(position);
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException("Invalid cursor: " + after, e);
+        }
+        List<Contributor> contributors = taskService.getContributorsPage(taskId, offset, pageSize);
+        if (contributors == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        // The cursor is the position after the last contributor on the page
+        int next = offset + contributors.size();
+        return pagination.respond(contributors, pageSize, contributor -> String.valueOf(next));
+    }
+
+    // 13. Review Contributors of a Task
+    /**
+     * Approves or rejects several contributors of a task in one request.
+     * @param taskId The ID of the task.
+     * @param decisions The new status, APPROVED or REJECTED, keyed by contributor user ID.
+     * @return A ResponseEntity containing the contributors whose status changed and HTTP status 200 (OK),
+     *         HTTP status 400 (Bad Request) if a decision is invalid,
+     *         or HTTP status 404 (Not Found) if the task does not exist.
+     */
+    @PatchMapping("/{taskId}/contributors")
+    public ResponseEntity<List<Contributor>> reviewContributors(
+            @PathVariable String taskId,
+            @RequestBody Map<String, String> decisions) {
+        try {
+            List<Contributor> changed = taskService.reviewContributors(taskId, decisions);
+            if (changed == null) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            return new ResponseEntity<>(changed, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    // 14. Open Task
+    /**
+     * Reopens a closed task, allowing contributors to join again.
+     * @param taskId the task to reopen
+     * @return A ResponseEntity containing updated task and HTTP status code 200 (OK),
+     * or HTTP status 404 (Not Found) if the task does not exist.
+     */
+    @PostMapping("open/{taskId}")
+    public ResponseEntity<Task> openTask(@PathVariable String taskId) {
+        Task task = taskService.openTask(taskId);
+        if (task != null) {
+            return new ResponseEntity<>(task, HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
 }
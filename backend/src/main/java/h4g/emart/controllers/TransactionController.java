@@ -1,14 +1,22 @@
 package h4g.emart.controllers;
 
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
 import h4g.emart.models.Transaction;
 import h4g.emart.models.Transaction;
+import h4g.emart.services.IdempotencyService;
 import h4g.emart.services.TransactionService;
+import h4g.emart.utils.Pagination;
+import h4g.emart.utils.ReportStreams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 
 @RestController
@@ -18,11 +26,26 @@ public class TransactionController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private ReportStreams reportStreams;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    private static final JavaType TRANSACTION_LIST =
+        TypeFactory.defaultInstance().constructCollectionType(List.class, Transaction.class);
+
     // 1. Get all Transactions (Read)
     @GetMapping
-    public ResponseEntity<List<Transaction>> getAllTransactions() {
-        List<Transaction> transactions = transactionService.getAllTransactions();
-        return new ResponseEntity<>(transactions, HttpStatus.OK);
+    public ResponseEntity<List<Transaction>> getAllTransactions(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int pageSize = pagination.limit(limit);
+        List<Transaction> transactions = transactionService.getTransactionsPage(pagination.after(after), pageSize);
+        return pagination.respond(transactions, pageSize, Transaction::getTransactionId);
     }
 
     // 2. Get Transaction by Transaction ID
@@ -56,13 +79,35 @@ public class TransactionController {
     }
 
     // 5. Create a Transaction (Create)
+    /**
+     * Creates a transaction. A retry that repeats the Idempotency-Key header of an
+     * earlier request receives that request's transaction instead of buying again.
+     */
     @PostMapping
-    public ResponseEntity<Transaction> createTransaction(@RequestBody Transaction transaction) {
-        Transaction createdTransaction = transactionService.createTransaction(transaction);
+    public ResponseEntity<Transaction> createTransaction(@RequestBody Transaction transaction,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        Transaction createdTransaction = idempotencyService.execute("transactions", idempotencyKey,
+            purchase(transaction), Transaction.class, () -> transactionService.createTransaction(transaction));
         return new ResponseEntity<>(createdTransaction, HttpStatus.CREATED);
     }
 
-    // 6. Delete a Transaction (Delete)
+    // 6. Check out a whole cart (Create)
+    /**
+     * Creates all transactions in a cart as a single all-or-nothing checkout.
+     * Honours the Idempotency-Key header like single transaction creation.
+     * @param transactions The cart lines, each with userId, productId and qtyPurchased.
+     * @return A ResponseEntity containing the created transactions and HTTP status 201 (Created).
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<List<Transaction>> createTransactions(@RequestBody List<Transaction> transactions,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        List<Transaction> createdTransactions = idempotencyService.execute("transactions/batch", idempotencyKey,
+            transactions.stream().map(TransactionController::purchase).toList(), TRANSACTION_LIST,
+            () -> transactionService.createTransactions(transactions));
+        return new ResponseEntity<>(createdTransactions, HttpStatus.CREATED);
+    }
+
+    // 7. Delete a Transaction (Delete)
     @DeleteMapping("/{transactionId}")
     public ResponseEntity<Void> deleteTransaction(@PathVariable String transactionId) {
         boolean isDeleted = transactionService.deleteTransaction(transactionId);
@@ -72,7 +117,7 @@ public class TransactionController {
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
-    // 7. Get Transactions in Timeframe
+    // 8. Get Transactions in Timeframe
     /**
      * Retrieves all transactions within a certain timeframe.
      * @param start The start of the timeframe.
@@ -94,4 +139,32 @@ public class TransactionController {
         }
         return new ResponseEntity<>(transaction, HttpStatus.OK);
     }
+
+    // 9. Export Transactions in Timeframe
+    /**
+     * Streams all transactions within a certain timeframe as NDJSON or CSV.
+     * Rows are written as they are read from the database, so the size of the range is not limited by memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @param format The export format, either "ndjson" (default) or "csv".
+     * @return A ResponseEntity streaming the transactions with HTTP status 200 (OK),
+     *         or HTTP status 400 (Bad Request) if the format is not supported.
+     */
+    @GetMapping("/timeframe/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactionsInTimeframe(
+            @RequestParam("start") String start,
+            @RequestParam("end") String end,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format) {
+
+        LocalDateTime startTime = LocalDateTime.parse(start);
+        LocalDateTime endTime = LocalDateTime.parse(end);
+
+        return reportStreams.respond("transactions", format,
+            () -> transactionService.streamTransactionsInTimeframe(startTime, endTime));
+    }
+
+    // The fields a client sends for a purchase; the rest are set by the server
+    private static List<Object> purchase(Transaction transaction) {
+        return Arrays.asList(transaction.getUserId(), transaction.getProductId(), transaction.getQtyPurchased());
+    }
 }
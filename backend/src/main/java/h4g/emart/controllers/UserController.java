@@ -1,7 +1,13 @@
 package h4g.emart.controllers;
 
+import h4g.emart.models.LeaderboardEntry;
 import h4g.emart.models.User;
+import h4g.emart.models.VoucherEntry;
+import h4g.emart.models.VoucherSnapshot;
+import h4g.emart.models.TopUpJob;
+import h4g.emart.services.IdempotencyService;
 import h4g.emart.services.UserService;
+import h4g.emart.utils.Pagination;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -10,12 +16,20 @@ import org.springframework.web.bind.annotation.*;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.Arrays;
 import java.util.List;
 
 class BalanceRequest {
     private @Getter @Setter double amount;
 }
 
+class BulkTopUpRequest {
+    // Omit to match any role or status
+    private @Getter @Setter String role;
+    private @Getter @Setter String status;
+    private @Getter @Setter double amount;
+}
+
 @RestController
 @RequestMapping("/users")
 public class UserController {
@@ -23,6 +37,12 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
     // 1. Create a User
     /**
      * Creates a new user in the system.
@@ -54,13 +74,19 @@ public class UserController {
 
     // 3. Get All Users (Read)
     /**
-     * Retrieves all users in the system.
-     * @return A ResponseEntity containing a list of all users and HTTP status 200 (OK).
+     * Retrieves one page of users in ID order.
+     * @param after The X-Next-Cursor value from the previous page; omit for the first page.
+     * @param limit The page size; defaults to pagination.default-limit.
+     * @return A ResponseEntity containing the page of users and HTTP status 200 (OK),
+     *         with the cursor for the next page in the X-Next-Cursor header if there is one.
      */
     @GetMapping
-    public ResponseEntity<List<User>> getAllUsers() {
-        List<User> users = userService.getAllUsers();
-        return new ResponseEntity<>(users, HttpStatus.OK);
+    public ResponseEntity<List<User>> getAllUsers(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int pageSize = pagination.limit(limit);
+        List<User> users = userService.getUsersPage(pagination.after(after), pageSize);
+        return pagination.respond(users, pageSize, User::getUserId);
     }
 
     // 4. Update a User
@@ -165,4 +191,106 @@ public class UserController {
         List<User> users = userService.getUsersByStatus(userStatus);
         return new ResponseEntity<>(users, HttpStatus.OK);
     }
+
+    // 10. Get the Leaderboard
+    /**
+     * Retrieves the active residents with the highest voucher balances.
+     * @param limit The number of residents to return; defaults to pagination.default-limit.
+     * @return A ResponseEntity containing the ranked residents, highest balance first, and HTTP status 200 (OK).
+     */
+    @GetMapping("/leaderboard")
+    public ResponseEntity<List<LeaderboardEntry>> getLeaderboard(
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        List<LeaderboardEntry> entries = userService.getLeaderboard(pagination.limit(limit));
+        return new ResponseEntity<>(entries, HttpStatus.OK);
+    }
+
+    // 11. Get a User's Leaderboard Rank
+    /**
+     * Retrieves one resident's place on the leaderboard.
+     * @param userId The ID of the user.
+     * @return A ResponseEntity containing the user's leaderboard entry and HTTP status 200 (OK),
+     *         or HTTP status 404 (Not Found) if the user is not an active resident.
+     */
+    @GetMapping("/leaderboard/{userId}")
+    public ResponseEntity<LeaderboardEntry> getLeaderboardRank(@PathVariable String userId) {
+        LeaderboardEntry entry = userService.getLeaderboardRank(userId);
+        if (entry != null) {
+            return new ResponseEntity<>(entry, HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    // 12. Get a User's Voucher Ledger
+    /**
+     * Retrieves one page of the changes to a user's voucher balance, in ID order.
+     * @param userId The ID of the user.
+     * @param after The X-Next-Cursor value from the previous page; omit for the first page.
+     * @param limit The page size; defaults to pagination.default-limit.
+     * @return A ResponseEntity containing the page of ledger entries, amounts in cents, and HTTP status 200 (OK),
+     *         with the cursor for the next page in the X-Next-Cursor header if there is one.
+     */
+    @GetMapping("/{userId}/ledger")
+    public ResponseEntity<List<VoucherEntry>> getLedger(@PathVariable String userId,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        int pageSize = pagination.limit(limit);
+        List<VoucherEntry> entries = userService.getLedgerPage(userId, pagination.after(after), pageSize);
+        return pagination.respond(entries, pageSize, VoucherEntry::getEntryId);
+    }
+
+    // 13. Get a User's Ledger Balance
+    /**
+     * Computes a user's voucher balance from the ledger.
+     * @param userId The ID of the user.
+     * @return A ResponseEntity containing the balance in cents and the time of the newest entry counted,
+     *         and HTTP status 200 (OK), or HTTP status 404 (Not Found) if the user does not exist.
+     */
+    @GetMapping("/{userId}/ledger/balance")
+    public ResponseEntity<VoucherSnapshot> getLedgerBalance(@PathVariable String userId) {
+        if (userService.getUserById(userId) == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(userService.getLedgerBalance(userId), HttpStatus.OK);
+    }
+
+    // 14. Top Up Balances in Bulk
+    /**
+     * Starts adding an amount to the balance of every user with a role and status, e.g. a monthly allowance.
+     * The job runs in the background; a retry that repeats the Idempotency-Key header of an earlier
+     * request receives that request's job instead of starting another.
+     * @param request The role and status to match, either omitted to match any, and the amount.
+     * @return A ResponseEntity containing the job and HTTP status 202 (Accepted),
+     *         or HTTP status 400 (Bad Request) if the role, status or amount is invalid.
+     */
+    @PostMapping("/balance/bulk")
+    public ResponseEntity<TopUpJob> startTopUp(@RequestBody BulkTopUpRequest request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        try {
+            TopUpJob job = idempotencyService.execute("users/balance/bulk", idempotencyKey,
+                Arrays.asList(request.getRole(), request.getStatus(), request.getAmount()), TopUpJob.class,
+                () -> userService.startTopUp(request.getRole(), request.getStatus(), request.getAmount()));
+            return new ResponseEntity<>(job, HttpStatus.ACCEPTED);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    // 15. Get Bulk Top-up Progress
+    /**
+     * Retrieves a bulk top-up job and its progress.
+     * @param jobId The ID returned when the job was started.
+     * @return A ResponseEntity containing the job and HTTP status 200 (OK),
+     *         or HTTP status 404 (Not Found) if the job does not exist.
+     */
+    @GetMapping("/balance/bulk/{jobId}")
+    public ResponseEntity<TopUpJob> getTopUpJob(@PathVariable String jobId) {
+        TopUpJob job = userService.getTopUpJob(jobId);
+        if (job != null) {
+            return new ResponseEntity<>(job, HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
 }
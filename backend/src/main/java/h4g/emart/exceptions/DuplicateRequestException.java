@@ -0,0 +1,16 @@
+package h4g.emart.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Thrown when a request reuses an Idempotency-Key whose first attempt is still running
+@ResponseStatus(HttpStatus.CONFLICT)
+public class DuplicateRequestException extends RuntimeException {
+    public DuplicateRequestException(String message) {
+        super(message);
+    }
+
+    public DuplicateRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
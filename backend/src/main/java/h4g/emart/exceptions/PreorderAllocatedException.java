@@ -0,0 +1,16 @@
+package h4g.emart.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Thrown when a change targets a preorder that is no longer pending, e.g. one fulfilled and charged by allocation on restock
+@ResponseStatus(HttpStatus.CONFLICT)
+public class PreorderAllocatedException extends RuntimeException {
+    public PreorderAllocatedException(String message) {
+        super(message);
+    }
+
+    public PreorderAllocatedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
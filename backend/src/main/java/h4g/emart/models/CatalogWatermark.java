@@ -0,0 +1,25 @@
+package h4g.emart.models;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// The lowest catalog version a node may still commit; catalog deltas never skip past the lowest live one
+@Document(collection = "CatalogWatermark")
+
+public class CatalogWatermark {
+    @Id
+    private @Getter String nodeId;
+    // Long.MAX_VALUE while the node holds no versions
+    private @Getter long low;
+    // Set from the database clock, so node clock skew cannot expire a live node
+    private @Getter Date heartbeat;
+
+    @Override
+    public String toString() {
+        return "CatalogWatermark [nodeId=" + nodeId + ", low=" + low + ", heartbeat=" + heartbeat + "]";
+    }
+}
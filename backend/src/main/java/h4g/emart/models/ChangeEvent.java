@@ -0,0 +1,34 @@
+package h4g.emart.models;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Getter;
+
+// A change pushed to clients over /events; the ID is the change stream resume token
+public class ChangeEvent {
+    private @Getter String id;
+    // product, task, preorder or balance
+    private @Getter String type;
+    private @Getter String entityId;
+    private @Getter Map<String, Object> data;
+    // Only this user receives the event, or everyone if null
+    @JsonIgnore
+    private @Getter String recipientId;
+
+    public ChangeEvent() {}
+
+    public ChangeEvent(String id, String type, String entityId, Map<String, Object> data, String recipientId) {
+        this.id = id;
+        this.type = type;
+        this.entityId = entityId;
+        this.data = data;
+        this.recipientId = recipientId;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent [id=" + id + ", type=" + type + ", entityId=" + entityId + ", data=" + data + "]";
+    }
+}
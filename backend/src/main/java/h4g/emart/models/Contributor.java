@@ -17,6 +17,8 @@ public class Contributor {
     private @Getter LocalDateTime datetime;
     @JsonProperty("status")
     private @Getter @Setter ContributorStatus status;
+    // The payout run that claimed this contributor's reward, set once APPROVED contributors are processed
+    private @Getter String payoutRunId;
 
     public Contributor() {}
     
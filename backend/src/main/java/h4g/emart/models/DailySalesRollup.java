@@ -0,0 +1,43 @@
+package h4g.emart.models;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// Sales of one product on one day, maintained as transactions are created and deleted
+@Document(collection = "DailySalesRollup")
+@CompoundIndex(name = "day_productId", def = "{'day': 1, 'productId': 1}")
+
+public class DailySalesRollup {
+    @Id
+    private @Getter String rollupId;
+    // Local date of the transactions, as yyyy-MM-dd
+    private @Getter String day;
+    private @Getter String productId;
+    private @Getter long qty;
+    private @Getter double revenue;
+    // Number of transactions per buyer, kept so distinct buyers can be counted and corrected on delete
+    private @Getter Map<String, Integer> buyers = new HashMap<>();
+    // Set from the database clock by every incremental update, so a rebuild leaves rows written while it runs
+    private @Getter Date touchedAt;
+    // The rebuild that last regenerated the row
+    private @Getter String rebuild;
+
+    public DailySalesRollup() {}
+
+    public static String rollupId(String day, String productId) {
+        return day + ":" + productId;
+    }
+
+    @Override
+    public String toString() {
+        return "DailySalesRollup [day=" + day + ", productId=" + productId + ", qty=" + qty
+                + ", revenue=" + revenue + ", buyers=" + buyers.size() + "]";
+    }
+}
@@ -0,0 +1,34 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// Tombstone of a deleted product, so catalog deltas can report the deletion
+@Document(collection = "DeletedProduct")
+
+public class DeletedProduct {
+    @Id
+    private @Getter String productId;
+    @Indexed
+    private @Getter long version;
+    // Clients more than 30 days behind must download the full catalog again
+    @Indexed(expireAfter = "30d")
+    private @Getter LocalDateTime datetime = LocalDateTime.now();
+
+    public DeletedProduct() {}
+
+    public DeletedProduct(String productId, long version) {
+        this.productId = productId;
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "DeletedProduct [productId=" + productId + ", version=" + version + ", datetime=" + datetime + "]";
+    }
+}
@@ -0,0 +1,21 @@
+package h4g.emart.models;
+
+import lombok.Getter;
+
+// The value of one field before and after a change; either side is null if the field was not set
+public class FieldChange {
+    private @Getter Object oldValue;
+    private @Getter Object newValue;
+
+    public FieldChange() {}
+
+    public FieldChange(Object oldValue, Object newValue) {
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    @Override
+    public String toString() {
+        return "FieldChange [oldValue=" + oldValue + ", newValue=" + newValue + "]";
+    }
+}
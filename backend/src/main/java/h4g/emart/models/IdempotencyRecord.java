@@ -0,0 +1,37 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Document(collection = "IdempotencyRecord")
+
+public class IdempotencyRecord {
+    @Id
+    private @Getter String key;
+    private @Getter @Setter IdempotencyStatus status = IdempotencyStatus.IN_PROGRESS;
+    // Hash of the request body, so the key cannot be reused for a different request
+    private @Getter String fingerprint;
+    // Identifies the attempt holding the claim; only it may renew, release or complete the record
+    private @Getter String claimToken;
+    private @Getter @Setter String response;
+    // Set from the database clock when the claim is taken or renewed; an IN_PROGRESS claim not renewed
+    // within the lease was abandoned, e.g. by a crash, and may be taken over
+    private @Getter LocalDateTime leasedAt;
+    // Records expire a day after the first attempt, after which the key may be reused
+    @Indexed(expireAfter = "1d")
+    private @Getter LocalDateTime datetime;
+
+    public IdempotencyRecord() {}
+
+    @Override
+    public String toString() {
+        return "IdempotencyRecord [key=" + key + ", status=" + status + ", fingerprint=" + fingerprint
+                + ", claimToken=" + claimToken + ", leasedAt=" + leasedAt + ", datetime=" + datetime + "]";
+    }
+}
@@ -0,0 +1,14 @@
+package h4g.emart.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public enum IdempotencyStatus {
+    @JsonProperty("IN_PROGRESS")
+    IN_PROGRESS, // request claimed the key and is still running
+
+    @JsonProperty("COMPLETED")
+    COMPLETED, // response stored, retries replay it
+
+    @JsonProperty("FAILED")
+    FAILED; // request ran but its response could not be stored, retries are refused
+}
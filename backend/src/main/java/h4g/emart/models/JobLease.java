@@ -0,0 +1,24 @@
+package h4g.emart.models;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// Held by the node running a cluster-wide job, so the job runs on one node at a time
+@Document(collection = "JobLease")
+
+public class JobLease {
+    @Id
+    private @Getter String name;
+    private @Getter String owner;
+    // Set from the database clock when the lease is taken; another node may take it once it runs out
+    private @Getter Date leasedAt;
+
+    @Override
+    public String toString() {
+        return "JobLease [name=" + name + ", owner=" + owner + ", leasedAt=" + leasedAt + "]";
+    }
+}
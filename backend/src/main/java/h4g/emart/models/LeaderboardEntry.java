@@ -0,0 +1,26 @@
+package h4g.emart.models;
+
+import lombok.Getter;
+
+// A resident's place on the voucher balance leaderboard; rank 1 has the highest balance
+public class LeaderboardEntry {
+    private @Getter int rank;
+    private @Getter String userId;
+    private @Getter String name;
+    private @Getter double voucherBal;
+
+    public LeaderboardEntry() {}
+
+    public LeaderboardEntry(int rank, String userId, String name, double voucherBal) {
+        this.rank = rank;
+        this.userId = userId;
+        this.name = name;
+        this.voucherBal = voucherBal;
+    }
+
+    @Override
+    public String toString() {
+        return "LeaderboardEntry [rank=" + rank + ", userId=" + userId + ", name=" + name
+                + ", voucherBal=" + voucherBal + "]";
+    }
+}
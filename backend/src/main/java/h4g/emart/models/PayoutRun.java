@@ -0,0 +1,41 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+import lombok.Setter;
+
+// One payout of a task's reward to the contributors it claimed; completed once they are marked PROCESSED
+@Document(collection = "PayoutRun")
+
+public class PayoutRun {
+    @Id
+    private @Getter String runId;
+    @Indexed
+    private @Getter String taskId;
+    private @Getter double amount;
+    private @Getter List<String> userIds;
+    private @Getter LocalDateTime datetime;
+    private @Getter @Setter boolean completed;
+
+    public PayoutRun() {}
+
+    public PayoutRun(String runId, String taskId, double amount, List<String> userIds) {
+        this.runId = runId;
+        this.taskId = taskId;
+        this.amount = amount;
+        this.userIds = userIds;
+        this.datetime = LocalDateTime.now();
+    }
+
+    @Override
+    public String toString() {
+        return "PayoutRun [runId=" + runId + ", taskId=" + taskId + ", amount=" + amount + ", userIds=" + userIds
+                + ", datetime=" + datetime + ", completed=" + completed + "]";
+    }
+}
@@ -3,6 +3,8 @@ package h4g.emart.models;
 import java.time.LocalDateTime;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -12,6 +14,12 @@ import lombok.Getter;
 import lombok.Setter;
 
 @Document(collection = "Preorder")
+@CompoundIndexes({
+    // Pending preorders for a product in the order they were placed, for allocation on restock
+    @CompoundIndex(name = "productId_status_datetime", def = "{'productId': 1, 'status': 1, 'datetime': 1}"),
+    // Serves the pending demand aggregation
+    @CompoundIndex(name = "status_productId", def = "{'status': 1, 'productId': 1}")
+})
 
 public class Preorder {
     @Id
@@ -23,6 +31,10 @@ public class Preorder {
     private @Getter @Setter LocalDateTime datetime = LocalDateTime.now();
     @JsonProperty("status")
     private @Getter @Setter PreorderStatus status = PreorderStatus.PENDING;
+    // When the preorder was fulfilled by allocation on restock
+    private @Getter @Setter LocalDateTime fulfilledAt;
+    // The allocation pass that fulfilled it, so a pass can tell its own claims from concurrent ones
+    private @Getter @Setter String allocationId;
 
     public Preorder() {}
     
@@ -0,0 +1,21 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import lombok.Getter;
+
+// Pending preorder demand for one product
+public class PreorderDemand {
+    private @Getter String productId;
+    private @Getter long pendingQty;
+    private @Getter int distinctUsers;
+    private @Getter LocalDateTime oldestPending;
+
+    public PreorderDemand() {}
+
+    @Override
+    public String toString() {
+        return "PreorderDemand [productId=" + productId + ", pendingQty=" + pendingQty
+                + ", distinctUsers=" + distinctUsers + ", oldestPending=" + oldestPending + "]";
+    }
+}
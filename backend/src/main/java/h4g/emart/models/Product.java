@@ -3,12 +3,22 @@ package h4g.emart.models;
 import java.util.Arrays;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import lombok.Getter;
 import lombok.Setter;
 
 @Document(collection = "Product")
+// Serve the filters and sort orders of /products/query
+@CompoundIndexes({
+    @CompoundIndex(name = "category_price", def = "{'category': 1, 'price': 1}"),
+    @CompoundIndex(name = "category_name", def = "{'category': 1, 'name': 1}"),
+    @CompoundIndex(name = "category_sold", def = "{'category': 1, 'sold': -1}"),
+    @CompoundIndex(name = "price_quantity", def = "{'price': 1, 'quantity': 1}")
+})
 
 public class Product {
     @Id
@@ -19,6 +29,13 @@ public class Product {
     private @Getter @Setter double price;
     private @Getter @Setter long quantity;
     private @Getter @Setter String productPhoto;
+    // Hot products are sold from in-memory stock leases to absorb flash-sale bursts
+    private @Getter @Setter boolean hot;
+    // Units sold, used to sort by popularity
+    private @Getter @Setter long sold;
+    // Catalog version of the last write to this product
+    @Indexed
+    private @Getter @Setter long version;
 
     public Product() {}
     
@@ -50,7 +67,7 @@ public class Product {
     @Override
     public String toString() {
         return "Product [productId=" + productId + ", name=" + name + ", category=" + category + ", desc=" + desc
-                + ", price=" + price + ", quantity=" + quantity + "]";
+                + ", price=" + price + ", quantity=" + quantity + ", hot=" + hot + "]";
     }
     
 }
@@ -0,0 +1,21 @@
+package h4g.emart.models;
+
+import java.util.List;
+
+import lombok.Getter;
+
+// Products changed and deleted since a catalog version
+public class ProductChanges {
+    // Version to pass as "since" on the next request
+    private @Getter long version;
+    private @Getter List<Product> products;
+    private @Getter List<String> deleted;
+
+    public ProductChanges() {}
+
+    public ProductChanges(long version, List<Product> products, List<String> deleted) {
+        this.version = version;
+        this.products = products;
+        this.deleted = deleted;
+    }
+}
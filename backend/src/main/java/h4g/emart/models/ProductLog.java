@@ -1,33 +1,59 @@
 package h4g.emart.models;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import lombok.Getter;
+import lombok.Setter;
 
 @Document(collection = "ProductLog")
+@CompoundIndexes({
+    // Serves /product-logs?field=..., paged in ID order
+    @CompoundIndex(name = "fields_logId", def = "{'fields': 1, '_id': 1}"),
+    // A product's history in the order it happened
+    @CompoundIndex(name = "productId_datetime", def = "{'productId': 1, 'datetime': 1}")
+})
 
 public class ProductLog {
     @Id
-    private @Getter String logId;
+    private @Getter @Setter String logId;
     private @Getter String userId;
     private @Getter String productId;
+    // Serves timeframe queries and archival
+    @Indexed
     private @Getter LocalDateTime datetime;
+    // CREATE, UPDATE or DELETE
     private @Getter String action;
+    // Changed field to its old and new value
+    private @Getter Map<String, FieldChange> changes;
+    // The keys of changes, kept as an array so logs can be found by field through an index
+    private @Getter List<String> fields;
+
+    public ProductLog() {}
     
-    public ProductLog(String logId, String userId, String productId, LocalDateTime datetime, String action) {
+    public ProductLog(String logId, String userId, String productId, LocalDateTime datetime, String action,
+            Map<String, FieldChange> changes) {
         this.logId = logId;
         this.userId = userId;
         this.productId = productId;
         this.datetime = datetime;
         this.action = action;
+        this.changes = changes != null ? changes : new LinkedHashMap<>();
+        this.fields = new ArrayList<>(this.changes.keySet());
     }
 
     @Override
     public String toString() {
         return "ProductLog [logId=" + logId + ", userId=" + userId + ", productId=" + productId + ", datetime="
-                + datetime + ", action=" + action + "]";
+                + datetime + ", action=" + action + ", changes=" + changes + "]";
     }
 }
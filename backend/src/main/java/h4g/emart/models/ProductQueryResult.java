@@ -0,0 +1,50 @@
+package h4g.emart.models;
+
+import java.util.List;
+
+import lombok.Getter;
+
+// One page of a filtered product listing, with facet counts over every matching product
+public class ProductQueryResult {
+    private @Getter List<Product> products;
+    private @Getter long total;
+    private @Getter int page;
+    private @Getter int size;
+    private @Getter List<CategoryCount> categories;
+    private @Getter List<PriceBucket> priceBuckets;
+
+    public ProductQueryResult() {}
+
+    public ProductQueryResult(List<Product> products, long total, int page, int size,
+            List<CategoryCount> categories, List<PriceBucket> priceBuckets) {
+        this.products = products;
+        this.total = total;
+        this.page = page;
+        this.size = size;
+        this.categories = categories;
+        this.priceBuckets = priceBuckets;
+    }
+
+    public static class CategoryCount {
+        private @Getter String category;
+        private @Getter long count;
+
+        public CategoryCount(String category, long count) {
+            this.category = category;
+            this.count = count;
+        }
+    }
+
+    // Products priced from min (inclusive) up to max (exclusive); max is null for the top bucket
+    public static class PriceBucket {
+        private @Getter double min;
+        private @Getter Double max;
+        private @Getter long count;
+
+        public PriceBucket(double min, Double max, long count) {
+            this.min = min;
+            this.max = max;
+            this.count = count;
+        }
+    }
+}
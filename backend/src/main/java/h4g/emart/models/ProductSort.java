@@ -0,0 +1,28 @@
+package h4g.emart.models;
+
+// Sort orders for /products/query
+public enum ProductSort {
+    NAME("name"),
+    PRICE("price"),
+    PRICE_DESC("price_desc"),
+    POPULARITY("popularity");
+
+    private final String sort;
+
+    ProductSort(String sort) {
+        this.sort = sort;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public static ProductSort fromString(String sort) {
+        for (ProductSort s : ProductSort.values()) {
+            if (s.sort.equalsIgnoreCase(sort)) {
+                return s;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sort: " + sort);
+    }
+}
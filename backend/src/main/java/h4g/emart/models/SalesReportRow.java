@@ -0,0 +1,21 @@
+package h4g.emart.models;
+
+import lombok.Getter;
+
+// One row of a sales report, per product and day or per product over the whole range
+public class SalesReportRow {
+    // Null when the row covers the whole range
+    private @Getter String day;
+    private @Getter String productId;
+    private @Getter long qty;
+    private @Getter double revenue;
+    private @Getter int distinctBuyers;
+
+    public SalesReportRow() {}
+
+    @Override
+    public String toString() {
+        return "SalesReportRow [day=" + day + ", productId=" + productId + ", qty=" + qty
+                + ", revenue=" + revenue + ", distinctBuyers=" + distinctBuyers + "]";
+    }
+}
@@ -0,0 +1,30 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// A chunk of stock taken from Product.quantity by one backend node to sell from memory
+@Document(collection = "StockLease")
+
+public class StockLease {
+    @Id
+    private @Getter String leaseId;
+    private @Getter String productId;
+    private @Getter long quantity;
+    // Set from the database clock when the lease is taken, so node clock skew cannot expire a live lease
+    @Indexed
+    private @Getter LocalDateTime datetime;
+
+    public StockLease() {}
+
+    @Override
+    public String toString() {
+        return "StockLease [leaseId=" + leaseId + ", productId=" + productId + ", quantity=" + quantity
+                + ", datetime=" + datetime + "]";
+    }
+}
@@ -0,0 +1,33 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Getter;
+
+// A task in a listing, with the number of contributors instead of the contributors themselves
+public class TaskSummary {
+    @Id
+    private @Getter String taskId;
+    private @Getter String taskName;
+    private @Getter String taskDesc;
+    private @Getter double taskReward;
+    private @Getter LocalDateTime datetime;
+    @JsonProperty("status")
+    private @Getter TaskStatus status;
+    private @Getter int contributorCount;
+    // The status of the user the listing was requested for, or null if they have not joined
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private @Getter ContributorStatus contributorStatus;
+
+    public TaskSummary() {}
+
+    @Override
+    public String toString() {
+        return "TaskSummary [taskId=" + taskId + ", taskName=" + taskName + ", taskReward=" + taskReward
+                + ", datetime=" + datetime + ", status=" + status + ", contributorCount=" + contributorCount + ", contributorStatus=" + contributorStatus + "]";
+    }
+}
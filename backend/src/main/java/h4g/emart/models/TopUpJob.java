@@ -0,0 +1,56 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// One bulk top-up of every user matching a role and status; progress is saved after each chunk so it can resume
+@Document(collection = "TopUpJob")
+
+public class TopUpJob {
+    @Id
+    private @Getter String jobId;
+    // Null matches any role or status
+    private @Getter Role role;
+    private @Getter UserStatus status;
+    private @Getter double amount;
+    // Users matching the filter when the job started
+    private @Getter long total;
+    // Users visited so far, and how many of them were credited
+    private @Getter long processed;
+    private @Getter long credited;
+    // The last user ID of the last finished chunk; users are visited in ID order
+    private @Getter String lastUserId;
+    private @Getter LocalDateTime datetime;
+    // The node running the job, which renews its lease after every chunk; another node may
+    // take over the job once the lease has run out. The lease is set by the database clock
+    private @Getter String owner;
+    private @Getter LocalDateTime leaseExpiresAt;
+    // Incomplete jobs are resumed on startup
+    @Indexed
+    private @Getter boolean completed;
+
+    public TopUpJob() {}
+
+    public TopUpJob(String jobId, Role role, UserStatus status, double amount, long total, String owner) {
+        this.jobId = jobId;
+        this.role = role;
+        this.status = status;
+        this.amount = amount;
+        this.total = total;
+        this.datetime = LocalDateTime.now();
+        this.owner = owner;
+    }
+
+    @Override
+    public String toString() {
+        return "TopUpJob [jobId=" + jobId + ", role=" + role + ", status=" + status + ", amount=" + amount
+                + ", total=" + total + ", processed=" + processed + ", credited=" + credited + ", lastUserId="
+                + lastUserId + ", datetime=" + datetime + ", owner=" + owner + ", leaseExpiresAt=" + leaseExpiresAt
+                + ", completed=" + completed + "]";
+    }
+}
@@ -3,7 +3,9 @@ package h4g.emart.models;
 import java.time.LocalDateTime;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -18,6 +20,10 @@ public class Transaction {
     private @Getter int qtyPurchased;
     private @Getter @Setter double totalPrice;
     private @Getter LocalDateTime datetime = LocalDateTime.now();;
+    // Stock lease the purchase was sold from, used to reconcile leases after a crash
+    @JsonIgnore
+    @Indexed(sparse = true)
+    private @Getter @Setter String leaseId;
 
     public Transaction() {}
 
@@ -1,13 +1,19 @@
 package h4g.emart.models;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
+
 import lombok.Getter;
 import lombok.Setter;
 
 @Document(collection = "User")
+// Loads the leaderboard in balance order
+@CompoundIndex(name = "role_voucherBal", def = "{'role': 1, 'voucherBal': -1}")
 
 public class User {
     @Id
@@ -18,6 +24,12 @@ public class User {
     private @Getter double voucherBal;
     @JsonProperty("status")
     private @Getter @Setter UserStatus status = UserStatus.ACTIVE;
+    // Recent payout runs and top-up jobs applied to the balance, so a resumed run never credits twice.
+    // A credit is guarded on its run ID being absent and pushes it, keeping the last RECENT_PAYOUT_RUNS
+    public static final String PAYOUT_RUNS = "payoutRuns";
+    public static final int RECENT_PAYOUT_RUNS = 50;
+    @JsonIgnore
+    private @Getter List<String> payoutRuns;
 
     public User() {}
 
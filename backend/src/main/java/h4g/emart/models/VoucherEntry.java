@@ -0,0 +1,50 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// One change to a user's voucher balance; entries are only ever inserted
+@Document(collection = "VoucherLedger")
+@CompoundIndexes({
+    // A user's entries since their last snapshot
+    @CompoundIndex(name = "userId_datetime", def = "{'userId': 1, 'datetime': 1}"),
+    // Serves /users/{userId}/ledger, paged in ID order
+    @CompoundIndex(name = "userId_entryId", def = "{'userId': 1, '_id': 1}")
+})
+
+public class VoucherEntry {
+    @Id
+    private @Getter String entryId;
+    private @Getter String userId;
+    private @Getter VoucherEntryType type;
+    // Signed change in cents, so sums are exact
+    private @Getter long amount;
+    // The transaction, task, product or job that caused the change, if any
+    private @Getter String reference;
+    // Set by the database when the entry is written; finds the users with entries since the last snapshot run
+    @Indexed
+    private @Getter LocalDateTime datetime;
+
+    public VoucherEntry() {}
+
+    public VoucherEntry(String entryId, String userId, VoucherEntryType type, long amount, String reference) {
+        this.entryId = entryId;
+        this.userId = userId;
+        this.type = type;
+        this.amount = amount;
+        this.reference = reference;
+    }
+
+    @Override
+    public String toString() {
+        return "VoucherEntry [entryId=" + entryId + ", userId=" + userId + ", type=" + type + ", amount=" + amount
+                + ", reference=" + reference + ", datetime=" + datetime + "]";
+    }
+}
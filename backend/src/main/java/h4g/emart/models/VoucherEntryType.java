@@ -0,0 +1,25 @@
+package h4g.emart.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public enum VoucherEntryType {
+    // The balance a user had when their ledger was started
+    @JsonProperty("OPENING")
+    OPENING,
+
+    @JsonProperty("TOP_UP")
+    TOP_UP,
+
+    @JsonProperty("PURCHASE")
+    PURCHASE,
+
+    // Returns a purchase that was charged but could not be completed
+    @JsonProperty("REFUND")
+    REFUND,
+
+    @JsonProperty("TASK_PAYOUT")
+    TASK_PAYOUT,
+
+    @JsonProperty("ADJUSTMENT")
+    ADJUSTMENT;
+}
@@ -0,0 +1,32 @@
+package h4g.emart.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+
+// A user's ledger balance summed through a point in time; the balance now is this plus the entries after it
+@Document(collection = "VoucherSnapshot")
+
+public class VoucherSnapshot {
+    @Id
+    private @Getter String userId;
+    // In cents
+    private @Getter long balance;
+    private @Getter LocalDateTime through;
+
+    public VoucherSnapshot() {}
+
+    public VoucherSnapshot(String userId, long balance, LocalDateTime through) {
+        this.userId = userId;
+        this.balance = balance;
+        this.through = through;
+    }
+
+    @Override
+    public String toString() {
+        return "VoucherSnapshot [userId=" + userId + ", balance=" + balance + ", through=" + through + "]";
+    }
+}
@@ -0,0 +1,13 @@
+package h4g.emart.repositories;
+
+import h4g.emart.models.DeletedProduct;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import java.util.List;
+
+// Internal only: tombstones must not be forgeable over HTTP
+@RepositoryRestResource(exported = false)
+public interface DeletedProductRepository extends MongoRepository<DeletedProduct, String> {
+    List<DeletedProduct> findByVersionGreaterThan(long version);
+}
@@ -0,0 +1,10 @@
+package h4g.emart.repositories;
+
+import h4g.emart.models.IdempotencyRecord;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+// Internal only: stored responses must not be forgeable over HTTP
+@RepositoryRestResource(exported = false)
+public interface IdempotencyRecordRepository extends MongoRepository<IdempotencyRecord, String> {
+}
@@ -3,11 +3,13 @@ package h4g.emart.repositories;
 import h4g.emart.models.Preorder;
 import h4g.emart.models.PreorderStatus;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface PreorderRepository extends MongoRepository<Preorder, String> {
@@ -37,6 +39,15 @@ public interface PreorderRepository extends MongoRepository<Preorder, String> {
      */
     List<Preorder> findByDatetimeBetween(LocalDateTime start, LocalDateTime end);
 
+    /**
+     * Streams all preorders placed within a specific timeframe from a database cursor.
+     * 
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return A cursor-backed stream of preorders placed between the specified dates; the caller must close it.
+     */
+    Stream<Preorder> streamByDatetimeBetween(LocalDateTime start, LocalDateTime end);
+
      /**
      * Finds all preorders by status.
      * 
@@ -44,4 +55,22 @@ public interface PreorderRepository extends MongoRepository<Preorder, String> {
      * @return A list of preorders with said status.
      */
     List<Preorder> findByStatus(PreorderStatus status);
+
+    /**
+     * Finds the preorders for a product with a given status, oldest first.
+     * 
+     * @param productId The ID of the product.
+     * @param status The preorder status.
+     * @return The matching preorders in the order they were placed.
+     */
+    List<Preorder> findByProductIdAndStatusOrderByDatetimeAsc(String productId, PreorderStatus status);
+
+    /**
+     * Finds one page of preorders in ID order, starting after the given ID.
+     * 
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of preorders to return.
+     * @return The preorders on the page.
+     */
+    List<Preorder> findByPreorderIdGreaterThanOrderByPreorderIdAsc(String after, Limit limit);
 }
@@ -2,11 +2,13 @@ package h4g.emart.repositories;
 
 import h4g.emart.models.ProductLog;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ProductLogRepository extends MongoRepository<ProductLog, String> {
@@ -20,4 +22,40 @@ public interface ProductLogRepository extends MongoRepository<ProductLog, String
      * @return A list of preorders placed between the specified dates.
      */
     List<ProductLog> findByDatetimeBetween(LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Streams all product logs recorded within a specific timeframe from a database cursor.
+     * 
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return A cursor-backed stream of product logs recorded between the specified dates; the caller must close it.
+     */
+    Stream<ProductLog> streamByDatetimeBetween(LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Finds one page of product logs in ID order, starting after the given ID.
+     * 
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of product logs to return.
+     * @return The product logs on the page.
+     */
+    List<ProductLog> findByLogIdGreaterThanOrderByLogIdAsc(String after, Limit limit);
+
+    /**
+     * Finds one page of product logs that changed a given field, in ID order, starting after the given ID.
+     * 
+     * @param field The product field, e.g. "price".
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of product logs to return.
+     * @return The product logs on the page.
+     */
+    List<ProductLog> findByFieldsAndLogIdGreaterThanOrderByLogIdAsc(String field, String after, Limit limit);
+
+    /**
+     * Finds the most recent product logs, newest first.
+     * 
+     * @param limit The maximum number of product logs to return.
+     * @return The most recent product logs.
+     */
+    List<ProductLog> findAllByOrderByDatetimeDescLogIdDesc(Limit limit);
 }
@@ -1,6 +1,7 @@
 package h4g.emart.repositories;
 
 import h4g.emart.models.Product;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -32,5 +33,22 @@ public interface ProductRepository extends MongoRepository<Product, String> {
      * @param maxPrice The maximum price of products to retrieve.
      * @return A list of products within the specified price range.
      */
-    List<Product> findByPriceBetween(long minPrice, long maxPrice);
+    List<Product> findByPriceBetween(double minPrice, double maxPrice);
+
+    /**
+     * Finds products written after a catalog version.
+     * 
+     * @param version The catalog version the caller already has.
+     * @return The products changed since that version.
+     */
+    List<Product> findByVersionGreaterThan(long version);
+
+    /**
+     * Finds one page of products in ID order, starting after the given ID.
+     * 
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of products to return.
+     * @return The products on the page.
+     */
+    List<Product> findByProductIdGreaterThanOrderByProductIdAsc(String after, Limit limit);
 }
@@ -1,14 +1,20 @@
 package h4g.emart.repositories;
 
 import h4g.emart.models.ProductRequest;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface ProductRequestRepository extends MongoRepository<ProductRequest, String> {
     List<ProductRequest> findByUserId(String userId);
 
     List<ProductRequest> findByDatetimeBetween(LocalDateTime start, LocalDateTime end);
 
+    Stream<ProductRequest> streamByDatetimeBetween(LocalDateTime start, LocalDateTime end);
+
+    List<ProductRequest> findByRequestIdGreaterThanOrderByRequestIdAsc(String after, Limit limit);
+
 }
@@ -0,0 +1,11 @@
+package h4g.emart.repositories;
+
+import h4g.emart.models.StockLease;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+
+// Internal only: leases must not be forgeable over HTTP
+@RepositoryRestResource(exported = false)
+public interface StockLeaseRepository extends MongoRepository<StockLease, String> {
+}
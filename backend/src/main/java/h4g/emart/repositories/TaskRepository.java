@@ -6,8 +6,10 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface TaskRepository extends MongoRepository<Task, String> {
     List<Task> findByStatus(TaskStatus status);
     List<Task> findByDatetimeBetween(LocalDateTime start, LocalDateTime end);
+    Stream<Task> streamByDatetimeBetween(LocalDateTime start, LocalDateTime end);
 }
@@ -1,13 +1,17 @@
 package h4g.emart.repositories;
 
 import h4g.emart.models.Transaction;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface TransactionRepository extends MongoRepository<Transaction, String> {
     List<Transaction> findByUserId(String userId);
     List<Transaction> findByProductId(String productId);
     List<Transaction> findByDatetimeBetween(LocalDateTime start, LocalDateTime end);
+    Stream<Transaction> streamByDatetimeBetween(LocalDateTime start, LocalDateTime end);
+    List<Transaction> findByTransactionIdGreaterThanOrderByTransactionIdAsc(String after, Limit limit);
 }
@@ -3,6 +3,7 @@ package h4g.emart.repositories;
 import h4g.emart.models.User;
 import h4g.emart.models.UserStatus;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -13,4 +14,7 @@ public interface UserRepository extends MongoRepository<User, String> {
 
     // Find users by their status
     List<User> findByStatus(UserStatus status);
+
+    // Find one page of users in ID order, starting after the given ID
+    List<User> findByUserIdGreaterThanOrderByUserIdAsc(String after, Limit limit);
 }
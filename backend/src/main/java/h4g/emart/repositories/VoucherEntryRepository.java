@@ -0,0 +1,26 @@
+package h4g.emart.repositories;
+
+import h4g.emart.models.VoucherEntry;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+// Internal only: the ledger is append-only, so it must not be editable over HTTP
+@Repository
+@RepositoryRestResource(exported = false)
+public interface VoucherEntryRepository extends MongoRepository<VoucherEntry, String> {
+
+    /**
+     * Finds one page of a user's ledger entries in ID order, starting after the given ID.
+     * 
+     * @param userId The ID of the user.
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of entries to return.
+     * @return The entries on the page.
+     */
+    List<VoucherEntry> findByUserIdAndEntryIdGreaterThanOrderByEntryIdAsc(String userId, String after, Limit limit);
+}
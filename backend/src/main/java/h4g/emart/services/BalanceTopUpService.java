@@ -0,0 +1,244 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Role;
+import h4g.emart.models.TopUpJob;
+import h4g.emart.models.User;
+import h4g.emart.models.UserStatus;
+import h4g.emart.models.VoucherEntry;
+import h4g.emart.models.VoucherEntryType;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tops up every user matching a role and status, in the background.
+ *
+ * Users are visited in ID order in chunks, each credited with one unordered bulk $inc.
+ * Like task payouts, each $inc is guarded by the job ID and records it on the user in the
+ * same write, so a chunk repeated after a failure or restart never credits anyone twice.
+ * Progress is saved after every chunk. A job is run by the node holding its lease, renewed
+ * with each chunk; a job whose lease runs out, e.g. because its node stopped, is taken over
+ * by the next node to check. Leases are set and compared on the database clock, so nodes
+ * whose clocks disagree cannot take a job over early or hold it past its lease.
+ */
+@Service
+public class BalanceTopUpService {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceTopUpService.class);
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private SequenceGeneratorService sequenceGeneratorService;
+
+    @Autowired
+    private VoucherLedgerService voucherLedgerService;
+
+    @Autowired
+    private LeaderboardService leaderboardService;
+
+    @Value("${topup.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${topup.lease-ms:60000}")
+    private long leaseMs;
+
+    // A lease that ran out, by the database clock that set it
+    private static final Document EXPIRED = new Document("$expr",
+        new Document("$lt", List.of("$leaseExpiresAt", "$$NOW")));
+
+    private static final Document UNLEASED = new Document("leaseExpiresAt", new Document("$exists", false));
+
+    // Identifies this node as the owner of the jobs it runs
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Jobs waiting for or running on this node, so a job is not queued twice
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    // One job at a time, so a top-up never competes with another for the database
+    private ExecutorService runner;
+
+    @PostConstruct
+    void start() {
+        runner = Executors.newSingleThreadExecutor();
+    }
+
+    @PreDestroy
+    void stop() {
+        // An interrupted job stops after its current chunk and is resumed on the next startup
+        runner.shutdownNow();
+    }
+
+    /**
+     * Starts a top-up job.
+     * @param role Only top up users with this role, or null for any role.
+     * @param status Only top up users with this status, or null for any status.
+     * @param amount The amount to add to each balance.
+     * @return The job, before any user has been credited.
+     */
+    public TopUpJob start(Role role, UserStatus status, double amount) {
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Top-up amount must be positive.");
+        }
+        long total = mongoOperations.count(new Query(filter(role, status)), User.class);
+        TopUpJob job = mongoOperations.insert(new TopUpJob(sequenceGeneratorService.generateId("TopUpJob"),
+            role, status, amount, total, nodeId));
+        submit(job.getJobId());
+        return job;
+    }
+
+    /**
+     * Retrieves a job and its progress.
+     * @return The job, or null if not found.
+     */
+    public TopUpJob getJob(String jobId) {
+        return mongoOperations.findById(jobId, TopUpJob.class);
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        resumeAbandoned();
+    }
+
+    /**
+     * Queues every incomplete job whose lease has run out. Only the node that then claims
+     * a job runs it.
+     */
+    @Scheduled(fixedDelayString = "${topup.lease-ms:60000}", initialDelayString = "${topup.lease-ms:60000}")
+    public void resumeAbandoned() {
+        try {
+            Query abandoned = new BasicQuery(new Document("completed", false)
+                .append("$or", List.of(EXPIRED, UNLEASED)));
+            for (TopUpJob job : mongoOperations.find(abandoned, TopUpJob.class)) {
+                log.info("Resuming top-up job {} after user {}", job.getJobId(), job.getLastUserId());
+                submit(job.getJobId());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to resume top-up jobs: {}", e.getMessage());
+        }
+    }
+
+    private void submit(String jobId) {
+        if (!queued.add(jobId)) {
+            return;
+        }
+        runner.execute(() -> {
+            try {
+                run(jobId);
+            } catch (RuntimeException e) {
+                log.warn("Top-up job {} stopped and will be resumed once its lease runs out: {}", jobId, e.getMessage());
+            } finally {
+                queued.remove(jobId);
+            }
+        });
+    }
+
+    // Takes or renews the job's lease, which new jobs and jobs started before leases lack; null if another
+    // node holds it or the job is complete
+    private TopUpJob claim(String jobId) {
+        Query claimable = new BasicQuery(new Document("_id", jobId).append("completed", false)
+            .append("$or", List.of(new Document("owner", nodeId), EXPIRED, UNLEASED)));
+        return mongoOperations.findAndModify(claimable, leased(new Document("owner", nodeId)),
+            FindAndModifyOptions.options().returnNew(true), TopUpJob.class);
+    }
+
+    // Sets the given fields and a lease running leaseMs from the database clock
+    private AggregationUpdate leased(Document fields) {
+        Document set = new Document(fields)
+            .append("leaseExpiresAt", new Document("$add", List.of("$$NOW", leaseMs)));
+        return AggregationUpdate.from(List.of(context -> new Document("$set", set)));
+    }
+
+    private void run(String jobId) {
+        TopUpJob job = claim(jobId);
+        if (job == null) {
+            return;
+        }
+        String after = job.getLastUserId() != null ? job.getLastUserId() : "";
+        while (!Thread.currentThread().isInterrupted()) {
+            Query chunk = new Query(filter(job.getRole(), job.getStatus()).and("_id").gt(after))
+                .with(Sort.by("_id")).limit(chunkSize);
+            chunk.fields().include("_id");
+            List<String> userIds = mongoOperations.find(chunk, User.class).stream().map(User::getUserId).toList();
+            if (userIds.isEmpty()) {
+                mongoOperations.updateFirst(new Query(Criteria.where("_id").is(jobId).and("owner").is(nodeId)),
+                    new Update().set("completed", true), TopUpJob.class);
+                return;
+            }
+
+            // Re-checks the filter, so a user whose role or status changed since the read is skipped
+            BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, User.class);
+            for (String userId : userIds) {
+                ops.updateOne(new Query(filter(job.getRole(), job.getStatus()).and("_id").is(userId)
+                        .and(User.PAYOUT_RUNS).ne(jobId)),
+                    new Update().inc("voucherBal", job.getAmount())
+                        .push(User.PAYOUT_RUNS).slice(-User.RECENT_PAYOUT_RUNS).each(jobId));
+            }
+            long credited = ops.execute().getModifiedCount();
+
+            // Includes users credited by an earlier attempt at this chunk; their entries are keyed so they are recorded once
+            List<VoucherEntry> entries = new ArrayList<>();
+            for (User user : mongoOperations.find(
+                    new Query(Criteria.where("_id").in(userIds).and(User.PAYOUT_RUNS).is(jobId)), User.class)) {
+                entries.add(voucherLedgerService.entry("V-" + jobId + "-" + user.getUserId(), user.getUserId(),
+                    VoucherEntryType.TOP_UP, job.getAmount(), jobId));
+                leaderboardService.update(user);
+            }
+            voucherLedgerService.record(entries);
+
+            after = userIds.get(userIds.size() - 1);
+            // Renews the lease with the progress; if another node has taken the job over, this node stops
+            long saved = mongoOperations.updateFirst(new Query(Criteria.where("_id").is(jobId).and("owner").is(nodeId)),
+                leased(new Document("lastUserId", new Document("$literal", after))
+                    .append("processed", new Document("$add", List.of("$processed", userIds.size())))
+                    .append("credited", new Document("$add", List.of("$credited", credited)))),
+                TopUpJob.class).getModifiedCount();
+            if (saved == 0) {
+                log.warn("Top-up job {} was taken over by another node", jobId);
+                return;
+            }
+        }
+    }
+
+    private static Criteria filter(Role role, UserStatus status) {
+        Criteria criteria = new Criteria();
+        if (role != null) {
+            criteria = criteria.and("role").is(role);
+        }
+        if (status != null) {
+            criteria = criteria.and("status").is(status);
+        }
+        return criteria;
+    }
+}
@@ -0,0 +1,147 @@
+package h4g.emart.services;
+
+import h4g.emart.models.CatalogWatermark;
+import h4g.emart.models.Sequence;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.LongFunction;
+
+/**
+ * Issues the catalog version that every product write stamps onto the product it changes.
+ * Clients holding version V can ask for the products changed since V.
+ *
+ * Versions are reserved from a shared counter in blocks, so a write normally costs no extra
+ * round trip. Blocks make versions commit out of order across nodes, so each node publishes
+ * a watermark: the lowest version it may still commit. {@link #committed()} is the highest
+ * version below every live node's watermark, and is what clients are told to resume from;
+ * a write still in flight is then always above it and reaches them on the next delta.
+ */
+@Service
+public class CatalogVersionService {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogVersionService.class);
+
+    private static final String SEQUENCE_NAME = "CatalogVersion";
+
+    // Published while a node holds no versions, so it does not hold the watermark back
+    private static final long IDLE = Long.MAX_VALUE;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Value("${catalog.version-block-size:100}")
+    private int blockSize;
+
+    // A node that has not published for this long is taken to be gone, e.g. after a shutdown
+    @Value("${catalog.watermark-lease-ms:30000}")
+    private long leaseMs;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Guarded by this: the reserved block, and the versions issued but not yet released
+    private long nextVersion = 1;
+    private long maxVersion = 0;
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+
+    /**
+     * Runs a product write stamped with the next catalog version.
+     * @param write The write, given the version to stamp; the version counts as committed once it returns.
+     * @return What the write returned.
+     */
+    public <T> T write(LongFunction<T> write) {
+        long version = next();
+        try {
+            return write.apply(version);
+        } finally {
+            release(version);
+        }
+    }
+
+    private synchronized long next() {
+        if (nextVersion > maxVersion) {
+            reserveBlock();
+        }
+        long version = nextVersion++;
+        inFlight.add(version);
+        return version;
+    }
+
+    private synchronized void release(long version) {
+        inFlight.remove(version);
+    }
+
+    // Called with the lock held
+    private void reserveBlock() {
+        // Published first, so a reader that misses this node's watermark read the counter before the block existed
+        publish(current());
+        Query query = new Query(Criteria.where("_id").is(SEQUENCE_NAME));
+        Sequence counter = mongoOperations.findAndModify(query, new Update().inc("seq", blockSize),
+            FindAndModifyOptions.options().returnNew(true).upsert(true), Sequence.class);
+        maxVersion = counter.getSeq();
+        nextVersion = maxVersion - blockSize + 1;
+    }
+
+    /**
+     * Returns the highest catalog version below which no write is still in flight on any node,
+     * or 0 if nothing has been written yet. Clients resuming from it miss no change.
+     */
+    public long committed() {
+        // The counter is read before the watermarks; see reserveBlock
+        long committed = current();
+        Document live = new Document("$expr", new Document("$gte",
+            List.of("$heartbeat", new Document("$subtract", List.of("$$NOW", leaseMs)))));
+        for (CatalogWatermark watermark : mongoOperations.find(new BasicQuery(live), CatalogWatermark.class)) {
+            committed = Math.min(committed, watermark.getLow());
+        }
+        return committed;
+    }
+
+    /**
+     * Returns the latest reserved catalog version, or 0 if nothing has been written yet.
+     */
+    public long current() {
+        Sequence counter = mongoOperations.findById(SEQUENCE_NAME, Sequence.class);
+        return counter == null ? 0 : counter.getSeq();
+    }
+
+    // Advances this node's watermark past released versions, giving up an idle block so it stops holding others back
+    @Scheduled(fixedDelayString = "${catalog.watermark-interval-ms:1000}")
+    public void heartbeat() {
+        try {
+            synchronized (this) {
+                if (inFlight.isEmpty()) {
+                    nextVersion = maxVersion + 1;
+                    publish(IDLE);
+                } else {
+                    publish(inFlight.first() - 1);
+                }
+            }
+            Document expired = new Document("$expr", new Document("$lt",
+                List.of("$heartbeat", new Document("$subtract", List.of("$$NOW", 10 * leaseMs)))));
+            mongoOperations.remove(new BasicQuery(expired), CatalogWatermark.class);
+        } catch (RuntimeException e) {
+            log.warn("Unable to publish catalog watermark: {}", e.getMessage());
+        }
+    }
+
+    private void publish(long low) {
+        mongoOperations.upsert(new Query(Criteria.where("_id").is(nodeId)),
+            new Update().set("low", low).currentDate("heartbeat"), CatalogWatermark.class);
+    }
+}
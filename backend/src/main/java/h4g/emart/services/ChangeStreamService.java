@@ -0,0 +1,194 @@
+package h4g.emart.services;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+
+import h4g.emart.models.ChangeEvent;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds this node's single change stream over the collections /events reports on, and turns
+ * relevant changes into events for EventBroadcastService. The stream resumes from its last
+ * token after an error, so a dropped connection does not lose changes.
+ */
+@Service
+public class ChangeStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeStreamService.class);
+
+    // Server error codes for a resume token that has fallen off the oplog
+    private static final List<Integer> HISTORY_LOST = List.of(280, 286);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private EventBroadcastService eventBroadcastService;
+
+    private volatile boolean running;
+    private Thread worker;
+    private BsonDocument resumeToken;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "change-stream");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void run() {
+        long backoffMs = 1000;
+        boolean gap = false;
+        while (running) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open()) {
+                if (resumeToken == null) {
+                    eventBroadcastService.streamStarted(tokenOf(cursor.getResumeToken()), gap);
+                    gap = false;
+                }
+                backoffMs = 1000;
+                while (running) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change == null) {
+                        continue;
+                    }
+                    resumeToken = change.getResumeToken();
+                    ChangeEvent event = toEvent(change);
+                    if (event != null) {
+                        eventBroadcastService.publish(event);
+                    }
+                }
+            } catch (MongoCommandException e) {
+                if (HISTORY_LOST.contains(e.getErrorCode())) {
+                    log.warn("Change stream history lost, restarting from now: {}", e.getMessage());
+                    resumeToken = null;
+                    gap = true;
+                    continue;
+                }
+                backoffMs = pause(e, backoffMs);
+            } catch (RuntimeException e) {
+                backoffMs = pause(e, backoffMs);
+            }
+        }
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+        List<Document> pipeline = List.of(
+            new Document("$match", new Document("ns.coll", new Document("$in", List.of("Product", "Task", "Preorder", "User")))
+                .append("operationType", new Document("$in", List.of("insert", "update", "replace", "delete")))),
+            // Only the fields events are built from, so large documents are not shipped with every change
+            new Document("$project", new Document("operationType", 1)
+                .append("ns", 1)
+                .append("documentKey", 1)
+                .append("updateDescription.updatedFields", 1)
+                .append("updateDescription.removedFields", 1)
+                .append("fullDocument.quantity", 1)
+                .append("fullDocument.status", 1)
+                .append("fullDocument.voucherBal", 1)
+                .append("fullDocument.productId", 1)));
+        var stream = mongoTemplate.getDb().watch(pipeline).fullDocument(FullDocument.UPDATE_LOOKUP);
+        if (resumeToken != null) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+        return stream.cursor();
+    }
+
+    private long pause(RuntimeException e, long backoffMs) {
+        if (!running) {
+            return backoffMs;
+        }
+        log.warn("Change stream interrupted, retrying in {} ms: {}", backoffMs, e.getMessage());
+        try {
+            Thread.sleep(backoffMs);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+        return Math.min(backoffMs * 2, 60_000);
+    }
+
+    // Builds the event for a change, or null if nothing clients care about changed
+    private ChangeEvent toEvent(ChangeStreamDocument<Document> change) {
+        String collection = change.getNamespace().getCollectionName();
+        String id = change.getDocumentKey().get("_id").asString().getValue();
+        String eventId = tokenOf(change.getResumeToken());
+        boolean deleted = change.getOperationTypeString().equals("delete");
+        Document document = change.getFullDocument();
+        Map<String, Object> data = new HashMap<>();
+        if (deleted) {
+            data.put("deleted", true);
+        }
+
+        switch (collection) {
+            case "Product":
+                if (!deleted && !changed(change, "quantity")) {
+                    return null;
+                }
+                if (document != null) {
+                    data.put("quantity", document.get("quantity"));
+                }
+                return new ChangeEvent(eventId, "product", id, data, null);
+            case "Task":
+                if (!deleted && !changed(change, "status")) {
+                    return null;
+                }
+                if (document != null) {
+                    data.put("status", document.get("status"));
+                }
+                return new ChangeEvent(eventId, "task", id, data, null);
+            case "Preorder":
+                if (!deleted && !changed(change, "status")) {
+                    return null;
+                }
+                if (document != null) {
+                    data.put("status", document.get("status"));
+                    data.put("productId", document.get("productId"));
+                }
+                return new ChangeEvent(eventId, "preorder", id, data, null);
+            case "User":
+                if (deleted || !changed(change, "voucherBal") || document == null) {
+                    return null;
+                }
+                data.put("voucherBal", document.get("voucherBal"));
+                return new ChangeEvent(eventId, "balance", id, data, id);
+            default:
+                return null;
+        }
+    }
+
+    // Inserts and replacements count as changing every field
+    private static boolean changed(ChangeStreamDocument<Document> change, String field) {
+        UpdateDescription update = change.getUpdateDescription();
+        return update == null || update.getUpdatedFields() == null || update.getUpdatedFields().containsKey(field);
+    }
+
+    private static String tokenOf(BsonDocument token) {
+        return token == null ? null : token.getString("_data").getValue();
+    }
+}
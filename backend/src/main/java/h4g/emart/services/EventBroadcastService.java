@@ -0,0 +1,233 @@
+package h4g.emart.services;
+
+import h4g.emart.models.ChangeEvent;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fans change events out to connected /events clients.
+ *
+ * Publishing never blocks: each client has a bounded queue drained on a shared sender pool,
+ * and a client whose queue is full is disconnected rather than slowing everyone else down.
+ * Recent events are kept in a replay buffer so a reconnecting client can resume from the ID
+ * of the last event it received; if that ID is older than the buffer, it is told to reload.
+ */
+@Service
+public class EventBroadcastService {
+
+    // Tells the client it may have missed events and should reload what it displays
+    private static final String RESET = "reset";
+    private static final ChangeEvent HEARTBEAT = new ChangeEvent();
+
+    @Value("${events.client-buffer:256}")
+    private int clientBuffer;
+
+    @Value("${events.replay-size:10000}")
+    private int replaySize;
+
+    @Value("${events.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${events.threads:4}")
+    private int threads;
+
+    private ExecutorService senders;
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    // Guarded by itself; also orders registration against publishing so no event is missed or sent twice
+    private final ArrayDeque<ChangeEvent> replay = new ArrayDeque<>();
+
+    // Clients that last saw an event at or after this ID can be resumed from the replay buffer
+    private String replayFloor;
+
+    private static class Client {
+        private final String userId;
+        private final SseEmitter emitter;
+        private final BlockingQueue<ChangeEvent> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Client(String userId, SseEmitter emitter, int capacity) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private boolean wants(ChangeEvent event) {
+            return event.getRecipientId() == null || event.getRecipientId().equals(userId);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        senders = Executors.newFixedThreadPool(threads);
+    }
+
+    @PreDestroy
+    void stop() {
+        clients.forEach(this::close);
+        senders.shutdown();
+    }
+
+    /**
+     * Connects a client.
+     * @param userId The user to deliver balance updates for, or null for public events only.
+     * @param lastEventId The ID of the last event the client received, to resume after a reconnect.
+     * @return The emitter to return from the controller.
+     */
+    public SseEmitter subscribe(String userId, String lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Client client = new Client(userId, emitter, clientBuffer);
+        emitter.onCompletion(() -> clients.remove(client));
+        emitter.onTimeout(() -> close(client));
+        emitter.onError(e -> close(client));
+
+        synchronized (replay) {
+            if (lastEventId != null && !lastEventId.isEmpty()) {
+                if (replayFloor == null || lastEventId.compareTo(replayFloor) < 0) {
+                    client.queue.offer(new ChangeEvent(null, RESET, null, Map.of(), null));
+                } else {
+                    // Resume tokens sort in the order the changes happened
+                    for (ChangeEvent event : replay) {
+                        if (event.getId().compareTo(lastEventId) > 0 && client.wants(event)
+                                && !client.queue.offer(event)) {
+                            // Too far behind to replay within the buffer
+                            client.queue.clear();
+                            client.queue.offer(new ChangeEvent(null, RESET, null, Map.of(), null));
+                            break;
+                        }
+                    }
+                }
+            }
+            clients.add(client);
+        }
+        schedule(client);
+        return emitter;
+    }
+
+    /**
+     * Sends an event to every client it is meant for.
+     */
+    public void publish(ChangeEvent event) {
+        List<Client> recipients = new ArrayList<>();
+        synchronized (replay) {
+            replay.addLast(event);
+            if (replay.size() > replaySize) {
+                replayFloor = replay.removeFirst().getId();
+            }
+            for (Client client : clients) {
+                if (client.wants(event)) {
+                    recipients.add(client);
+                    if (!client.queue.offer(event)) {
+                        // Slow consumer; it will reconnect and resume from its last event
+                        close(client);
+                    }
+                }
+            }
+        }
+        recipients.forEach(this::schedule);
+    }
+
+    /**
+     * Marks where the change stream started, so clients that last saw an earlier event are told to reload.
+     * @param startId The resume token the stream started from.
+     * @param gap Whether changes may have been missed since the previous stream, e.g. after history was lost.
+     */
+    public void streamStarted(String startId, boolean gap) {
+        synchronized (replay) {
+            if (replayFloor == null || gap) {
+                replay.clear();
+                replayFloor = startId;
+            }
+        }
+        if (gap) {
+            publishReset();
+        }
+    }
+
+    private void publishReset() {
+        ChangeEvent reset = new ChangeEvent(null, RESET, null, Map.of(), null);
+        for (Client client : clients) {
+            if (!client.queue.offer(reset)) {
+                close(client);
+            }
+            schedule(client);
+        }
+    }
+
+    // Keeps idle connections from being closed by proxies
+    @Scheduled(fixedDelayString = "${events.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (Client client : clients) {
+            if (client.queue.offer(HEARTBEAT)) {
+                schedule(client);
+            }
+        }
+    }
+
+    private void schedule(Client client) {
+        if (!client.closed && client.scheduled.compareAndSet(false, true)) {
+            senders.execute(() -> drain(client));
+        }
+    }
+
+    private void drain(Client client) {
+        while (true) {
+            ChangeEvent event;
+            while ((event = client.queue.poll()) != null) {
+                if (client.closed) {
+                    return;
+                }
+                try {
+                    if (event == HEARTBEAT) {
+                        client.emitter.send(SseEmitter.event().comment(""));
+                    } else {
+                        SseEmitter.SseEventBuilder builder = SseEmitter.event().name(event.getType()).data(event);
+                        if (event.getId() != null) {
+                            builder.id(event.getId());
+                        }
+                        client.emitter.send(builder);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    close(client);
+                    return;
+                }
+            }
+            client.scheduled.set(false);
+            // An event may have arrived after the last poll but before the flag was cleared
+            if (client.queue.isEmpty() || !client.scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void close(Client client) {
+        client.closed = true;
+        clients.remove(client);
+        try {
+            client.emitter.complete();
+        } catch (IllegalStateException e) {
+            // Already completed
+        }
+    }
+}
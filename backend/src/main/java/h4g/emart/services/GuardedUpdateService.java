@@ -0,0 +1,195 @@
+package h4g.emart.services;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.MongoException;
+import com.mongodb.client.ClientSession;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoExceptionTranslator;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+@Service
+public class GuardedUpdateService {
+
+    private static final MongoExceptionTranslator EXCEPTION_TRANSLATOR = new MongoExceptionTranslator();
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private MongoDatabaseFactory mongoDatabaseFactory;
+
+    /**
+     * Runs writes in one multi-document transaction. The driver retries them on transient errors,
+     * such as a write conflict with another checkout; any other exception aborts the transaction.
+     * @param writes The writes, given operations bound to the transaction.
+     * @return What the writes returned.
+     */
+    public <T> T inTransaction(Function<MongoOperations, T> writes) {
+        try (ClientSession session = mongoDatabaseFactory.getSession(ClientSessionOptions.builder().build())) {
+            return session.withTransaction(() -> {
+                try {
+                    return writes.apply(mongoOperations.withSession(session));
+                } catch (DataAccessException e) {
+                    // Passed on untranslated, so the driver can tell a transient error and retry
+                    if (e.getCause() instanceof MongoException cause) {
+                        throw cause;
+                    }
+                    throw e;
+                }
+            });
+        } catch (MongoException e) {
+            DataAccessException translated = EXCEPTION_TRANSLATOR.translateExceptionIfPossible(e);
+            throw translated != null ? translated : e;
+        }
+    }
+
+    /**
+     * Deducts amounts from a numeric field on several documents in one bulk write,
+     * all or nothing. Each deduction is guarded by field >= amount.
+     *
+     * The bulk write runs in a multi-document transaction, which is aborted if fewer
+     * deductions matched than were sent, so no partial deduction is ever visible and
+     * nothing needs to be recorded on the documents to undo one.
+     *
+     * @param entityClass The mapped document class.
+     * @param field The numeric field to deduct from.
+     * @param amounts The amount to deduct, keyed by document ID.
+     * @return True if every deduction was applied, false if none were.
+     */
+    public boolean deductAll(Class<?> entityClass, String field, Map<String, ? extends Number> amounts) {
+        return deductAll(entityClass, field, amounts, (operations, ids) -> {});
+    }
+
+    /**
+     * As {@link #deductAll(Class, String, Map)}, with further writes made in the same transaction.
+     * @param alongside Given the transaction's operations and the IDs deducted from, e.g. to record why.
+     */
+    public boolean deductAll(Class<?> entityClass, String field, Map<String, ? extends Number> amounts,
+            BiConsumer<MongoOperations, Set<String>> alongside) {
+        if (amounts.isEmpty()) {
+            return true;
+        }
+        try {
+            return inTransaction(operations -> {
+                if (deduct(operations, entityClass, field, amounts) < amounts.size()) {
+                    throw new GuardFailedException();
+                }
+                alongside.accept(operations, amounts.keySet());
+                return true;
+            });
+        } catch (GuardFailedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deducts amounts from a numeric field on several documents, each independently.
+     * Each deduction is guarded by field >= amount.
+     *
+     * All of them are tried as one all-or-nothing bulk write first; if any does not fit,
+     * they are applied one at a time, each in its own transaction.
+     *
+     * @param entityClass The mapped document class.
+     * @param field The numeric field to deduct from.
+     * @param amounts The amount to deduct, keyed by document ID.
+     * @param alongside Given the transaction's operations and the IDs deducted from, e.g. to record why.
+     * @return The IDs of the documents the deduction was applied to.
+     */
+    public Set<String> deductEach(Class<?> entityClass, String field, Map<String, ? extends Number> amounts,
+            BiConsumer<MongoOperations, Set<String>> alongside) {
+        if (deductAll(entityClass, field, amounts, alongside)) {
+            return new HashSet<>(amounts.keySet());
+        }
+        Set<String> applied = new HashSet<>();
+        amounts.forEach((id, amount) -> {
+            boolean deducted = inTransaction(operations -> {
+                if (operations.updateFirst(guarded(id, field, amount), new Update().inc(field, negate(amount)),
+                        entityClass).getModifiedCount() == 0) {
+                    return false;
+                }
+                alongside.accept(operations, Set.of(id));
+                return true;
+            });
+            if (deducted) {
+                applied.add(id);
+            }
+        });
+        return applied;
+    }
+
+    // Sends every guarded deduction in one bulk write; returns how many matched
+    private static int deduct(MongoOperations operations, Class<?> entityClass, String field,
+            Map<String, ? extends Number> amounts) {
+        BulkOperations ops = operations.bulkOps(BulkMode.UNORDERED, entityClass);
+        amounts.forEach((id, amount) -> ops.updateOne(guarded(id, field, amount), new Update().inc(field, negate(amount))));
+        return ops.execute().getMatchedCount();
+    }
+
+    private static Query guarded(String id, String field, Number amount) {
+        return new Query(Criteria.where("_id").is(id).and(field).gte(amount));
+    }
+
+    /**
+     * Adds amounts to a numeric field on several documents in one unordered bulk write.
+     * Used to reverse a successful {@link #deductAll} when a later step fails.
+     */
+    public void restoreAll(Class<?> entityClass, String field, Map<String, ? extends Number> amounts) {
+        if (amounts.isEmpty()) {
+            return;
+        }
+        restore(mongoOperations, entityClass, field, amounts);
+    }
+
+    /**
+     * As {@link #restoreAll(Class, String, Map)}, in one transaction with further writes.
+     * @param alongside Given the transaction's operations and the IDs restored, e.g. to record why.
+     */
+    public void restoreAll(Class<?> entityClass, String field, Map<String, ? extends Number> amounts,
+            BiConsumer<MongoOperations, Set<String>> alongside) {
+        if (amounts.isEmpty()) {
+            return;
+        }
+        inTransaction(operations -> {
+            restore(operations, entityClass, field, amounts);
+            alongside.accept(operations, amounts.keySet());
+            return null;
+        });
+    }
+
+    private static void restore(MongoOperations operations, Class<?> entityClass, String field,
+            Map<String, ? extends Number> amounts) {
+        BulkOperations ops = operations.bulkOps(BulkMode.UNORDERED, entityClass);
+        amounts.forEach((id, amount) ->
+            ops.updateOne(new Query(Criteria.where("_id").is(id)), new Update().inc(field, amount)));
+        ops.execute();
+    }
+
+    private static Number negate(Number amount) {
+        if (amount instanceof Double || amount instanceof Float) {
+            return -amount.doubleValue();
+        }
+        return -amount.longValue();
+    }
+
+    // Aborts a transaction whose deductions did not all match
+    private static class GuardFailedException extends RuntimeException {
+        private GuardFailedException() {
+            super(null, null, false, false);
+        }
+    }
+}
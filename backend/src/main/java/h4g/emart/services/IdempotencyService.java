@@ -0,0 +1,237 @@
+package h4g.emart.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import h4g.emart.exceptions.DuplicateRequestException;
+import h4g.emart.exceptions.IdempotencyKeyReusedException;
+import h4g.emart.models.IdempotencyRecord;
+import h4g.emart.models.IdempotencyStatus;
+import h4g.emart.repositories.IdempotencyRecordRepository;
+import h4g.emart.utils.TtlCache;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@Service
+public class IdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${idempotency.cache.max-size:10000}")
+    private int cacheMaxSize;
+
+    @Value("${idempotency.cache.ttl-minutes:60}")
+    private long cacheTtlMinutes;
+
+    // How long a claim is held before another attempt may assume its request died and take it over
+    @Value("${idempotency.lease-seconds:60}")
+    private long leaseSeconds;
+
+    // Completed responses by key; retries served from here never reach the database
+    private TtlCache<String, Completed> completed;
+
+    private record Completed(String fingerprint, Object result) {}
+
+    // Renews the claims of actions running on this node, so a slow request is not taken over by its retry
+    private ScheduledExecutorService leaseRenewer;
+
+    @PostConstruct
+    void init() {
+        completed = new TtlCache<>(cacheMaxSize, cacheTtlMinutes * 60_000);
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @PreDestroy
+    void stop() {
+        leaseRenewer.shutdownNow();
+    }
+
+    public <T> T execute(String scope, String idempotencyKey, Object request, Class<T> type, Supplier<T> action) {
+        return execute(scope, idempotencyKey, request, objectMapper.constructType(type), action);
+    }
+
+    /**
+     * Runs an action at most once per idempotency key.
+     * The first request claims the key with a single insert; a retry with the same key
+     * returns the stored response instead of running the action again. If the action
+     * fails or returns null, the claim is released so the request can be retried; if it
+     * succeeds but its response cannot be stored, the key is closed instead. The claim's
+     * lease is renewed while the action runs and dated by the database clock; a claim whose
+     * lease has run out is taken over by the next retry, so a crash mid-request does not
+     * block the key until the record expires. Each attempt releases or completes only its
+     * own claim.
+     * @param scope The endpoint the key belongs to, so keys are not shared across endpoints.
+     * @param idempotencyKey The client-supplied key, or null to run the action unconditionally.
+     * @param request The client-supplied fields of the request; a retry must send the same ones.
+     * @param type The response type, used to read back stored responses.
+     * @param action The action to run.
+     * @return The result of the action, or the stored result of the first attempt.
+     * @throws IdempotencyKeyReusedException If the key was first used for a different request.
+     * @throws DuplicateRequestException If the first attempt is still running, or ran but its response was lost.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String scope, String idempotencyKey, Object request, JavaType type, Supplier<T> action) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return action.get();
+        }
+        String key = scope + ":" + idempotencyKey;
+        String fingerprint = fingerprint(request);
+
+        Completed cached = completed.get(key);
+        if (cached != null) {
+            checkFingerprint(cached.fingerprint(), fingerprint, idempotencyKey);
+            return (T) cached.result();
+        }
+
+        String claimToken = UUID.randomUUID().toString();
+        try {
+            claim(key, fingerprint, claimToken);
+        } catch (DuplicateKeyException e) {
+            IdempotencyRecord existing = idempotencyRecordRepository.findById(key).orElse(null);
+            if (existing == null) {
+                throw new DuplicateRequestException("A request with this idempotency key is already in progress.");
+            }
+            checkFingerprint(existing.getFingerprint(), fingerprint, idempotencyKey);
+            if (existing.getStatus() == IdempotencyStatus.COMPLETED) {
+                return replay(existing, type);
+            }
+            if (existing.getStatus() == IdempotencyStatus.FAILED) {
+                throw new DuplicateRequestException(
+                    "A request with this idempotency key already ran, but its response could not be stored.");
+            }
+            if (!takeOver(key, claimToken)) {
+                throw new DuplicateRequestException("A request with this idempotency key is already in progress.");
+            }
+        }
+
+        // Every write below is conditional on the claim, so an attempt that lost it cannot touch the new owner's record
+        Query claim = new Query(Criteria.where("_id").is(key).and("claimToken").is(claimToken));
+        long renewMs = Math.max(1, leaseSeconds * 1000 / 3);
+        ScheduledFuture<?> renewal = leaseRenewer.scheduleAtFixedRate(() -> renew(claim), renewMs, renewMs,
+            TimeUnit.MILLISECONDS);
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException | Error e) {
+            mongoOperations.remove(claim, IdempotencyRecord.class);
+            throw e;
+        } finally {
+            renewal.cancel(false);
+        }
+        if (result == null) {
+            mongoOperations.remove(claim, IdempotencyRecord.class);
+            return null;
+        }
+
+        String response;
+        try {
+            response = objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            // The action ran, so the claim is closed rather than released; a retry must not run it again
+            mongoOperations.updateFirst(claim, new Update().set("status", IdempotencyStatus.FAILED),
+                IdempotencyRecord.class);
+            throw new IllegalStateException("Unable to store response for idempotency key " + idempotencyKey, e);
+        }
+        long stored = mongoOperations.updateFirst(claim,
+            new Update().set("status", IdempotencyStatus.COMPLETED).set("response", response),
+            IdempotencyRecord.class).getModifiedCount();
+        if (stored == 0) {
+            log.warn("Idempotency key {} was taken over while its request ran; its response was not stored", key);
+            return result;
+        }
+        completed.put(key, new Completed(fingerprint, result));
+        return result;
+    }
+
+    private <T> T replay(IdempotencyRecord existing, JavaType type) {
+        try {
+            T result = objectMapper.readValue(existing.getResponse(), type);
+            completed.put(existing.getKey(), new Completed(existing.getFingerprint(), result));
+            return result;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to read stored response for idempotency key " + existing.getKey(), e);
+        }
+    }
+
+    // Claims a new key in one write, dated by the database clock. The query matches no existing record,
+    // so if the key is already taken the upsert's insert fails with a duplicate key
+    private void claim(String key, String fingerprint, String claimToken) {
+        mongoOperations.upsert(new Query(Criteria.where("_id").is(key).and("claimToken").is(claimToken)),
+            new Update().setOnInsert("status", IdempotencyStatus.IN_PROGRESS).setOnInsert("fingerprint", fingerprint)
+                .currentDate("leasedAt").currentDate("datetime"),
+            IdempotencyRecord.class);
+    }
+
+    // Claims an IN_PROGRESS record whose lease ran out, or that predates leasedAt; false if it is still held.
+    // Compared on the database clock, which also dated the lease
+    private boolean takeOver(String key, String claimToken) {
+        Document expired = new Document("$expr", new Document("$lt",
+            List.of("$leasedAt", new Document("$subtract", List.of("$$NOW", leaseSeconds * 1000)))));
+        Query abandoned = new BasicQuery(new Document("_id", key)
+            .append("status", IdempotencyStatus.IN_PROGRESS.name())
+            .append("$or", List.of(expired, new Document("leasedAt", new Document("$exists", false)))));
+        return mongoOperations.updateFirst(abandoned,
+            new Update().set("claimToken", claimToken).currentDate("leasedAt"),
+            IdempotencyRecord.class).getModifiedCount() == 1;
+    }
+
+    private void renew(Query claim) {
+        try {
+            mongoOperations.updateFirst(claim, new Update().currentDate("leasedAt"), IdempotencyRecord.class);
+        } catch (RuntimeException e) {
+            log.warn("Unable to renew idempotency claim: {}", e.getMessage());
+        }
+    }
+
+    private static void checkFingerprint(String stored, String fingerprint, String idempotencyKey) {
+        // Records written before fingerprints were stored match any request
+        if (stored != null && !stored.equals(fingerprint)) {
+            throw new IdempotencyKeyReusedException(
+                "Idempotency key " + idempotencyKey + " was already used for a different request.");
+        }
+    }
+
+    private String fingerprint(Object request) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+            return HexFormat.of().formatHex(hash);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to fingerprint request", e);
+        }
+    }
+}
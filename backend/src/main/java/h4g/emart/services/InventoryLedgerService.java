@@ -0,0 +1,364 @@
+package h4g.emart.services;
+
+import h4g.emart.exceptions.InsufficientStockException;
+import h4g.emart.models.Product;
+import h4g.emart.models.StockLease;
+import h4g.emart.models.Transaction;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sells stock of hot products from memory.
+ *
+ * Each node leases a chunk of stock from Product.quantity with a guarded $inc and grants
+ * reservations against it with a lock-free counter, so a burst on one SKU does not contend
+ * on the product document. Unsold units are returned to Product.quantity on every flush,
+ * keeping the stored quantity close to the true stock. Leases are recorded in StockLease;
+ * one left behind by a crashed node is reconciled against the transactions sold from it.
+ *
+ * A lease record is dated by the database clock and reclaimed once it is older than the
+ * lease timeout. Its owner stops selling from it after half that time by its own monotonic
+ * clock, so a lease is never reclaimed while it is still granting reservations. Whichever of
+ * the owner's flush and the reclaim removes the record returns the unsold stock.
+ */
+@Service
+public class InventoryLedgerService {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryLedgerService.class);
+
+    // Counter value of a lease that has been flushed and must not grant reservations
+    private static final long RETIRED = Long.MIN_VALUE / 2;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private CatalogVersionService catalogVersionService;
+
+    @Value("${inventory.hot.lease-size:100}")
+    private long leaseSize;
+
+    @Value("${inventory.hot.lease-timeout-ms:60000}")
+    private long leaseTimeoutMs;
+
+    private volatile Set<String> hotProductIds = Set.of();
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    // Leases being replaced, by product; other reservations for that product wait for the refill,
+    // while refills for other products go ahead
+    private final Map<String, CompletableFuture<Void>> refills = new ConcurrentHashMap<>();
+
+    /**
+     * A granted reservation; the purchase must record its lease ID on the transaction.
+     */
+    public static class Reservation {
+        private final Lease lease;
+        private final long quantity;
+
+        private Reservation(Lease lease, long quantity) {
+            this.lease = lease;
+            this.quantity = quantity;
+        }
+
+        public String getLeaseId() {
+            return lease.leaseId;
+        }
+
+        public Product getProduct() {
+            return lease.product;
+        }
+    }
+
+    private static class Lease {
+        private final String leaseId;
+        private final Product product;
+        private final long size;
+        private final AtomicLong remaining;
+        // System.nanoTime() after which this node grants no more reservations from the lease
+        private final long sellUntil;
+
+        private Lease(String leaseId, Product product, long quantity, long sellUntil) {
+            this.leaseId = leaseId;
+            this.product = product;
+            this.size = quantity;
+            this.remaining = new AtomicLong(quantity);
+            this.sellUntil = sellUntil;
+        }
+
+        private boolean sellable() {
+            return System.nanoTime() - sellUntil < 0;
+        }
+    }
+
+    public boolean isHot(String productId) {
+        return hotProductIds.contains(productId);
+    }
+
+    /**
+     * Reserves stock of a hot product from this node's lease, leasing more when it runs out.
+     * @param productId The ID of the product.
+     * @param quantity The quantity to reserve.
+     * @return The reservation, or null if the product is not in hot mode.
+     * @throws InsufficientStockException if the product is sold out.
+     */
+    public Reservation reserve(String productId, long quantity) {
+        if (!isHot(productId)) {
+            return null;
+        }
+        while (true) {
+            Lease lease = leases.get(productId);
+            if (lease != null && lease.sellable()) {
+                long remaining = lease.remaining.get();
+                while (remaining >= quantity) {
+                    if (lease.remaining.compareAndSet(remaining, remaining - quantity)) {
+                        return new Reservation(lease, quantity);
+                    }
+                    remaining = lease.remaining.get();
+                }
+            }
+            Reservation reservation = refill(productId, lease, quantity);
+            if (reservation != null) {
+                return reservation;
+            }
+        }
+    }
+
+    // Replaces a product's exhausted or expired lease, reserving from the new one; null if another
+    // reservation replaced it first. No lock is held across the database calls
+    private Reservation refill(String productId, Lease exhausted, long quantity) {
+        CompletableFuture<Void> refill = new CompletableFuture<>();
+        CompletableFuture<Void> running = refills.putIfAbsent(productId, refill);
+        if (running != null) {
+            // Another reservation is already refilling; retry against its lease, whatever the outcome
+            running.handle((result, e) -> null).join();
+            return null;
+        }
+        try {
+            Reservation reservation = null;
+            if (leases.get(productId) == exhausted) {
+                retire(productId, exhausted);
+                Lease next = takeLease(productId, quantity);
+                if (next == null) {
+                    throw new InsufficientStockException("Insufficient product stock for product ID " + productId);
+                }
+                // Granted before the lease is published, so the reservation that took it is served first
+                next.remaining.addAndGet(-quantity);
+                reservation = new Reservation(next, quantity);
+                leases.put(productId, next);
+            }
+            refill.complete(null);
+            return reservation;
+        } catch (RuntimeException e) {
+            refill.completeExceptionally(e);
+            throw e;
+        } finally {
+            refills.remove(productId, refill);
+        }
+    }
+
+    /**
+     * Returns a reservation whose purchase did not go through.
+     */
+    public void release(Reservation reservation) {
+        AtomicLong remaining = reservation.lease.remaining;
+        long current = remaining.get();
+        while (current >= 0) {
+            if (remaining.compareAndSet(current, current + reservation.quantity)) {
+                return;
+            }
+            current = remaining.get();
+        }
+        // The lease was already flushed without these units, so they go straight back to the product
+        returnStock(reservation.lease.product.getProductId(), reservation.quantity, -reservation.quantity);
+    }
+
+    /**
+     * Returns this node's unsold leased stock for a product, e.g. before an admin edits its quantity.
+     */
+    public void flush(String productId) {
+        Lease lease = leases.remove(productId);
+        if (lease != null) {
+            retire(productId, lease);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.hot.flush-interval-ms:1000}")
+    public void flushAll() {
+        for (String productId : Set.copyOf(leases.keySet())) {
+            flush(productId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushAll();
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadHotProducts() {
+        refreshHotProducts();
+    }
+
+    // Picks up products flagged or unflagged on other nodes
+    @Scheduled(fixedDelayString = "${inventory.hot.refresh-interval-ms:30000}",
+        initialDelayString = "${inventory.hot.refresh-interval-ms:30000}")
+    public void refreshHotProducts() {
+        try {
+            Query query = new Query(Criteria.where("hot").is(true));
+            query.fields().include("_id");
+            Set<String> ids = new HashSet<>();
+            for (Product product : mongoOperations.find(query, Product.class)) {
+                ids.add(product.getProductId());
+            }
+            hotProductIds = Set.copyOf(ids);
+            for (String productId : Set.copyOf(leases.keySet())) {
+                if (!ids.contains(productId)) {
+                    flush(productId);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to refresh hot products: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Turns hot mode on or off for a product on this node, ahead of the next refresh.
+     */
+    public void setHot(String productId, boolean hot) {
+        Set<String> ids = new HashSet<>(hotProductIds);
+        if (hot) {
+            ids.add(productId);
+        } else {
+            ids.remove(productId);
+        }
+        hotProductIds = Set.copyOf(ids);
+        if (!hot) {
+            flush(productId);
+        }
+    }
+
+    /**
+     * Reconciles leases left behind by nodes that stopped without flushing.
+     * Units not accounted for by a transaction sold from the lease are returned to the product.
+     */
+    @Scheduled(fixedDelayString = "${inventory.hot.reclaim-interval-ms:60000}", initialDelay = 60000)
+    public void reclaimExpiredLeases() {
+        try {
+            // Compared on the database clock, which also dated the lease
+            Document expired = new Document("$expr", new Document("$lt",
+                List.of("$datetime", new Document("$subtract", List.of("$$NOW", leaseTimeoutMs)))));
+            for (StockLease lease : mongoOperations.find(new BasicQuery(expired), StockLease.class)) {
+                if (leases.values().stream().anyMatch(l -> l.leaseId.equals(lease.getLeaseId()))) {
+                    continue;
+                }
+                long sold = soldFromLease(lease.getLeaseId());
+                long unsold = lease.getQuantity() - sold;
+                if (!removeLease(lease.getLeaseId())) {
+                    continue;
+                }
+                returnStock(lease.getProductId(), Math.max(unsold, 0), sold);
+                log.info("Reclaimed {} unsold units from expired lease {}", unsold, lease.getLeaseId());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to reclaim expired stock leases: {}", e.getMessage());
+        }
+    }
+
+    // Takes a new lease of up to leaseSize units, but at least the quantity being reserved
+    private Lease takeLease(String productId, long minimum) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Product current = mongoOperations.findById(productId, Product.class);
+            if (current == null || current.getQuantity() < minimum) {
+                return null;
+            }
+            // Read before the lease is dated, so this node stops selling at least half a timeout before it can be reclaimed
+            long sellUntil = System.nanoTime() + leaseTimeoutMs * 1_000_000 / 2;
+            long size = Math.max(minimum, Math.min(leaseSize, current.getQuantity()));
+            Query query = new Query(Criteria.where("_id").is(productId).and("quantity").gte(size));
+            Product product = catalogVersionService.write(version -> mongoOperations.findAndModify(query,
+                new Update().inc("quantity", -size).set("version", version),
+                FindAndModifyOptions.options().returnNew(true), Product.class));
+            if (product != null) {
+                // Stock is taken before the lease is recorded, so a crash in between can only undersell
+                String leaseId = UUID.randomUUID().toString();
+                mongoOperations.upsert(new Query(Criteria.where("_id").is(leaseId)),
+                    new Update().setOnInsert("productId", productId).setOnInsert("quantity", size).currentDate("datetime"),
+                    StockLease.class);
+                return new Lease(leaseId, product, size, sellUntil);
+            }
+        }
+        return null;
+    }
+
+    // Stops a lease from granting reservations and returns its unsold units
+    private void retire(String productId, Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        long unsold = lease.remaining.getAndSet(RETIRED);
+        if (unsold == RETIRED) {
+            return;
+        }
+        leases.remove(productId, lease);
+        // The lease record goes first, so a crash in between can only undersell
+        if (!removeLease(lease.leaseId)) {
+            log.warn("Stock lease {} was reclaimed before this node flushed it", lease.leaseId);
+            return;
+        }
+        returnStock(productId, Math.max(unsold, 0), lease.size - Math.max(unsold, 0));
+    }
+
+    // Whoever removes the lease record returns its stock, so it is returned once
+    private boolean removeLease(String leaseId) {
+        return mongoOperations.remove(new Query(Criteria.where("_id").is(leaseId)), StockLease.class)
+            .getDeletedCount() == 1;
+    }
+
+    // Returns unsold units to the product and counts the units sold from memory
+    private void returnStock(String productId, long unsold, long sold) {
+        if (unsold == 0 && sold == 0) {
+            return;
+        }
+        Query query = new Query(Criteria.where("_id").is(productId));
+        catalogVersionService.write(version -> mongoOperations.updateFirst(query,
+            new Update().inc("quantity", unsold).inc("sold", sold).set("version", version), Product.class));
+    }
+
+    private long soldFromLease(String leaseId) {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(Criteria.where("leaseId").is(leaseId)),
+            Aggregation.group().sum("qtyPurchased").as("sold"));
+        Document result = mongoOperations.aggregate(aggregation, Transaction.class, Document.class)
+            .getUniqueMappedResult();
+        return result == null ? 0 : ((Number) result.get("sold")).longValue();
+    }
+}
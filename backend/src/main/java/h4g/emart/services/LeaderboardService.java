@@ -0,0 +1,244 @@
+package h4g.emart.services;
+
+import h4g.emart.models.LeaderboardEntry;
+import h4g.emart.models.Role;
+import h4g.emart.models.User;
+import h4g.emart.models.UserStatus;
+import h4g.emart.utils.RankedSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Active residents ranked by voucher balance, held in memory so the leaderboard and a
+ * single user's rank are answered without reading every user.
+ *
+ * The ranking is loaded through the (role, voucherBal) index and then kept current as
+ * this node changes balances. Balance changes made on other nodes, or applied here in a
+ * different order than in the database, are corrected by a periodic rebuild.
+ */
+@Service
+public class LeaderboardService {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaderboardService.class);
+
+    // Highest balance first; ties broken by user ID so every resident has a distinct place
+    private static final Comparator<Standing> ORDER = Comparator.comparingDouble(Standing::voucherBal).reversed()
+        .thenComparing(Standing::userId);
+
+    // How many times a rebuild re-reads adjusted users before swapping in the new board anyway
+    private static final int MAX_REREADS = 3;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    private Board board = new Board();
+
+    // Writes made while a rebuild is loading, replayed onto the new board before it is swapped in
+    private List<Consumer<Board>> pendingWrites;
+
+    // Users adjusted while a rebuild is loading. The new board may already hold an adjusted
+    // balance, so these are re-read instead of having the change replayed
+    private Set<String> pendingAdjusts;
+    private record Standing(String userId, String name, double voucherBal) {}
+
+    private static class Board {
+        private final RankedSet<Standing> ranking = new RankedSet<>(ORDER);
+        private final Map<String, Standing> byUser = new HashMap<>();
+
+        private void put(Standing standing) {
+            remove(standing.userId());
+            ranking.add(standing);
+            byUser.put(standing.userId(), standing);
+        }
+
+        private void remove(String userId) {
+            Standing previous = byUser.remove(userId);
+            if (previous != null) {
+                ranking.remove(previous);
+            }
+        }
+
+        private void adjust(String userId, double amount) {
+            Standing previous = byUser.get(userId);
+            if (previous != null) {
+                put(new Standing(userId, previous.name(), previous.voucherBal() + amount));
+            }
+        }
+    }
+
+    /**
+     * Retrieves the top of the leaderboard.
+     * @param limit The number of residents to return.
+     * @return The residents with the highest balances, highest first.
+     */
+    public synchronized List<LeaderboardEntry> getTop(int limit) {
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        for (Standing standing : board.ranking.first(limit)) {
+            entries.add(new LeaderboardEntry(entries.size() + 1, standing.userId(), standing.name(), standing.voucherBal()));
+        }
+        return entries;
+    }
+
+    /**
+     * Retrieves one resident's place on the leaderboard.
+     * @param userId The ID of the user.
+     * @return The user's entry, or null if the user is not an active resident.
+     */
+    public synchronized LeaderboardEntry getRank(String userId) {
+        Standing standing = board.byUser.get(userId);
+        if (standing == null) {
+            return null;
+        }
+        return new LeaderboardEntry(board.ranking.rank(standing) + 1, userId, standing.name(), standing.voucherBal());
+    }
+
+    /**
+     * Records a user's current balance, role and status as just read or written.
+     */
+    public void update(User user) {
+        if (user == null) {
+            return;
+        }
+        if (user.getRole() == Role.RESIDENT && user.getStatus() == UserStatus.ACTIVE) {
+            Standing standing = new Standing(user.getUserId(), user.getName(), user.getVoucherBal());
+            write(board -> board.put(standing));
+        } else {
+            remove(user.getUserId());
+        }
+    }
+
+    /**
+     * Removes a user from the leaderboard.
+     */
+    public void remove(String userId) {
+        write(board -> board.remove(userId));
+    }
+
+    /**
+     * Applies balance changes that were written with $inc, so the new balances were not read back.
+     * @param amounts The change to each balance, keyed by user ID.
+     * @param sign 1 if the amounts were added, -1 if they were deducted.
+     */
+    public void adjust(Map<String, ? extends Number> amounts, int sign) {
+        if (amounts.isEmpty()) {
+            return;
+        }
+        Map<String, Double> changes = new HashMap<>();
+        amounts.forEach((userId, amount) -> changes.put(userId, sign * amount.doubleValue()));
+        synchronized (this) {
+            changes.forEach(board::adjust);
+            if (pendingAdjusts != null) {
+                pendingAdjusts.addAll(changes.keySet());
+            }
+        }
+    }
+
+    /**
+     * Re-reads users whose balances changed by an amount that is not known here.
+     * @param userIds The IDs of the users to re-read.
+     */
+    public void reload(Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        Set<String> missing = new HashSet<>(userIds);
+        for (User user : mongoOperations.find(new Query(Criteria.where("_id").in(userIds)), User.class)) {
+            missing.remove(user.getUserId());
+            update(user);
+        }
+        missing.forEach(this::remove);
+    }
+
+    private synchronized void write(Consumer<Board> change) {
+        change.accept(board);
+        if (pendingWrites != null) {
+            pendingWrites.add(change);
+        }
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadLeaderboard() {
+        rebuild();
+    }
+
+    @Scheduled(fixedDelayString = "${leaderboard.refresh-interval-ms:300000}",
+        initialDelayString = "${leaderboard.refresh-interval-ms:300000}")
+    public void rebuild() {
+        synchronized (this) {
+            if (pendingWrites != null) {
+                return;
+            }
+            pendingWrites = new ArrayList<>();
+            pendingAdjusts = new HashSet<>();
+        }
+
+        Board fresh = new Board();
+        boolean loaded = false;
+        try {
+            Query residents = new Query(Criteria.where("role").is(Role.RESIDENT).and("status").is(UserStatus.ACTIVE))
+                .with(Sort.by(Sort.Direction.DESC, "voucherBal"));
+            residents.fields().include("name", "voucherBal", "role", "status");
+            try (Stream<User> users = mongoOperations.stream(residents, User.class)) {
+                users.forEach(user -> fresh.put(new Standing(user.getUserId(), user.getName(), user.getVoucherBal())));
+            }
+            loaded = true;
+        } catch (RuntimeException e) {
+            log.warn("Unable to rebuild leaderboard: {}", e.getMessage());
+        }
+
+        Set<String> unread = Set.of();
+        for (int attempt = 0; ; attempt++) {
+            Set<String> adjusted;
+            synchronized (this) {
+                adjusted = pendingAdjusts;
+                pendingAdjusts = new HashSet<>();
+                if (!loaded || adjusted.isEmpty() || attempt == MAX_REREADS) {
+                    if (loaded) {
+                        pendingWrites.forEach(change -> change.accept(fresh));
+                        board = fresh;
+                        unread = adjusted;
+                    }
+                    pendingWrites = null;
+                    pendingAdjusts = null;
+                    break;
+                }
+            }
+            // Recorded as writes, so they are replayed in order with any made since
+            try {
+                reload(adjusted);
+            } catch (RuntimeException e) {
+                log.warn("Unable to rebuild leaderboard: {}", e.getMessage());
+                loaded = false;
+            }
+        }
+        // Adjusted too often to settle before the swap; read again onto the new board
+        try {
+            reload(unread);
+        } catch (RuntimeException e) {
+            log.warn("Unable to reload adjusted users: {}", e.getMessage());
+        }
+    }
+}
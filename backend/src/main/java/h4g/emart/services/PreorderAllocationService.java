@@ -0,0 +1,220 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Preorder;
+import h4g.emart.models.PreorderStatus;
+import h4g.emart.models.Product;
+import h4g.emart.models.Transaction;
+import h4g.emart.models.User;
+import h4g.emart.models.VoucherEntry;
+import h4g.emart.models.VoucherEntryType;
+import h4g.emart.repositories.PreorderRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Fulfils pending preorders for a product when it is restocked.
+ *
+ * Pending preorders are walked oldest first and allocated from the product's stock, each
+ * charged its preorder price. A preorder whose user cannot afford it, or that needs more
+ * than the stock left, is skipped and stays pending, and later preorders are still
+ * considered. The whole pass is a handful of bulk writes: the allocated stock is taken
+ * with one guarded update, the users are charged in one bulk write, the funded preorders
+ * are claimed as fulfilled in another, and a transaction is inserted for each fulfilled
+ * preorder in one bulk insert, so the sale appears in transaction history and sales
+ * reports. Stock and charges for preorders that could not be completed are then returned.
+ */
+@Service
+public class PreorderAllocationService {
+
+    @Autowired
+    private PreorderRepository preorderRepository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private GuardedUpdateService guardedUpdateService;
+
+    @Autowired
+    private CatalogVersionService catalogVersionService;
+
+    @Autowired
+    private PreorderDemandService preorderDemandService;
+
+    @Autowired
+    private LeaderboardService leaderboardService;
+
+    @Autowired
+    private VoucherLedgerService voucherLedgerService;
+
+    @Autowired
+    private SequenceGeneratorService sequenceGeneratorService;
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    // Allocations for the same product on this node run one at a time
+    private final Object[] locks = new Object[64];
+
+    public PreorderAllocationService() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Allocates a product's stock to its pending preorders.
+     * @param productId The ID of the restocked product.
+     * @return The number of preorders fulfilled.
+     */
+    public int allocate(String productId) {
+        synchronized (locks[Math.floorMod(productId.hashCode(), locks.length)]) {
+            List<Preorder> pending = preorderRepository.findByProductIdAndStatusOrderByDatetimeAsc(
+                productId, PreorderStatus.PENDING);
+            if (pending.isEmpty()) {
+                return 0;
+            }
+            Product product = mongoOperations.findById(productId, Product.class);
+            if (product == null || product.getQuantity() <= 0) {
+                return 0;
+            }
+
+            Set<String> userIds = new HashSet<>();
+            pending.forEach(preorder -> userIds.add(preorder.getUserId()));
+            Map<String, Double> balances = new HashMap<>();
+            for (User user : mongoOperations.find(new Query(Criteria.where("_id").in(userIds)), User.class)) {
+                balances.put(user.getUserId(), user.getVoucherBal());
+            }
+
+            // Plan against the stock and balances read above; the writes below re-check both
+            long stock = product.getQuantity();
+            long units = 0;
+            List<Preorder> planned = new ArrayList<>();
+            Map<String, Double> charges = new LinkedHashMap<>();
+            for (Preorder preorder : pending) {
+                Double balance = balances.get(preorder.getUserId());
+                if (preorder.getQtyPreordered() <= 0 || preorder.getQtyPreordered() > stock
+                        || balance == null || balance < preorder.getTotalPrice()) {
+                    continue;
+                }
+                balances.put(preorder.getUserId(), balance - preorder.getTotalPrice());
+                charges.merge(preorder.getUserId(), preorder.getTotalPrice(), Double::sum);
+                stock -= preorder.getQtyPreordered();
+                units += preorder.getQtyPreordered();
+                planned.add(preorder);
+            }
+            if (planned.isEmpty()) {
+                return 0;
+            }
+
+            Query reserve = new Query(Criteria.where("_id").is(productId).and("quantity").gte(units));
+            long taken = units;
+            long reserved = catalogVersionService.write(version -> mongoOperations.updateFirst(reserve,
+                new Update().inc("quantity", -taken).inc("sold", taken).set("version", version), Product.class))
+                .getModifiedCount();
+            if (reserved == 0) {
+                // Stock was sold in the meantime; the next restock allocates again
+                return 0;
+            }
+
+            // Claims carry this pass's ID, so preorders claimed by anyone else are told apart exactly;
+            // it also keys the pass's ledger entries, each written with the charge or refund it records
+            String allocationId = UUID.randomUUID().toString();
+            Set<String> charged = guardedUpdateService.deductEach(User.class, "voucherBal", charges,
+                (operations, ids) -> VoucherLedgerService.insert(operations,
+                    entries(allocationId, charges, ids, -1, VoucherEntryType.PURCHASE, productId)));
+            Map<String, Double> applied = new HashMap<>(charges);
+            applied.keySet().retainAll(charged);
+            leaderboardService.adjust(applied, -1);
+            List<Preorder> funded = planned.stream().filter(preorder -> charged.contains(preorder.getUserId())).toList();
+
+            Set<String> fulfilled = new HashSet<>();
+            if (!funded.isEmpty()) {
+                LocalDateTime fulfilledAt = LocalDateTime.now();
+                BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, Preorder.class);
+                for (Preorder preorder : funded) {
+                    ops.updateOne(
+                        new Query(Criteria.where("_id").is(preorder.getPreorderId()).and("status").is(PreorderStatus.PENDING)),
+                        new Update().set("status", PreorderStatus.FULFILLED).set("fulfilledAt", fulfilledAt)
+                            .set("allocationId", allocationId));
+                    fulfilled.add(preorder.getPreorderId());
+                }
+                long modified = ops.execute().getModifiedCount();
+                preorderDemandService.invalidate();
+                if (modified < funded.size()) {
+                    // Some were cancelled or fulfilled elsewhere after they were read
+                    Query notOurs = new Query(Criteria.where("_id").in(fulfilled).and("allocationId").ne(allocationId));
+                    notOurs.fields().include("_id");
+                    mongoOperations.find(notOurs, Preorder.class)
+                        .forEach(preorder -> fulfilled.remove(preorder.getPreorderId()));
+                }
+                recordSales(funded.stream().filter(preorder -> fulfilled.contains(preorder.getPreorderId())).toList());
+            }
+
+            long unallocated = 0;
+            Map<String, Double> refunds = new HashMap<>();
+            for (Preorder preorder : planned) {
+                if (!fulfilled.contains(preorder.getPreorderId())) {
+                    unallocated += preorder.getQtyPreordered();
+                    if (charged.contains(preorder.getUserId())) {
+                        refunds.merge(preorder.getUserId(), preorder.getTotalPrice(), Double::sum);
+                    }
+                }
+            }
+            guardedUpdateService.restoreAll(User.class, "voucherBal", refunds,
+                (operations, ids) -> VoucherLedgerService.insert(operations,
+                    entries(allocationId, refunds, ids, 1, VoucherEntryType.REFUND, productId)));
+            leaderboardService.adjust(refunds, 1);
+            if (unallocated > 0) {
+                long returned = unallocated;
+                catalogVersionService.write(version -> mongoOperations.updateFirst(
+                    new Query(Criteria.where("_id").is(productId)),
+                    new Update().inc("quantity", returned).inc("sold", -returned).set("version", version),
+                    Product.class));
+            }
+            return fulfilled.size();
+        }
+    }
+
+    // One ledger entry per user, keyed by the allocation pass so a repeated charge or refund is refused
+    private List<VoucherEntry> entries(String allocationId, Map<String, Double> amounts, Set<String> userIds,
+            int sign, VoucherEntryType type, String productId) {
+        List<VoucherEntry> entries = new ArrayList<>();
+        for (String userId : userIds) {
+            String entryId = "V-" + type.name().toLowerCase() + "-" + allocationId + "-" + userId;
+            entries.add(voucherLedgerService.entry(entryId, userId, type, sign * amounts.get(userId), productId));
+        }
+        return entries;
+    }
+
+    // Records fulfilled preorders as purchases, as fulfilling one by hand does through POST /transactions
+    private void recordSales(List<Preorder> preorders) {
+        if (preorders.isEmpty()) {
+            return;
+        }
+        List<Transaction> transactions = new ArrayList<>();
+        for (Preorder preorder : preorders) {
+            transactions.add(new Transaction(sequenceGeneratorService.generateId("Transaction"), preorder.getUserId(),
+                preorder.getProductId(), preorder.getQtyPreordered(), preorder.getTotalPrice()));
+        }
+        List<Transaction> created = new ArrayList<>(mongoOperations.insert(transactions, Transaction.class));
+        salesRollupService.recordAll(created);
+    }
+}
@@ -0,0 +1,92 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Preorder;
+import h4g.emart.models.PreorderDemand;
+import h4g.emart.models.PreorderStatus;
+import h4g.emart.utils.TtlCache;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+import java.util.List;
+
+/**
+ * Pending preorder demand per product, computed with one aggregation over the
+ * (status, productId) index and cached until a preorder write on this node invalidates it.
+ * The cache also expires, to pick up writes made on other nodes.
+ */
+@Service
+public class PreorderDemandService {
+
+    private static final String DEMAND_KEY = "demand";
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Value("${preorder.demand.cache-ttl-ms:30000}")
+    private long cacheTtlMs;
+
+    private TtlCache<String, List<PreorderDemand>> cache;
+
+    // Bumped on every invalidation, so a load that overlapped a write is not cached
+    private long generation;
+
+    @PostConstruct
+    void initCache() {
+        cache = new TtlCache<>(1, cacheTtlMs);
+    }
+
+    /**
+     * Retrieves pending demand for every product with pending preorders.
+     * @return One row per product, highest pending quantity first.
+     */
+    public List<PreorderDemand> getDemand() {
+        List<PreorderDemand> cached = cache.get(DEMAND_KEY);
+        if (cached != null) {
+            return cached;
+        }
+        long loadGeneration;
+        synchronized (this) {
+            loadGeneration = generation;
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+            stage("$match", new Document("status", PreorderStatus.PENDING.name())),
+            stage("$group", new Document("_id", "$productId")
+                .append("pendingQty", new Document("$sum", "$qtyPreordered"))
+                .append("users", new Document("$addToSet", "$userId"))
+                .append("oldestPending", new Document("$min", "$datetime"))),
+            stage("$project", new Document("_id", 0)
+                .append("productId", "$_id")
+                .append("pendingQty", 1)
+                .append("distinctUsers", new Document("$size", "$users"))
+                .append("oldestPending", 1)),
+            stage("$sort", new Document("pendingQty", -1).append("productId", 1)));
+        List<PreorderDemand> demand = List.copyOf(
+            mongoOperations.aggregate(aggregation, Preorder.class, PreorderDemand.class).getMappedResults());
+        synchronized (this) {
+            if (loadGeneration == generation) {
+                cache.put(DEMAND_KEY, demand);
+            }
+        }
+        return demand;
+    }
+
+    /**
+     * Drops the cached demand after a preorder write.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        cache.clear();
+    }
+
+    private static AggregationOperation stage(String operator, Object spec) {
+        return context -> new Document(operator, spec);
+    }
+}
@@ -1,6 +1,8 @@
 package h4g.emart.services;
 
+import h4g.emart.exceptions.PreorderAllocatedException;
 import h4g.emart.models.Preorder;
+import h4g.emart.models.PreorderDemand;
 import h4g.emart.models.PreorderStatus;
 import h4g.emart.models.Product;
 import h4g.emart.repositories.UserRepository;
@@ -9,6 +11,12 @@ import h4g.emart.services.ProductService;
 import h4g.emart.services.SequenceGeneratorService;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -16,6 +24,7 @@ import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 public class PreorderService {
@@ -32,6 +41,12 @@ public class PreorderService {
     @Autowired
     private SequenceGeneratorService sequenceGeneratorService;
 
+    @Autowired
+    private PreorderDemandService preorderDemandService;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
     /**
      * Creates a new preorder.
      * 
@@ -43,7 +58,9 @@ public class PreorderService {
         if (userRepository.existsById(preorder.getUserId()) && product != null) {
             preorder.setPreorderId(sequenceGeneratorService.generateId("Preorder"));
             preorder.setTotalPrice(product.getPrice() * preorder.getQtyPreordered());
-            return preorderRepository.save(preorder);
+            Preorder saved = preorderRepository.save(preorder);
+            preorderDemandService.invalidate();
+            return saved;
         }
         return null;
     }
@@ -68,23 +85,44 @@ public class PreorderService {
         return preorderRepository.findAll();
     }
 
+    /**
+     * Retrieves one page of preorders in ID order.
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of preorders to return.
+     * @return The preorders on the page.
+     */
+    public List<Preorder> getPreordersPage(String after, int limit) {
+        return preorderRepository.findByPreorderIdGreaterThanOrderByPreorderIdAsc(after, Limit.of(limit));
+    }
+
     /**
      * Updates an existing preorder.
+     * Only the quantity, price and time are written, and only while the preorder is pending and
+     * unallocated, so an allocation on restock that lands first is never overwritten.
      * 
      * @param preorderId The ID of the preorder to update.
      * @param updatedPreorder The updated preorder details.
      * @return The updated preorder if found and updated, otherwise null.
+     * @throws PreorderAllocatedException If the preorder is no longer pending.
      */
     public Preorder updatePreorder(String preorderId, Preorder updatedPreorder) {
-        Optional<Preorder> existingPreorder = preorderRepository.findById(preorderId);
-        if (existingPreorder.isPresent()) {
-            Preorder preorder = existingPreorder.get();
-            preorder.setQtyPreordered(updatedPreorder.getQtyPreordered());
-            preorder.setTotalPrice(updatedPreorder.getTotalPrice());
-            preorder.setDatetime(updatedPreorder.getDatetime());
-            return preorderRepository.save(preorder);
+        Query query = new Query(Criteria.where("_id").is(preorderId)
+            .and("status").is(PreorderStatus.PENDING)
+            .and("allocationId").exists(false));
+        Update update = new Update()
+            .set("qtyPreordered", updatedPreorder.getQtyPreordered())
+            .set("totalPrice", updatedPreorder.getTotalPrice())
+            .set("datetime", updatedPreorder.getDatetime());
+        Preorder updated = mongoOperations.findAndModify(query, update,
+            FindAndModifyOptions.options().returnNew(true), Preorder.class);
+        if (updated == null) {
+            if (preorderRepository.existsById(preorderId)) {
+                throw new PreorderAllocatedException("Preorder " + preorderId + " is no longer pending.");
+            }
+            return null;
         }
-        return null;
+        preorderDemandService.invalidate();
+        return updated;
     }
 
     /**
@@ -97,6 +135,7 @@ public class PreorderService {
         Optional<Preorder> preorder = preorderRepository.findById(preorderId);
         if (preorder.isPresent()) {
             preorderRepository.delete(preorder.get());
+            preorderDemandService.invalidate();
             return true;
         }
         return false;
@@ -104,21 +143,36 @@ public class PreorderService {
 
     /**
      * Updates the status of a preorder.
+     * Only the status is written, and only if the preorder was not fulfilled by allocation on
+     * restock, so a concurrent allocation that has already charged the user is never undone.
      * 
      * @param preorderId The ID of the preorder to update.
      * @param status The new status to set.
-     * @return A ResponseEntity with the updated preorder or an error message.
+     * @return The updated preorder, or null if not found.
+     * @throws PreorderAllocatedException If the preorder was fulfilled by allocation.
      */
     public Preorder updatePreorderStatus(String preorderId, String status) {
         PreorderStatus preorderStatus = PreorderStatus.valueOf(status.toUpperCase());
-        Optional<Preorder> preorder = preorderRepository.findById(preorderId);
-        if (preorder.isPresent()) {
-            Preorder p = preorder.get();
-            p.setStatus(preorderStatus);
-            return preorderRepository.save(p);
-        } else {
+        Query query = new Query(Criteria.where("_id").is(preorderId).and("allocationId").exists(false));
+        Preorder updated = mongoOperations.findAndModify(query, new Update().set("status", preorderStatus),
+            FindAndModifyOptions.options().returnNew(true), Preorder.class);
+        if (updated == null) {
+            if (preorderRepository.existsById(preorderId)) {
+                throw new PreorderAllocatedException("Preorder " + preorderId + " was fulfilled by allocation on restock.");
+            }
             return null;
         }
+        preorderDemandService.invalidate();
+        return updated;
+    }
+
+    /**
+     * Retrieves pending demand per product.
+     * 
+     * @return One row per product with pending preorders, highest pending quantity first.
+     */
+    public List<PreorderDemand> getPreorderDemand() {
+        return preorderDemandService.getDemand();
     }
 
     /**
@@ -142,6 +196,16 @@ public class PreorderService {
         return preorderRepository.findByDatetimeBetween(start, end);
     }
 
+    /**
+     * Streams all preorders placed within a certain timeframe, for exports too large to hold in memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return A cursor-backed stream that the caller must close.
+     */
+    public Stream<Preorder> streamPreordersInTimeframe(LocalDateTime start, LocalDateTime end) {
+        return preorderRepository.streamByDatetimeBetween(start, end);
+    }
+
     /**
      * Retrieves all preorders by user ID.
      * 
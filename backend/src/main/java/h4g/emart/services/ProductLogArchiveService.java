@@ -0,0 +1,301 @@
+package h4g.emart.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import h4g.emart.models.ProductLog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves product logs older than the retention period out of MongoDB into compressed
+ * segment files on local disk, one per month, so the ProductLog collection stays small.
+ *
+ * Segments are append-only NDJSON made of independently gzipped blocks. Each segment has
+ * a sparse index with one line per block, holding the block's time range and byte range,
+ * so a timeframe read only maps and decompresses the blocks that overlap it. A block is
+ * indexed only after it is on disk, and logs are deleted from MongoDB only after their
+ * blocks are indexed; an interrupted run can archive a log twice, which readers dedupe
+ * by log ID. The archive is local to the node that runs the job, so it is off by default
+ * and should be enabled with audit.archive.enabled=true on one node only.
+ */
+@Service
+public class ProductLogArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductLogArchiveService.class);
+
+    private static final Pattern SEGMENT = Pattern.compile("product-logs-(\\d{4}-\\d{2})\\.ndjson\\.gz");
+    private static final int BATCH_SIZE = 5000;
+    private static final int BLOCK_SIZE = 500;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${audit.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${audit.archive.dir:audit-archive}")
+    private String dir;
+
+    @Value("${audit.archive.retention-days:90}")
+    private int retentionDays;
+
+    // One line in a segment's sparse index: a gzipped block of logs
+    private record Block(LocalDateTime first, LocalDateTime last, long offset, int length) {
+
+        private boolean overlaps(LocalDateTime start, LocalDateTime end) {
+            return !last.isBefore(start) && !first.isAfter(end);
+        }
+
+        private String toLine() {
+            return first + " " + last + " " + offset + " " + length + "\n";
+        }
+
+        private static Block parse(String line) {
+            String[] parts = line.split(" ");
+            return new Block(LocalDateTime.parse(parts[0]), LocalDateTime.parse(parts[1]),
+                Long.parseLong(parts[2]), Integer.parseInt(parts[3]));
+        }
+    }
+
+    @Scheduled(cron = "${audit.archive.cron:0 0 4 * * *}")
+    public void archiveNightly() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int archived = archive();
+            if (archived > 0) {
+                log.info("Archived {} product logs", archived);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to archive product logs: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Moves every product log older than the retention period into the archive.
+     * @return The number of logs archived.
+     */
+    public synchronized int archive() throws IOException {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        Files.createDirectories(Paths.get(dir));
+        int archived = 0;
+        while (true) {
+            Query oldest = new Query(Criteria.where("datetime").lt(cutoff))
+                .with(Sort.by("datetime", "_id"))
+                .limit(BATCH_SIZE);
+            List<ProductLog> batch = mongoOperations.find(oldest, ProductLog.class);
+            if (batch.isEmpty()) {
+                return archived;
+            }
+
+            Map<YearMonth, List<ProductLog>> byMonth = new LinkedHashMap<>();
+            for (ProductLog productLog : batch) {
+                byMonth.computeIfAbsent(YearMonth.from(productLog.getDatetime()), m -> new ArrayList<>()).add(productLog);
+            }
+            for (Map.Entry<YearMonth, List<ProductLog>> month : byMonth.entrySet()) {
+                List<ProductLog> logs = month.getValue();
+                for (int i = 0; i < logs.size(); i += BLOCK_SIZE) {
+                    appendBlock(month.getKey(), logs.subList(i, Math.min(i + BLOCK_SIZE, logs.size())));
+                }
+            }
+
+            List<String> ids = batch.stream().map(ProductLog::getLogId).toList();
+            mongoOperations.remove(new Query(Criteria.where("_id").in(ids)), ProductLog.class);
+            archived += batch.size();
+        }
+    }
+
+    private void appendBlock(YearMonth month, List<ProductLog> logs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            for (ProductLog productLog : logs) {
+                writer.write(objectMapper.writeValueAsString(productLog));
+                writer.write('\n');
+            }
+        }
+
+        List<Block> blocks = readIndex(month);
+        try (FileChannel segment = FileChannel.open(segmentPath(month),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Anything past the last indexed block is left from an interrupted run and is overwritten
+            long offset = 0;
+            for (Block block : blocks) {
+                offset = Math.max(offset, block.offset() + block.length());
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += segment.write(buffer, position);
+            }
+            segment.truncate(position);
+            segment.force(true);
+            blocks.add(new Block(logs.get(0).getDatetime(), logs.get(logs.size() - 1).getDatetime(), offset, bytes.size()));
+        }
+        writeIndex(month, blocks);
+    }
+
+    // Writes the whole index to a temporary file and renames it over the old one, so a crash
+    // leaves either the old index or the new one, never a partly written line
+    private void writeIndex(YearMonth month, List<Block> blocks) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Block block : blocks) {
+            lines.append(block.toLine());
+        }
+        Path index = indexPath(month);
+        Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+        Files.writeString(temp, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Streams archived product logs recorded within a timeframe, month by month.
+     * Only the blocks whose time range overlaps the timeframe are read.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return The archived logs in the timeframe; a log may appear twice if an archive run was interrupted.
+     */
+    public Stream<ProductLog> stream(LocalDateTime start, LocalDateTime end) {
+        YearMonth first = YearMonth.from(start);
+        YearMonth last = YearMonth.from(end);
+        List<YearMonth> months = new ArrayList<>();
+        Path root = Paths.get(dir);
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> files = Files.list(root)) {
+                files.forEach(file -> {
+                    Matcher segment = SEGMENT.matcher(file.getFileName().toString());
+                    if (segment.matches()) {
+                        YearMonth month = YearMonth.parse(segment.group(1));
+                        if (!month.isBefore(first) && !month.isAfter(last)) {
+                            months.add(month);
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        months.sort(null);
+        return months.stream()
+            .flatMap(month -> readIndexUnchecked(month).stream()
+                .filter(block -> block.overlaps(start, end))
+                .flatMap(block -> readBlock(month, block).stream()))
+            .filter(productLog -> !productLog.getDatetime().isBefore(start) && !productLog.getDatetime().isAfter(end));
+    }
+
+    private List<Block> readIndexUnchecked(YearMonth month) {
+        try {
+            return readIndex(month);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Block> readIndex(YearMonth month) throws IOException {
+        Path index = indexPath(month);
+        List<Block> blocks = new ArrayList<>();
+        if (!Files.exists(index)) {
+            return blocks;
+        }
+        for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+            try {
+                blocks.add(Block.parse(line));
+            } catch (RuntimeException e) {
+                // A malformed line; its block counts as unindexed and is rewritten by the next run
+            }
+        }
+        return blocks;
+    }
+
+    // Maps the block's bytes from the segment file and decompresses them
+    private List<ProductLog> readBlock(YearMonth month, Block block) {
+        try (FileChannel segment = FileChannel.open(segmentPath(month), StandardOpenOption.READ)) {
+            ByteBuffer mapped = segment.map(FileChannel.MapMode.READ_ONLY, block.offset(), block.length());
+            List<ProductLog> logs = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new ByteBufferInputStream(mapped)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        logs.add(objectMapper.readValue(line, ProductLog.class));
+                    }
+                }
+            }
+            return logs;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentPath(YearMonth month) {
+        return Paths.get(dir, "product-logs-" + month + ".ndjson.gz");
+    }
+
+    private Path indexPath(YearMonth month) {
+        return Paths.get(dir, "product-logs-" + month + ".idx");
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
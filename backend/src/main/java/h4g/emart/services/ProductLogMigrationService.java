@@ -0,0 +1,147 @@
+package h4g.emart.services;
+
+import h4g.emart.models.FieldChange;
+import h4g.emart.models.ProductLog;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts product logs written before field-level diffs, whose action holds
+ * "CREATE:" or "UPDATE:" followed by Product.toString(), into structured changes.
+ *
+ * Legacy entries hold a snapshot rather than a diff, so each one is compared with the
+ * previous entry for the same product. The snapshots of updates made through
+ * PUT /products/{id} are the request body rather than the saved product, so the
+ * result is the best the legacy text allows rather than an exact history.
+ * Converted entries no longer match, so the migration can be re-run safely.
+ */
+@Service
+public class ProductLogMigrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductLogMigrationService.class);
+
+    private static final Pattern LEGACY = Pattern.compile(
+        "^(CREATE|UPDATE):Product \\[productId=(.*?), name=(.*?), category=(.*?), desc=(.*), "
+            + "price=([^,]*), quantity=([^,\\]]*)(?:, hot=(true|false))?\\]$",
+        Pattern.DOTALL);
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        try {
+            int migrated = migrate();
+            if (migrated > 0) {
+                log.info("Converted {} legacy product logs to field changes", migrated);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to convert legacy product logs: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Converts every legacy product log.
+     * @return The number of logs converted.
+     */
+    public int migrate() {
+        Query legacy = new Query(Criteria.where("action").regex("^(CREATE|UPDATE):"));
+        List<String> productIds = mongoOperations.findDistinct(legacy, "productId", ProductLog.class, String.class);
+        int migrated = 0;
+        for (String productId : productIds) {
+            migrated += migrateProduct(productId);
+        }
+        return migrated;
+    }
+
+    private int migrateProduct(String productId) {
+        Query history = new Query(Criteria.where("productId").is(productId))
+            .with(Sort.by("datetime", "_id"));
+        // The product as of the entry being converted
+        Map<String, Object> state = new HashMap<>();
+        BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, ProductLog.class);
+        int pending = 0;
+        int migrated = 0;
+        for (Document entry : mongoOperations.find(history, Document.class, "ProductLog")) {
+            String action = entry.getString("action");
+            Matcher legacy = action != null ? LEGACY.matcher(action) : null;
+            if (legacy == null || !legacy.matches()) {
+                Document changes = entry.get("changes", Document.class);
+                if (changes != null) {
+                    changes.forEach((field, change) -> state.put(field, ((Document) change).get("newValue")));
+                }
+                continue;
+            }
+
+            Map<String, Object> snapshot = parse(legacy);
+            Map<String, FieldChange> changes = ProductService.diff(state, snapshot);
+            state.putAll(snapshot);
+            Document stored = new Document();
+            changes.forEach((field, change) -> stored.append(field,
+                new Document("oldValue", change.getOldValue()).append("newValue", change.getNewValue())));
+            ops.updateOne(new Query(Criteria.where("_id").is(entry.get("_id"))), new Update()
+                .set("action", legacy.group(1))
+                .set("changes", stored)
+                .set("fields", new ArrayList<>(changes.keySet())));
+            migrated++;
+            if (++pending == BATCH_SIZE) {
+                ops.execute();
+                ops = mongoOperations.bulkOps(BulkMode.UNORDERED, ProductLog.class);
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            ops.execute();
+        }
+        return migrated;
+    }
+
+    // The audited fields present in a legacy snapshot; "null" means the field was not set and is left out
+    private static Map<String, Object> parse(Matcher legacy) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        putText(fields, "name", legacy.group(3));
+        putText(fields, "category", legacy.group(4));
+        putText(fields, "desc", legacy.group(5));
+        try {
+            fields.put("price", Double.parseDouble(legacy.group(6)));
+            fields.put("quantity", Long.parseLong(legacy.group(7)));
+        } catch (NumberFormatException e) {
+            // Leave the numbers out rather than record a wrong value
+        }
+        if (legacy.group(8) != null) {
+            fields.put("hot", Boolean.parseBoolean(legacy.group(8)));
+        }
+        return fields;
+    }
+
+    private static void putText(Map<String, Object> fields, String field, String value) {
+        if (!"null".equals(value)) {
+            fields.put(field, value);
+        }
+    }
+}
@@ -1,33 +1,195 @@
 package h4g.emart.services;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
 
+import h4g.emart.models.FieldChange;
 import h4g.emart.models.ProductLog;
 import h4g.emart.repositories.ProductLogRepository;
 import h4g.emart.services.*;
+import h4g.emart.utils.RingBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
+/**
+ * Product audit log. Entries are queued on a bounded ring buffer and written by a background
+ * writer in batches, by size or after a short interval, so product edits do not wait on the
+ * audit write. When the buffer is full, callers wait for room, and if it stays full they write
+ * their entry themselves, so entries are delayed rather than lost. The buffer is flushed on shutdown.
+ */
 @Service
 public class ProductLogService {
 
+    private static final Logger log = LoggerFactory.getLogger(ProductLogService.class);
+
+    // Write error code for a duplicate _id, i.e. an entry already written by an earlier attempt
+    private static final int DUPLICATE_KEY = 11000;
+
     @Autowired
     private ProductLogRepository productLogRepository;
 
     @Autowired
     private SequenceGeneratorService sequenceGeneratorService;
 
-    public void createProductLog(String userId, String productId, String action) {
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private ProductLogArchiveService productLogArchiveService;
+
+    @Value("${audit.buffer-size:8192}")
+    private int bufferSize;
+
+    @Value("${audit.batch-size:500}")
+    private int batchSize;
+
+    @Value("${audit.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${audit.full-wait-ms:5000}")
+    private long fullWaitMs;
+
+    private RingBuffer<ProductLog> buffer;
+    private Thread writer;
+    private volatile boolean running;
+
+    // A batch the writer failed to write while stopping, kept for the shutdown flush rather than
+    // requeued, since the buffer may have no room left for it
+    private volatile List<ProductLog> unwritten = List.of();
+
+    @PostConstruct
+    void startWriter() {
+        buffer = new RingBuffer<>(bufferSize);
+        running = true;
+        writer = new Thread(this::writeLoop, "product-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    void stopWriter() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        List<ProductLog> rest = new ArrayList<>(unwritten);
+        rest.addAll(drain(Integer.MAX_VALUE));
+        if (!rest.isEmpty()) {
+            try {
+                write(rest);
+            } catch (RuntimeException e) {
+                log.error("Dropped {} product logs that could not be written before shutdown: {}",
+                    rest.size(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Queues an audit entry for a product change.
+     * @param userId The user who made the change.
+     * @param productId The product that changed.
+     * @param action CREATE, UPDATE or DELETE.
+     * @param changes The fields that changed, with their old and new values.
+     */
+    public void createProductLog(String userId, String productId, String action, Map<String, FieldChange> changes) {
         ProductLog newProductLog = new ProductLog(
-            sequenceGeneratorService.generateId("ProductLog"),
+            null,
             userId,
             productId,
             LocalDateTime.now(),
-            action
+            action,
+            changes
             );
-        productLogRepository.save(newProductLog);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fullWaitMs);
+        while (!buffer.offer(newProductLog)) {
+            LockSupport.unpark(writer);
+            if (System.nanoTime() > deadline) {
+                // The writer is not keeping up, e.g. while the database is unavailable
+                write(List.of(newProductLog));
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        if (buffer.size() >= batchSize) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void writeLoop() {
+        long retryMs = 100;
+        List<ProductLog> batch = new ArrayList<>();
+        long batchStarted = System.nanoTime();
+        while (running || !batch.isEmpty()) {
+            batch.addAll(drain(batchSize - batch.size()));
+            boolean due = batch.size() >= batchSize
+                || System.nanoTime() - batchStarted >= TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+            if (!batch.isEmpty() && (due || !running)) {
+                try {
+                    write(batch);
+                    batch = new ArrayList<>();
+                    retryMs = 100;
+                } catch (RuntimeException e) {
+                    if (!running) {
+                        unwritten = batch;
+                        return;
+                    }
+                    log.warn("Unable to write {} product logs, retrying in {} ms: {}", batch.size(), retryMs, e.getMessage());
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryMs));
+                    retryMs = Math.min(retryMs * 2, 10_000);
+                    continue;
+                }
+            }
+            if (batch.isEmpty()) {
+                batchStarted = System.nanoTime();
+            }
+            if (running && buffer.size() < batchSize) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMs));
+            }
+        }
+    }
+
+    private List<ProductLog> drain(int max) {
+        List<ProductLog> entries = new ArrayList<>();
+        ProductLog entry;
+        while (entries.size() < max && (entry = buffer.poll()) != null) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    // Writes entries in one unordered bulk insert; IDs are assigned here, off the request path
+    private void write(List<ProductLog> entries) {
+        for (ProductLog entry : entries) {
+            if (entry.getLogId() == null) {
+                entry.setLogId(sequenceGeneratorService.generateId("ProductLog"));
+            }
+        }
+        try {
+            mongoOperations.bulkOps(BulkMode.UNORDERED, ProductLog.class).insert(entries).execute();
+        } catch (BulkOperationException e) {
+            // Entries written by an earlier attempt are fine; anything else is retried
+            if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
     }
 
     /**
@@ -38,6 +200,29 @@ public class ProductLogService {
         return productLogRepository.findAll();
     }
 
+    /**
+     * Retrieves one page of product logs in ID order.
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of product logs to return.
+     * @param field Only return logs that changed this product field, or null for all logs.
+     * @return The product logs on the page.
+     */
+    public List<ProductLog> getProductLogsPage(String after, int limit, String field) {
+        if (field != null) {
+            return productLogRepository.findByFieldsAndLogIdGreaterThanOrderByLogIdAsc(field, after, Limit.of(limit));
+        }
+        return productLogRepository.findByLogIdGreaterThanOrderByLogIdAsc(after, Limit.of(limit));
+    }
+
+    /**
+     * Retrieves the most recent product logs, newest first.
+     * @param limit The maximum number of product logs to return.
+     * @return The most recent product logs.
+     */
+    public List<ProductLog> getRecentProductLogs(int limit) {
+        return productLogRepository.findAllByOrderByDatetimeDescLogIdDesc(Limit.of(limit));
+    }
+
     /**
      * Retrieves product logs by product ID.
      * @param productId the ID of the product to filter logs.
@@ -47,7 +232,35 @@ public class ProductLogService {
         return productLogRepository.findByProductId(productId);
     }
 
+    /**
+     * Retrieves product logs within a timeframe from both MongoDB and the archive.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return The product logs in time order.
+     */
     public List<ProductLog> getProductLogsInTimeframe(LocalDateTime start, LocalDateTime end) {
-        return productLogRepository.findByDatetimeBetween(start, end);
+        Set<String> seen = new HashSet<>();
+        List<ProductLog> productLogs = new ArrayList<>();
+        try (Stream<ProductLog> archived = productLogArchiveService.stream(start, end)) {
+            Stream.concat(productLogRepository.findByDatetimeBetween(start, end).stream(), archived)
+                .filter(productLog -> seen.add(productLog.getLogId()))
+                .forEach(productLogs::add);
+        }
+        productLogs.sort(Comparator.comparing(ProductLog::getDatetime).thenComparing(ProductLog::getLogId));
+        return productLogs;
+    }
+
+    /**
+     * Streams product logs within a timeframe, archived logs first and then those still in MongoDB.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return A stream that the caller must close.
+     */
+    public Stream<ProductLog> streamProductLogsInTimeframe(LocalDateTime start, LocalDateTime end) {
+        Set<String> seen = new HashSet<>();
+        // The cursor is opened lazily, once the archived logs have been read
+        Stream<ProductLog> hot = Stream.of(start).flatMap(s -> productLogRepository.streamByDatetimeBetween(start, end));
+        return Stream.concat(productLogArchiveService.stream(start, end), hot)
+            .filter(productLog -> seen.add(productLog.getLogId()));
     }
 }
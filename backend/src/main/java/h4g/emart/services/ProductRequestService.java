@@ -6,11 +6,13 @@ import h4g.emart.repositories.ProductRequestRepository;
 import h4g.emart.services.SequenceGeneratorService;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 public class ProductRequestService {
@@ -29,6 +31,16 @@ public class ProductRequestService {
         return productRequestRepository.findAll();
     }
 
+    /**
+     * Retrieves one page of product requests in ID order.
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of product requests to return.
+     * @return The product requests on the page.
+     */
+    public List<ProductRequest> getProductRequestsPage(String after, int limit) {
+        return productRequestRepository.findByRequestIdGreaterThanOrderByRequestIdAsc(after, Limit.of(limit));
+    }
+
     /**
      * Retrieves a product request by its ID.
      * @param requestId the ID of the product request to retrieve.
@@ -74,4 +86,8 @@ public class ProductRequestService {
     public List<ProductRequest> getProductRequestsInTimeframe(LocalDateTime start, LocalDateTime end) {
         return productRequestRepository.findByDatetimeBetween(start, end);
     }
+
+    public Stream<ProductRequest> streamProductRequestsInTimeframe(LocalDateTime start, LocalDateTime end) {
+        return productRequestRepository.streamByDatetimeBetween(start, end);
+    }
 }
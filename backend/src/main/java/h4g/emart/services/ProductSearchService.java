@@ -0,0 +1,283 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Product;
+import h4g.emart.repositories.ProductRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Full-text product search over an in-memory inverted index of name, category and description.
+ *
+ * Queries are tokenized the same way as products; every query term must match, and each term
+ * also matches indexed terms it is a prefix of. Results are ranked with BM25, with name and
+ * category terms weighted above description terms. ProductService keeps the index current for
+ * writes on this node, and a periodic rebuild picks up writes made on other nodes.
+ */
+@Service
+public class ProductSearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearchService.class);
+
+    private static final int NAME_WEIGHT = 3;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int DESC_WEIGHT = 1;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // A prefix match scores less than the exact term, and expands to at most this many terms,
+    // the exact term and then those in the most products
+    private static final double PREFIX_FACTOR = 0.7;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Index index = new Index();
+
+    // Writes made while a rebuild is loading, replayed onto the new index before it is swapped in
+    private List<Consumer<Index>> pendingWrites;
+
+    /**
+     * Adds or replaces a product in the index.
+     */
+    public void index(Product product) {
+        write(index -> index.put(product));
+    }
+
+    /**
+     * Removes a product from the index.
+     */
+    public void remove(String productId) {
+        write(index -> index.remove(productId));
+    }
+
+    private void write(Consumer<Index> change) {
+        lock.writeLock().lock();
+        try {
+            change.accept(index);
+            if (pendingWrites != null) {
+                pendingWrites.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Searches products by name, category and description.
+     * @param query The search text.
+     * @param limit The maximum number of products to return.
+     * @return The matching products, best match first.
+     */
+    public List<Product> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            return index.search(terms, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadIndex() {
+        rebuild();
+    }
+
+    @Scheduled(fixedDelayString = "${search.refresh-interval-ms:60000}",
+        initialDelayString = "${search.refresh-interval-ms:60000}")
+    public synchronized void rebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingWrites = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Index fresh = new Index();
+        try {
+            productRepository.findAll().forEach(fresh::put);
+        } catch (RuntimeException e) {
+            log.warn("Unable to rebuild product search index: {}", e.getMessage());
+            fresh = null;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (fresh != null) {
+                pendingWrites.forEach(fresh::apply);
+                index = fresh;
+            }
+            pendingWrites = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static class Index {
+        // Term to weighted term frequency per product ID, sorted so prefixes are a range scan
+        private final TreeMap<String, Map<String, Integer>> postings = new TreeMap<>();
+        private final Map<String, Map<String, Integer>> termsByProduct = new HashMap<>();
+        private final Map<String, Product> products = new HashMap<>();
+        private final Map<String, Integer> lengths = new HashMap<>();
+        private long totalLength;
+
+        private void apply(Consumer<Index> change) {
+            change.accept(this);
+        }
+
+        private void put(Product product) {
+            remove(product.getProductId());
+            Map<String, Integer> terms = new HashMap<>();
+            addField(terms, product.getName(), NAME_WEIGHT);
+            addField(terms, product.getCategory(), CATEGORY_WEIGHT);
+            addField(terms, product.getDesc(), DESC_WEIGHT);
+
+            int length = 0;
+            for (Map.Entry<String, Integer> term : terms.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), t -> new HashMap<>()).put(product.getProductId(), term.getValue());
+                length += term.getValue();
+            }
+            termsByProduct.put(product.getProductId(), terms);
+            products.put(product.getProductId(), product);
+            lengths.put(product.getProductId(), length);
+            totalLength += length;
+        }
+
+        private void remove(String productId) {
+            Map<String, Integer> terms = termsByProduct.remove(productId);
+            if (terms == null) {
+                return;
+            }
+            for (String term : terms.keySet()) {
+                Map<String, Integer> posting = postings.get(term);
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+            products.remove(productId);
+            totalLength -= lengths.remove(productId);
+        }
+
+        private static void addField(Map<String, Integer> terms, String text, int weight) {
+            for (String token : tokenize(text)) {
+                terms.merge(token, weight, Integer::sum);
+            }
+        }
+
+        private List<Product> search(List<String> queryTerms, int limit) {
+            if (products.isEmpty()) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / products.size();
+            Map<String, Double> scores = null;
+            for (String queryTerm : queryTerms) {
+                // Best-scoring expansion of this query term per product
+                Map<String, Double> termScores = new HashMap<>();
+                for (Map.Entry<String, Map<String, Integer>> entry : expand(queryTerm)) {
+                    double factor = entry.getKey().equals(queryTerm) ? 1.0 : PREFIX_FACTOR;
+                    Map<String, Integer> posting = entry.getValue();
+                    double idf = Math.log(1 + (products.size() - posting.size() + 0.5) / (posting.size() + 0.5));
+                    for (Map.Entry<String, Integer> hit : posting.entrySet()) {
+                        double tf = hit.getValue();
+                        double norm = K1 * (1 - B + B * lengths.get(hit.getKey()) / averageLength);
+                        double score = factor * idf * tf * (K1 + 1) / (tf + norm);
+                        termScores.merge(hit.getKey(), score, Math::max);
+                    }
+                }
+                // Every query term must match
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    Map<String, Double> both = new HashMap<>();
+                    for (Map.Entry<String, Double> score : scores.entrySet()) {
+                        Double termScore = termScores.get(score.getKey());
+                        if (termScore != null) {
+                            both.put(score.getKey(), score.getValue() + termScore);
+                        }
+                    }
+                    scores = both;
+                }
+                if (scores.isEmpty()) {
+                    return List.of();
+                }
+            }
+            return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder())
+                    .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(score -> products.get(score.getKey()))
+                .toList();
+        }
+
+        // The indexed terms a query term matches: itself, then the terms it prefixes that are in the most products
+        private List<Map.Entry<String, Map<String, Integer>>> expand(String queryTerm) {
+            SortedMap<String, Map<String, Integer>> range =
+                postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false);
+            if (range.size() <= MAX_PREFIX_EXPANSIONS) {
+                return new ArrayList<>(range.entrySet());
+            }
+            List<Map.Entry<String, Map<String, Integer>>> expansions = new ArrayList<>();
+            // Smallest document frequency at the head, so it is the one dropped when the heap overflows
+            PriorityQueue<Map.Entry<String, Map<String, Integer>>> widest = new PriorityQueue<>(
+                Comparator.<Map.Entry<String, Map<String, Integer>>>comparingInt(entry -> entry.getValue().size())
+                    .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder())));
+            // The exact term sorts first in the range, so it claims its place before any prefix match
+            int capacity = MAX_PREFIX_EXPANSIONS;
+            for (Map.Entry<String, Map<String, Integer>> entry : range.entrySet()) {
+                if (entry.getKey().equals(queryTerm)) {
+                    expansions.add(entry);
+                    capacity--;
+                    continue;
+                }
+                widest.add(entry);
+                if (widest.size() > capacity) {
+                    widest.poll();
+                }
+            }
+            expansions.addAll(widest);
+            return expansions;
+        }
+    }
+}
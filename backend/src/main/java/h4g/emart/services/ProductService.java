@@ -1,18 +1,52 @@
 package h4g.emart.services;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import h4g.emart.models.DeletedProduct;
+import h4g.emart.models.FieldChange;
 import h4g.emart.models.Product;
+import h4g.emart.models.ProductChanges;
+import h4g.emart.models.ProductQueryResult;
+import h4g.emart.models.ProductSort;
+import h4g.emart.repositories.DeletedProductRepository;
 import h4g.emart.repositories.ProductRepository;
 import h4g.emart.services.ProductLogService;
+import h4g.emart.utils.TtlCache;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.bson.Document;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Service
 public class ProductService {
 
+    private static final Logger log = LoggerFactory.getLogger(ProductService.class);
+
     @Autowired
     private ProductRepository productRepository;
 
@@ -22,69 +56,614 @@ public class ProductService {
     @Autowired
     private SequenceGeneratorService sequenceGeneratorService;
 
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private GuardedUpdateService guardedUpdateService;
+
+    @Autowired
+    private InventoryLedgerService inventoryLedgerService;
+
+    @Autowired
+    private PreorderAllocationService preorderAllocationService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CatalogVersionService catalogVersionService;
+
+    @Autowired
+    private DeletedProductRepository deletedProductRepository;
+
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    @Value("${product.cache.max-size:10000}")
+    private int cacheMaxSize;
+
+    @Value("${product.cache.ttl-ms:5000}")
+    private long cacheTtlMs;
+
+    // Lower bounds of the price facet buckets; the last bucket is open-ended
+    @Value("${product.query.price-buckets:0,5,10,20,50,100}")
+    private double[] priceBuckets;
+
+    // Deepest row a query page may start at; each page skips every row before it
+    @Value("${product.query.max-offset:10000}")
+    private long maxOffset;
+
+    private static final String CATALOG_KEY = "all";
+    private static final String CATEGORY_KEY_PREFIX = "category:";
+
+    // Products by ID, and the full catalog and per-category listings as serialized JSON. Writes on
+    // this node invalidate them; the TTL bounds how long writes made on other nodes can go unseen.
+    private TtlCache<String, Product> productCache;
+    private TtlCache<String, Catalog> catalogCache;
+    // The committed catalog version, so a conditional GET can be answered without loading the catalog
+    private TtlCache<String, Long> versionCache;
+
+    // Bumped by every invalidation, so a load that raced with a write is not cached
+    private long cacheGeneration;
+    private final Object cacheLock = new Object();
+
+    /**
+     * A list of products with its serialized JSON and ETag, built once per cache fill.
+     * The ETag is weak and names only the committed catalog version read before the load, so it
+     * can be checked without loading. A copy may also hold some writes above that version; a
+     * client keeps it until the committed version moves past them and its tag stops matching.
+     */
+    public static class Catalog {
+        private final List<Product> products;
+        private final byte[] json;
+        private final long version;
+        private final String etag;
+
+        private Catalog(List<Product> products, byte[] json, long version) {
+            this.products = products;
+            this.json = json;
+            this.version = version;
+            this.etag = etagOf(version);
+        }
+
+        public static String etagOf(long version) {
+            return "W/\"" + version + "\"";
+        }
+
+        public List<Product> getProducts() {
+            return products;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    @PostConstruct
+    void initCache() {
+        productCache = new TtlCache<>(cacheMaxSize, cacheTtlMs);
+        catalogCache = new TtlCache<>(256, cacheTtlMs);
+        versionCache = new TtlCache<>(1, cacheTtlMs);
+    }
+
     // 1. Get all Products (Read)
     public List<Product> getAllProducts() {
-        return productRepository.findAll();
+        return getCatalog().products;
+    }
+
+    /**
+     * Returns the full catalog, serialized once per cache fill rather than per request.
+     */
+    public Catalog getCatalog() {
+        Catalog catalog = catalogCache.get(CATALOG_KEY);
+        if (catalog != null) {
+            return catalog;
+        }
+        // One load at a time, so a burst of misses does not each scan the collection
+        synchronized (catalogCache) {
+            catalog = catalogCache.get(CATALOG_KEY);
+            if (catalog != null) {
+                return catalog;
+            }
+            long generation = currentGeneration();
+            // Read before the load, so the catalog claims no change it might be missing
+            long version = catalogVersionService.committed();
+            catalog = serialize(List.copyOf(productRepository.findAll()), version);
+            cacheIfCurrent(catalogCache, CATALOG_KEY, catalog, generation);
+            return catalog;
+        }
+    }
+
+    /**
+     * Returns the committed catalog version that a catalog loaded now would be tagged with.
+     */
+    public long getCatalogVersion() {
+        Long version = versionCache.get(CATALOG_KEY);
+        if (version != null) {
+            return version;
+        }
+        long generation = currentGeneration();
+        long committed = catalogVersionService.committed();
+        cacheIfCurrent(versionCache, CATALOG_KEY, committed, generation);
+        return committed;
+    }
+
+    /**
+     * Returns the products in a category, filtered from the cached catalog.
+     */
+    public Catalog getCategoryCatalog(String category) {
+        String key = CATEGORY_KEY_PREFIX + category;
+        Catalog cached = catalogCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = currentGeneration();
+        Catalog catalog = getCatalog();
+        List<Product> products = catalog.products.stream()
+            .filter(product -> category.equals(product.getCategory()))
+            .toList();
+        Catalog filtered = serialize(products, catalog.version);
+        cacheIfCurrent(catalogCache, key, filtered, generation);
+        return filtered;
+    }
+
+    private Catalog serialize(List<Product> products, long version) {
+        try {
+            return new Catalog(products, objectMapper.writeValueAsBytes(products), version);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize product catalog", e);
+        }
+    }
+
+    /**
+     * Retrieves the products changed and deleted since a catalog version.
+     * @param since The catalog version the caller already has.
+     * @return The changes, with the version to ask from next time.
+     */
+    public ProductChanges getProductChanges(long since) {
+        // Writes still in flight are above this, so the next delta picks them up
+        long version = catalogVersionService.committed();
+        List<Product> products = productRepository.findByVersionGreaterThan(since);
+        List<String> deleted = deletedProductRepository.findByVersionGreaterThan(since).stream()
+            .map(DeletedProduct::getProductId)
+            .toList();
+        return new ProductChanges(version, products, deleted);
+    }
+
+    /**
+     * Drops cached copies of a product and the catalog after a write.
+     * @param productId The product that changed, or null if several did.
+     */
+    public void invalidateCache(String productId) {
+        synchronized (cacheLock) {
+            cacheGeneration++;
+            if (productId == null) {
+                productCache.clear();
+            } else {
+                productCache.invalidate(productId);
+            }
+            catalogCache.clear();
+            versionCache.clear();
+        }
+    }
+
+    private long currentGeneration() {
+        synchronized (cacheLock) {
+            return cacheGeneration;
+        }
+    }
+
+    private <V> void cacheIfCurrent(TtlCache<String, V> cache, String key, V value, long generation) {
+        synchronized (cacheLock) {
+            if (generation == cacheGeneration) {
+                cache.put(key, value);
+            }
+        }
+    }
+
+    // Reports how often reads are served from the caches, so the size and TTL can be tuned
+    @Scheduled(fixedDelayString = "${product.cache.stats-interval-ms:300000}",
+        initialDelayString = "${product.cache.stats-interval-ms:300000}")
+    public void logCacheStats() {
+        log.info("Product cache: {} hits, {} misses, {} entries; catalog cache: {} hits, {} misses, {} entries",
+            productCache.getHits(), productCache.getMisses(), productCache.size(),
+            catalogCache.getHits(), catalogCache.getMisses(), catalogCache.size());
+    }
+
+    // Get one page of Products in ID order
+    public List<Product> getProductsPage(String after, int limit) {
+        return productRepository.findByProductIdGreaterThanOrderByProductIdAsc(after, Limit.of(limit));
     }
 
     // 2. Get Product by Product ID
     public Product getProductById(String productId) {
+        Product cached = productCache.get(productId);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = currentGeneration();
         Optional<Product> product = productRepository.findById(productId);
+        product.ifPresent(p -> cacheIfCurrent(productCache, productId, p, generation));
         return product.orElse(null);
     }
 
+    // Get several Products by ID in one query
+    public List<Product> getProductsByIds(Collection<String> productIds) {
+        return productRepository.findAllById(productIds);
+    }
+
     // 3. Create a Product (Create)
     public Product createProduct(Product product, String userId) {
         product.setProductId(sequenceGeneratorService.generateId("Product"));
-        productLogService.createProductLog(userId, product.getProductId(), "CREATE:" + product.toString());
-        return productRepository.save(product);
+        productLogService.createProductLog(userId, product.getProductId(), "CREATE",
+            diff(Map.of(), auditedFields(product)));
+        Product created = catalogVersionService.write(version -> {
+            product.setVersion(version);
+            return productRepository.save(product);
+        });
+        invalidateCache(created.getProductId());
+        productSearchService.index(created);
+        return created;
     }
 
     // 4. Update a Product (Update)
     public Product updateProduct(String productId, Product updatedProduct, String userId) {
-        Optional<Product> existingProductOptional = productRepository.findById(productId);
-        if (existingProductOptional.isPresent()) {
-            Product existingProduct = existingProductOptional.get();
-            existingProduct.setName(updatedProduct.getName());
-            existingProduct.setDesc(updatedProduct.getDesc());
-            existingProduct.setPrice(updatedProduct.getPrice());
-            existingProduct.setQuantity(updatedProduct.getQuantity());
-            existingProduct.setProductPhoto(updatedProduct.getProductPhoto());
+        // Return this node's leased stock first, so later reservations here are priced from the edited product
+        inventoryLedgerService.flush(productId);
+        return edit(productId, updatedProduct.getQuantity(), new Update()
+            .set("name", updatedProduct.getName())
+            .set("desc", updatedProduct.getDesc())
+            .set("price", updatedProduct.getPrice())
+            .set("productPhoto", updatedProduct.getProductPhoto()), product -> {
+                product.setName(updatedProduct.getName());
+                product.setDesc(updatedProduct.getDesc());
+                product.setPrice(updatedProduct.getPrice());
+                product.setProductPhoto(updatedProduct.getProductPhoto());
+            }, userId);
+    }
+
+    // Sets only the edited fields, so a concurrent $inc of units sold or a checkout's deduction is kept.
+    // Stock leased on any node is out of the stored quantity until it is returned, so the new quantity
+    // is applied as an $inc of its difference from the quantity read here, never as a $set
+    private Product edit(String productId, long quantity, Update update, Consumer<Product> edits, String userId) {
+        while (true) {
+            Product current = mongoOperations.findById(productId, Product.class);
+            if (current == null) {
+                return null;
+            }
+            long change = quantity - current.getQuantity();
+            // Stock sold since the read could take the quantity below zero; the edit is then retried
+            Query query = new Query(Criteria.where("_id").is(productId).and("quantity").gte(Math.max(0, -change)));
+            Product previous = catalogVersionService.write(version -> {
+                Product replaced = mongoOperations.findAndModify(query,
+                    update.inc("quantity", change).set("version", version), Product.class);
+                if (replaced != null) {
+                    replaced.setVersion(version);
+                }
+                return replaced;
+            });
+            if (previous != null) {
+                Map<String, Object> before = auditedFields(previous);
+                edits.accept(previous);
+                previous.setQuantity(previous.getQuantity() + change);
+                return edited(previous, before, userId);
+            }
+        }
+    }
+
+    // Logs, caches and indexes an admin edit, then allocates any stock it added to preorders
+    private Product edited(Product product, Map<String, Object> before, String userId) {
+        productLogService.createProductLog(userId, product.getProductId(), "UPDATE",
+            diff(before, auditedFields(product)));
+        invalidateCache(product.getProductId());
+        productSearchService.index(product);
+        return allocateOnRestock(product, (long) before.get("quantity"));
+    }
 
-            productLogService.createProductLog(userId, productId, "UPDATE:" + updatedProduct.toString());
-            return productRepository.save(existingProduct);
+    // Fulfils pending preorders from stock added by an admin, returning the product as it is afterwards
+    private Product allocateOnRestock(Product saved, long previousQuantity) {
+        if (saved.getQuantity() <= previousQuantity
+                || preorderAllocationService.allocate(saved.getProductId()) == 0) {
+            return saved;
         }
-        return null;
+        invalidateCache(saved.getProductId());
+        Product allocated = productRepository.findById(saved.getProductId()).orElse(saved);
+        productSearchService.index(allocated);
+        return allocated;
     }
 
-    public Product updateProductOnPurchase(Product updatedProduct) {
-        return productRepository.save(updatedProduct);
+    // The product fields recorded in the audit log, by the name they are stored under
+    static Map<String, Object> auditedFields(Product product) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("name", product.getName());
+        fields.put("category", product.getCategory());
+        fields.put("desc", product.getDesc());
+        fields.put("price", product.getPrice());
+        fields.put("quantity", product.getQuantity());
+        fields.put("productPhoto", product.getProductPhoto());
+        fields.put("hot", product.isHot());
+        return fields;
+    }
+
+    /**
+     * Compares two sets of audited field values.
+     * @param before The values before the change; missing fields count as unset.
+     * @param after The values after the change; fields missing here are not compared.
+     * @return Each field whose value changed, with its old and new value.
+     */
+    static Map<String, FieldChange> diff(Map<String, Object> before, Map<String, Object> after) {
+        Map<String, FieldChange> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : after.entrySet()) {
+            Object oldValue = before.get(field.getKey());
+            if (!Objects.equals(oldValue, field.getValue())) {
+                changes.put(field.getKey(), new FieldChange(oldValue, field.getValue()));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Atomically deducts stock from a product, guarded by the quantity on hand.
+     * @param productId The ID of the product being purchased.
+     * @param quantity The quantity to deduct.
+     * @return The updated product, or null if the product does not exist or has insufficient stock.
+     */
+    public Product deductStock(String productId, long quantity) {
+        Query query = new Query(Criteria.where("_id").is(productId).and("quantity").gte(quantity));
+        Product product = catalogVersionService.write(version -> mongoOperations.findAndModify(query,
+            new Update().inc("quantity", -quantity).inc("sold", quantity).set("version", version),
+            FindAndModifyOptions.options().returnNew(true), Product.class));
+        if (product != null) {
+            invalidateCache(productId);
+            productSearchService.index(product);
+        }
+        return product;
+    }
+
+    /**
+     * Atomically returns stock to a product, used to compensate a failed purchase.
+     * @param productId The ID of the product.
+     * @param quantity The quantity to return.
+     */
+    public void restoreStock(String productId, long quantity) {
+        Query query = new Query(Criteria.where("_id").is(productId));
+        catalogVersionService.write(version -> mongoOperations.updateFirst(query,
+            new Update().inc("quantity", quantity).inc("sold", -quantity).set("version", version), Product.class));
+        invalidateCache(productId);
+    }
+
+    /**
+     * Atomically deducts stock from several products in one bulk write, all or nothing.
+     * @param quantities The quantity to deduct, keyed by product ID.
+     * @return True if every product had enough stock, false if no stock was deducted.
+     */
+    public boolean deductStock(Map<String, Long> quantities) {
+        if (quantities.isEmpty()) {
+            return true;
+        }
+        boolean deducted = guardedUpdateService.deductAll(Product.class, "quantity", quantities);
+        if (deducted) {
+            recordSales(quantities, 1);
+            invalidateCache(null);
+            reindex(quantities.keySet());
+        }
+        return deducted;
+    }
+
+    /**
+     * Returns stock to several products in one bulk write, used to compensate a failed checkout.
+     * @param quantities The quantity to return, keyed by product ID.
+     */
+    public void restoreStock(Map<String, Long> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        guardedUpdateService.restoreAll(Product.class, "quantity", quantities);
+        recordSales(quantities, -1);
+        invalidateCache(null);
+        reindex(quantities.keySet());
+    }
+
+    /**
+     * Sets units sold on products that have no count yet, e.g. from the sales history.
+     * Products with a count are left alone, so live sales are never rolled back; those written share one catalog version.
+     * @param sold The units sold, keyed by product ID.
+     */
+    public void initUnitsSold(Map<String, Long> sold) {
+        if (sold.isEmpty()) {
+            return;
+        }
+        catalogVersionService.write(version -> {
+            BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, Product.class);
+            sold.forEach((productId, units) -> ops.updateOne(
+                new Query(Criteria.where("_id").is(productId).and("sold").exists(false)),
+                new Update().set("sold", units).set("version", version)));
+            return ops.execute();
+        });
+        invalidateCache(null);
+    }
+
+    // Search results are served from the index, so products written in bulk are re-read into it
+    private void reindex(Collection<String> productIds) {
+        productRepository.findAllById(productIds).forEach(productSearchService::index);
+    }
+
+    // Adjusts units sold on several products and marks them changed in one catalog version
+    private void recordSales(Map<String, Long> quantities, int sign) {
+        catalogVersionService.write(version -> {
+            BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, Product.class);
+            quantities.forEach((productId, quantity) -> ops.updateOne(new Query(Criteria.where("_id").is(productId)),
+                new Update().inc("sold", sign * quantity).set("version", version)));
+            return ops.execute();
+        });
     }
 
     public Product updateProductQuantity(String productId, long quantity, String userId) {
-        Optional<Product> existingProductOptional = productRepository.findById(productId);
-        if (existingProductOptional.isPresent()) {
-            Product existingProduct = existingProductOptional.get();
-            existingProduct.setQuantity(quantity);
+        inventoryLedgerService.flush(productId);
+        return edit(productId, quantity, new Update(), product -> {}, userId);
+    }
 
-            productLogService.createProductLog(userId, productId, "UPDATE:" + existingProduct.toString());
-            return productRepository.save(existingProduct);
+    /**
+     * Turns flash-sale hot mode on or off for a product.
+     * @param productId The ID of the product.
+     * @param hot Whether purchases should be served from in-memory stock leases.
+     * @param userId The admin making the change.
+     * @return The updated product, or null if it does not exist.
+     */
+    public Product setHot(String productId, boolean hot, String userId) {
+        Query query = new Query(Criteria.where("_id").is(productId));
+        // The previous document is returned so the audit log records the old value
+        Product product = catalogVersionService.write(version -> {
+            Product previous = mongoOperations.findAndModify(query,
+                new Update().set("hot", hot).set("version", version), Product.class);
+            if (previous != null) {
+                previous.setVersion(version);
+            }
+            return previous;
+        });
+        if (product != null) {
+            // The version was set above; only the audited fields differ from the stored product
+            Map<String, Object> before = auditedFields(product);
+            product.setHot(hot);
+            inventoryLedgerService.setHot(productId, hot);
+            invalidateCache(productId);
+            productSearchService.index(product);
+            productLogService.createProductLog(userId, productId, "UPDATE", diff(before, auditedFields(product)));
         }
-        return null;
+        return product;
     }
 
     // 5. Delete a Product (Delete)
     public boolean deleteProduct(String productId, String userId) {
+        inventoryLedgerService.setHot(productId, false);
         if (productRepository.existsById(productId)) {
             productRepository.deleteById(productId);
-            productLogService.createProductLog(userId, productId, "DELETE");
+            catalogVersionService.write(version -> deletedProductRepository.save(new DeletedProduct(productId, version)));
+            invalidateCache(productId);
+            productSearchService.remove(productId);
+            productLogService.createProductLog(userId, productId, "DELETE", Map.of());
             return true;
         }
         return false;
     }
 
+    /**
+     * Retrieves one page of products matching the given filters, with facet counts, in one aggregation.
+     * The stock filter applies to everything and runs first. The page and total apply every other
+     * filter; each facet applies all but its own, so the category counts still show the other
+     * categories within the price range and the price buckets the other prices within the category.
+     * @param category Only products in this category, or null for all.
+     * @param minPrice The minimum price, inclusive, or null for no minimum.
+     * @param maxPrice The maximum price, inclusive, or null for no maximum.
+     * @param inStock Only products with stock on hand.
+     * @param sort The sort order.
+     * @param page The zero-based page number.
+     * @param size The page size.
+     * @return The page of products and the facet counts.
+     * @throws IllegalArgumentException If the page starts beyond product.query.max-offset.
+     */
+    public ProductQueryResult queryProducts(String category, Double minPrice, Double maxPrice, boolean inStock,
+            ProductSort sort, int page, int size) {
+        if ((long) page * size > maxOffset) {
+            throw new IllegalArgumentException("Page " + page + " starts beyond the first " + maxOffset + " products");
+        }
+        Document filter = new Document();
+        if (inStock) {
+            filter.append("quantity", new Document("$gt", 0));
+        }
+        Document categoryFilter = new Document();
+        if (category != null) {
+            categoryFilter.append("category", category);
+        }
+        Document priceFilter = new Document();
+        if (minPrice != null || maxPrice != null) {
+            Document price = new Document();
+            if (minPrice != null) {
+                price.append("$gte", minPrice);
+            }
+            if (maxPrice != null) {
+                price.append("$lte", maxPrice);
+            }
+            priceFilter.append("price", price);
+        }
+        Document bothFilters = new Document(categoryFilter);
+        bothFilters.putAll(priceFilter);
+
+        Document sortSpec = switch (sort) {
+            case NAME -> new Document("name", 1);
+            case PRICE -> new Document("price", 1);
+            case PRICE_DESC -> new Document("price", -1);
+            case POPULARITY -> new Document("sold", -1);
+        };
+        sortSpec.append("_id", 1);
+
+        List<Double> boundaries = new ArrayList<>();
+        for (double bound : priceBuckets) {
+            boundaries.add(bound);
+        }
+        boundaries.add(Double.MAX_VALUE);
+
+        Document facets = new Document("products", List.of(
+                new Document("$match", bothFilters),
+                new Document("$sort", sortSpec),
+                new Document("$skip", (long) page * size),
+                new Document("$limit", size)))
+            .append("total", List.of(
+                new Document("$match", bothFilters),
+                new Document("$count", "count")))
+            .append("categories", List.of(
+                new Document("$match", priceFilter),
+                new Document("$group", new Document("_id", "$category").append("count", new Document("$sum", 1))),
+                new Document("$sort", new Document("_id", 1))))
+            .append("priceBuckets", List.of(
+                new Document("$match", categoryFilter),
+                new Document("$bucket", new Document("groupBy", "$price")
+                    .append("boundaries", boundaries)
+                    .append("default", "other")
+                    .append("output", new Document("count", new Document("$sum", 1))))));
+
+        Aggregation aggregation = Aggregation.newAggregation(
+            context -> new Document("$match", filter),
+            context -> new Document("$facet", facets));
+        Document result = mongoOperations.aggregate(aggregation, Product.class, Document.class).getUniqueMappedResult();
+
+        List<Product> products = new ArrayList<>();
+        for (Document product : result.getList("products", Document.class)) {
+            products.add(mongoOperations.getConverter().read(Product.class, product));
+        }
+        List<Document> total = result.getList("total", Document.class);
+        long count = total.isEmpty() ? 0 : ((Number) total.get(0).get("count")).longValue();
+
+        List<ProductQueryResult.CategoryCount> categories = new ArrayList<>();
+        for (Document facet : result.getList("categories", Document.class)) {
+            categories.add(new ProductQueryResult.CategoryCount(facet.getString("_id"),
+                ((Number) facet.get("count")).longValue()));
+        }
+        List<ProductQueryResult.PriceBucket> buckets = new ArrayList<>();
+        for (Document facet : result.getList("priceBuckets", Document.class)) {
+            // Negative prices fall outside the boundaries and are not reported
+            if (!(facet.get("_id") instanceof Number)) {
+                continue;
+            }
+            double min = ((Number) facet.get("_id")).doubleValue();
+            int index = boundaries.indexOf(min);
+            Double max = index + 1 < boundaries.size() - 1 ? boundaries.get(index + 1) : null;
+            buckets.add(new ProductQueryResult.PriceBucket(min, max, ((Number) facet.get("count")).longValue()));
+        }
+        return new ProductQueryResult(products, count, page, size, categories, buckets);
+    }
+
     // 6. Get Products by Category (Example: If you want to implement filtering by category)
     public List<Product> getProductsByCategory(String category) {
-        return productRepository.findByCategory(category); // Assuming there's a category field in your Product model
+        return getCategoryCatalog(category).products;
     }
 }
@@ -0,0 +1,301 @@
+package h4g.emart.services;
+
+import h4g.emart.models.DailySalesRollup;
+import h4g.emart.models.JobLease;
+import h4g.emart.models.Product;
+import h4g.emart.models.SalesReportRow;
+import h4g.emart.models.Transaction;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Maintains DailySalesRollup, one row per product per day, so sales reports read
+ * O(days x products) rows instead of every transaction in the range.
+ *
+ * Rows are updated with $inc as transactions are created and deleted. The rollup is
+ * derived data: a failed update is logged rather than failing the purchase, and the
+ * nightly rebuild regenerates past days from the transaction history.
+ */
+@Service
+public class SalesRollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(SalesRollupService.class);
+
+    private static final String REBUILD_LEASE = "SalesRollupRebuild";
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    // Lazy, as ProductService reaches this service through preorder allocation
+    @Autowired
+    @Lazy
+    private ProductService productService;
+
+    // Longer than a rebuild takes, so a node that died mid-rebuild only holds it back this long
+    @Value("${reports.sales.rebuild-lease-ms:3600000}")
+    private long rebuildLeaseMs;
+
+    /**
+     * Adds a created transaction to its day's rollup.
+     */
+    public void record(Transaction transaction) {
+        recordAll(List.of(transaction));
+    }
+
+    /**
+     * Adds created transactions to their days' rollups in one bulk write.
+     */
+    public void recordAll(List<Transaction> transactions) {
+        try {
+            BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, DailySalesRollup.class);
+            for (Transaction transaction : transactions) {
+                String day = dayOf(transaction);
+                Update update = new Update()
+                    .setOnInsert("day", day)
+                    .setOnInsert("productId", transaction.getProductId())
+                    .inc("qty", transaction.getQtyPurchased())
+                    .inc("revenue", transaction.getTotalPrice())
+                    .inc("buyers." + transaction.getUserId(), 1)
+                    .currentDate("touchedAt");
+                ops.upsert(byId(day, transaction.getProductId()), update);
+            }
+            ops.execute();
+        } catch (RuntimeException e) {
+            log.warn("Unable to update sales rollup for {} transactions: {}", transactions.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a deleted transaction from its day's rollup.
+     */
+    public void remove(Transaction transaction) {
+        String day = dayOf(transaction);
+        String buyer = "buyers." + transaction.getUserId();
+        try {
+            mongoOperations.updateFirst(byId(day, transaction.getProductId()), new Update()
+                .inc("qty", -transaction.getQtyPurchased())
+                .inc("revenue", -transaction.getTotalPrice())
+                .inc(buyer, -1)
+                .currentDate("touchedAt"), DailySalesRollup.class);
+            // A buyer with no transactions left no longer counts as distinct
+            Query noLongerBuyer = byId(day, transaction.getProductId());
+            noLongerBuyer.addCriteria(Criteria.where(buyer).lte(0));
+            mongoOperations.updateFirst(noLongerBuyer, new Update().unset(buyer), DailySalesRollup.class);
+            Query empty = byId(day, transaction.getProductId());
+            empty.addCriteria(Criteria.where("qty").lte(0));
+            mongoOperations.remove(empty, DailySalesRollup.class);
+        } catch (RuntimeException e) {
+            log.warn("Unable to update sales rollup for deleted transaction {}: {}",
+                transaction.getTransactionId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Regenerates the rollup rows of every day before today from the transaction history, on one
+     * node at a time. Rows are merged in rather than replacing the collection, so today's rows and
+     * any row updated incrementally while the rebuild runs keep their live counts; such rows are
+     * regenerated by the next rebuild. Rows of past days left with no transactions are removed.
+     * A deletion whose rollup correction lags it by longer than the aggregation can still be
+     * applied twice to its row, until the next rebuild.
+     * @return False if another node is already rebuilding.
+     */
+    public boolean rebuild() {
+        return rebuild(true);
+    }
+
+    // The nightly run keeps the lease until it runs out, so nodes whose schedules fire later skip the night
+    private boolean rebuild(boolean release) {
+        String owner = UUID.randomUUID().toString();
+        Date startedAt = lease(owner);
+        if (startedAt == null) {
+            return false;
+        }
+        try {
+            String timezone = ZoneId.systemDefault().getId();
+            LocalDate today = LocalDate.now();
+            Date cutoff = Date.from(today.atStartOfDay(ZoneId.systemDefault()).toInstant());
+            String collection = mongoOperations.getCollectionName(DailySalesRollup.class);
+            // Rows touched since the rebuild started are kept as they are, so no live $inc is overwritten
+            Document touched = new Document("$gte", List.of(
+                new Document("$ifNull", List.of("$touchedAt", new Date(0))), new Document("$literal", startedAt)));
+            Aggregation aggregation = Aggregation.newAggregation(
+                stage("$match", new Document("datetime", new Document("$lt", cutoff))),
+                stage("$group", new Document("_id", new Document("day",
+                        new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                            .append("date", "$datetime").append("timezone", timezone)))
+                        .append("productId", "$productId").append("userId", "$userId"))
+                    .append("qty", new Document("$sum", "$qtyPurchased"))
+                    .append("revenue", new Document("$sum", "$totalPrice"))
+                    .append("count", new Document("$sum", 1))),
+                stage("$group", new Document("_id", new Document("day", "$_id.day").append("productId", "$_id.productId"))
+                    .append("qty", new Document("$sum", "$qty"))
+                    .append("revenue", new Document("$sum", "$revenue"))
+                    .append("buyers", new Document("$push", new Document("k", "$_id.userId").append("v", "$count")))),
+                stage("$project", new Document("_id", new Document("$concat", List.of("$_id.day", ":", "$_id.productId")))
+                    .append("day", "$_id.day")
+                    .append("productId", "$_id.productId")
+                    .append("qty", 1)
+                    .append("revenue", 1)
+                    .append("buyers", new Document("$arrayToObject", "$buyers"))
+                    .append("rebuild", new Document("$literal", owner))),
+                stage("$merge", new Document("into", collection)
+                    .append("on", "_id")
+                    .append("whenMatched", List.of(new Document("$replaceWith",
+                        new Document("$cond", List.of(touched, "$$ROOT", "$$new")))))
+                    .append("whenNotMatched", "insert")));
+            mongoOperations.aggregate(aggregation, Transaction.class, Document.class);
+
+            Query stale = new Query(new Criteria().andOperator(
+                Criteria.where("day").lt(today.toString()),
+                Criteria.where("rebuild").ne(owner),
+                new Criteria().orOperator(
+                    Criteria.where("touchedAt").lt(startedAt),
+                    Criteria.where("touchedAt").exists(false))));
+            mongoOperations.remove(stale, DailySalesRollup.class);
+            log.info("Rebuilt sales rollup from transaction history before {}", today);
+            backfillUnitsSold();
+        } catch (RuntimeException e) {
+            release(owner);
+            throw e;
+        }
+        if (release) {
+            release(owner);
+        }
+        return true;
+    }
+
+    // Takes the rebuild lease, or one that ran out; returns when it was taken on the database clock, or null if it is held
+    private Date lease(String owner) {
+        Query ours = new Query(Criteria.where("_id").is(REBUILD_LEASE).and("owner").is(owner));
+        try {
+            mongoOperations.upsert(ours, new Update().currentDate("leasedAt"), JobLease.class);
+        } catch (DuplicateKeyException e) {
+            Document expired = new Document("$expr", new Document("$lt",
+                List.of("$leasedAt", new Document("$subtract", List.of("$$NOW", rebuildLeaseMs)))));
+            Query abandoned = new BasicQuery(new Document("_id", REBUILD_LEASE).append("$or",
+                List.of(expired, new Document("leasedAt", new Document("$exists", false)))));
+            if (mongoOperations.updateFirst(abandoned, new Update().set("owner", owner).currentDate("leasedAt"),
+                    JobLease.class).getModifiedCount() == 0) {
+                return null;
+            }
+        }
+        JobLease lease = mongoOperations.findOne(ours, JobLease.class);
+        return lease == null ? null : lease.getLeasedAt();
+    }
+
+    private void release(String owner) {
+        mongoOperations.remove(new Query(Criteria.where("_id").is(REBUILD_LEASE).and("owner").is(owner)), JobLease.class);
+    }
+
+    // Sets Product.sold, the popularity sort key, on products that predate it, from the units sold in the history.
+    // Products that have it keep their count, which is kept current in the same write as their stock
+    private void backfillUnitsSold() {
+        if (!mongoOperations.exists(new Query(Criteria.where("sold").exists(false)), Product.class)) {
+            return;
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+            stage("$group", new Document("_id", "$productId").append("sold", new Document("$sum", "$qty"))));
+        List<Document> totals = mongoOperations.aggregate(aggregation, DailySalesRollup.class, Document.class)
+            .getMappedResults();
+        Map<String, Long> sold = new HashMap<>();
+        for (Document total : totals) {
+            sold.put(total.getString("_id"), ((Number) total.get("sold")).longValue());
+        }
+        // Written through ProductService, so changed products reach catalog deltas and its caches
+        productService.initUnitsSold(sold);
+    }
+
+    @Scheduled(cron = "${reports.sales.rebuild-cron:0 30 3 * * *}")
+    public void rebuildNightly() {
+        try {
+            if (!rebuild(false)) {
+                log.info("Sales rollup was already rebuilt by another node");
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to rebuild sales rollup: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reports sales between two days, inclusive.
+     * @param start The first day of the report.
+     * @param end The last day of the report.
+     * @param productId Limits the report to one product, or null for all products.
+     * @param byDay True for one row per product per day, false for one row per product over the range.
+     * @return The report rows, ordered by day and product ID.
+     */
+    public List<SalesReportRow> getSalesReport(LocalDate start, LocalDate end, String productId, boolean byDay) {
+        Criteria criteria = Criteria.where("day").gte(start.toString()).lte(end.toString());
+        if (productId != null) {
+            criteria = criteria.and("productId").is(productId);
+        }
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(criteria));
+        if (byDay) {
+            stages.add(stage("$project", new Document("_id", 0)
+                .append("day", 1)
+                .append("productId", 1)
+                .append("qty", 1)
+                .append("revenue", 1)
+                .append("distinctBuyers", new Document("$size", new Document("$objectToArray", "$buyers")))));
+            stages.add(stage("$sort", new Document("day", 1).append("productId", 1)));
+        } else {
+            // Buyers are unioned across days so a repeat customer is counted once per product
+            stages.add(stage("$group", new Document("_id", "$productId")
+                .append("qty", new Document("$sum", "$qty"))
+                .append("revenue", new Document("$sum", "$revenue"))
+                .append("buyerSets", new Document("$push",
+                    new Document("$map", new Document("input", new Document("$objectToArray", "$buyers"))
+                        .append("in", "$$this.k"))))));
+            stages.add(stage("$project", new Document("_id", 0)
+                .append("productId", "$_id")
+                .append("qty", 1)
+                .append("revenue", 1)
+                .append("distinctBuyers", new Document("$size", new Document("$reduce",
+                    new Document("input", "$buyerSets")
+                        .append("initialValue", List.of())
+                        .append("in", new Document("$setUnion", List.of("$$value", "$$this"))))))));
+            stages.add(stage("$sort", new Document("productId", 1)));
+        }
+        return mongoOperations.aggregate(Aggregation.newAggregation(stages), DailySalesRollup.class, SalesReportRow.class)
+            .getMappedResults();
+    }
+
+    private static Query byId(String day, String productId) {
+        return new Query(Criteria.where("_id").is(DailySalesRollup.rollupId(day, productId)));
+    }
+
+    private static String dayOf(Transaction transaction) {
+        return transaction.getDatetime().toLocalDate().toString();
+    }
+
+    private static AggregationOperation stage(String operator, Object spec) {
+        return context -> new Document(operator, spec);
+    }
+}
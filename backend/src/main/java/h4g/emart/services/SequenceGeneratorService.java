@@ -1,15 +1,19 @@
 package h4g.emart.services;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.web.bind.annotation.RequestMapping;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import h4g.emart.models.Sequence;
 
 @Service
@@ -18,6 +22,12 @@ public class SequenceGeneratorService {
     @Autowired
     private MongoOperations mongoOperations;
 
+    // Number of ids reserved from database_sequences per round trip
+    @Value("${sequence.block-size:50}")
+    private int blockSize;
+
+    private final Map<String, AtomicReference<IdBlock>> blocks = new ConcurrentHashMap<>();
+
     public String generateId(String seqName) {
         long seq = generateSequence(seqName);
         String prefix = "";
@@ -40,19 +50,67 @@ public class SequenceGeneratorService {
             case "Transaction":
                 prefix = "TX";
                 break;
+            case "TopUpJob":
+                prefix = "TU";
+                break;
             case "User":
                 prefix = "U";
                 break;
+            case "VoucherEntry":
+                prefix = "V";
+                break;
         }
         return prefix + seq;
     }
 
+    /**
+     * Returns the next value of the named sequence.
+     * Values are handed out from a block reserved in memory; the database is only
+     * contacted when the current block for the sequence is exhausted.
+     * @param seqName The name of the sequence.
+     * @return The next sequence value.
+     */
     public long generateSequence(String seqName) {
+        AtomicReference<IdBlock> current = blocks.computeIfAbsent(seqName,
+            name -> new AtomicReference<>(IdBlock.EMPTY));
+        while (true) {
+            IdBlock block = current.get();
+            long seq = block.next.getAndIncrement();
+            if (seq <= block.max) {
+                return seq;
+            }
+            synchronized (current) {
+                if (current.get() == block) {
+                    current.set(reserveBlock(seqName));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves the next block of ids for a sequence with a single atomic increment.
+     * Every replica reserves disjoint ranges, so ids stay unique across backend instances.
+     * The stored counter lags the last issued id by one, matching ids issued before blocks were used.
+     */
+    private IdBlock reserveBlock(String seqName) {
         Query query = new Query(Criteria.where("_id").is(seqName));
-        Update update = new Update().inc("seq", 1);
-        Sequence counter = mongoOperations.findAndModify(query, update, 
+        Update update = new Update().inc("seq", blockSize);
+        Sequence counter = mongoOperations.findAndModify(query, update,
             FindAndModifyOptions.options().returnNew(true).upsert(true),
             Sequence.class);
-        return !Objects.isNull(counter) ? counter.increment() : 1;
+        long max = !Objects.isNull(counter) ? counter.getSeq() + 1 : blockSize;
+        return new IdBlock(max - blockSize + 1, max);
+    }
+
+    private static class IdBlock {
+        private static final IdBlock EMPTY = new IdBlock(1, 0);
+
+        private final AtomicLong next;
+        private final long max;
+
+        private IdBlock(long first, long max) {
+            this.next = new AtomicLong(first);
+            this.max = max;
+        }
     }
-}
\ No newline at end of file
+}
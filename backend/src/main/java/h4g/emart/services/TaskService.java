@@ -7,19 +7,43 @@ import h4g.emart.repositories.TaskRepository;
 import h4g.emart.services.SequenceGeneratorService;
 import h4g.emart.models.Contributor;
 import h4g.emart.models.ContributorStatus;
+import h4g.emart.models.PayoutRun;
 import h4g.emart.models.PreorderStatus;
 import h4g.emart.models.Task;
+import h4g.emart.models.TaskSummary;
+import h4g.emart.models.VoucherEntry;
+import h4g.emart.models.VoucherEntryType;
 
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 public class TaskService {
 
+    // Contributor statuses an admin review may change
+    private static final List<String> REVIEWABLE = List.of(
+        ContributorStatus.PENDING.name(), ContributorStatus.APPROVED.name(), ContributorStatus.REJECTED.name());
+
     @Autowired
     private TaskRepository taskRepository;
 
@@ -29,6 +53,15 @@ public class TaskService {
     @Autowired
     private SequenceGeneratorService sequenceGeneratorService;
 
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private LeaderboardService leaderboardService;
+
+    @Autowired
+    private VoucherLedgerService voucherLedgerService;
+
     /**
      * Creates a new task.
      * @param task The task object to create.
@@ -58,17 +91,60 @@ public class TaskService {
     }
 
     /**
-     * Updates an existing task by its ID.
+     * Retrieves one page of tasks in ID order, with contributor counts instead of contributors.
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of tasks to return.
+     * @param userId A user whose own contributor status to include on each task, or null for none.
+     * @return The tasks on the page.
+     */
+    public List<TaskSummary> getTasksPage(String after, int limit, String userId) {
+        return summarize(Criteria.where("_id").gt(after), limit, userId);
+    }
+
+    // Lists tasks in ID order without their contributor arrays, which are only counted on the server
+    private List<TaskSummary> summarize(Criteria criteria, int limit, String userId) {
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(criteria));
+        stages.add(Aggregation.sort(Sort.by("_id")));
+        if (limit > 0) {
+            stages.add(Aggregation.limit(limit));
+        }
+        Document contributors = new Document("$ifNull", List.of("$contributors", List.of()));
+        Document projection = new Document("taskName", 1)
+            .append("taskDesc", 1)
+            .append("taskReward", 1)
+            .append("datetime", 1)
+            .append("status", 1)
+            .append("contributorCount", new Document("$size", contributors));
+        if (userId != null) {
+            // Picked out on the server too, so a resident can see their own status without the array
+            projection.append("contributorStatus", new Document("$arrayElemAt", List.of(
+                new Document("$map", new Document("input", new Document("$filter", new Document("input", contributors)
+                        .append("cond", new Document("$eq", List.of("$$this.userId", userId)))))
+                    .append("in", "$$this.status")),
+                0)));
+        }
+        stages.add(context -> new Document("$project", projection));
+        return mongoOperations.aggregate(Aggregation.newAggregation(stages), Task.class, TaskSummary.class)
+            .getMappedResults();
+    }
+
+    /**
+     * Updates an existing task's details and status by its ID.
+     * Contributors are left as stored, so an edit made from an older copy of the task cannot
+     * drop concurrent joins or undo reviews and payouts.
      * @param taskId The ID of the task to update.
      * @param updatedTask The updated task object.
      * @return The updated task if it exists, or null if not found.
      */
     public Task updateTask(String taskId, Task updatedTask) {
-        if (taskRepository.existsById(taskId)) {
-            updatedTask.setTaskId(taskId);
-            return taskRepository.save(updatedTask);
-        }
-        return null;
+        Update update = new Update()
+            .set("taskName", updatedTask.getTaskName())
+            .set("taskDesc", updatedTask.getTaskDesc())
+            .set("taskReward", updatedTask.getTaskReward())
+            .set("status", updatedTask.getStatus());
+        return mongoOperations.findAndModify(new Query(Criteria.where("_id").is(taskId)), update,
+            FindAndModifyOptions.options().returnNew(true), Task.class);
     }
 
     /**
@@ -85,61 +161,197 @@ public class TaskService {
     }
 
     /**
-     * Adds a contributor to a task.
+     * Adds a contributor to a task with a single atomic $push, guarded so the task is OPEN
+     * and the user has not already joined; concurrent sign-ups cannot overwrite each other.
      * @param taskId The ID of the task.
      * @param contributorId The ID of the contributor to add.
-     * @return The updated task if successful, or null if the task doesn't exist.
+     * @return The updated task if successful, or null if the task doesn't exist, is not OPEN,
+     *         or the user has already joined.
      */
     public Task addContributor(String taskId, String contributorId) {
-        Optional<Task> optionalTask = taskRepository.findById(taskId);
         User user = userService.getUserById(contributorId);
-        if (optionalTask.isPresent() && user != null) {
-            Task task = optionalTask.get();
-            if (!task.getContributors().contains(contributorId) && task.getStatus() == TaskStatus.OPEN) {
-                Contributor contributor = new Contributor(taskId, contributorId, user.getName());
-                task.getContributors().add(contributor);
-                return taskRepository.save(task);
+        if (user == null) {
+            return null;
+        }
+        Query query = new Query(Criteria.where("_id").is(taskId)
+            .and("status").is(TaskStatus.OPEN)
+            .and("contributors.userId").ne(contributorId));
+        Update update = new Update().push("contributors", new Contributor(taskId, contributorId, user.getName()));
+        return mongoOperations.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Task.class);
+    }
+
+    /**
+     * Retrieves one page of a task's contributors, in the order they joined.
+     * @param taskId The ID of the task.
+     * @param offset The number of contributors to skip.
+     * @param limit The maximum number of contributors to return.
+     * @return The contributors on the page, or null if the task doesn't exist.
+     */
+    public List<Contributor> getContributorsPage(String taskId, int offset, int limit) {
+        Query query = new Query(Criteria.where("_id").is(taskId));
+        query.fields().include("contributors").slice("contributors", offset, limit);
+        Task task = mongoOperations.findOne(query, Task.class);
+        return task != null ? task.getContributors() : null;
+    }
+
+    /**
+     * Approves or rejects several contributors of a task in one atomic update.
+     * Each decision is applied through a positional array filter, so contributors joining
+     * concurrently are not overwritten. Contributors already processed or claimed for a payout
+     * are left as they are.
+     * @param taskId The ID of the task.
+     * @param decisions The new status, APPROVED or REJECTED, keyed by contributor user ID.
+     * @return The contributors whose status changed, or null if the task doesn't exist.
+     * @throws IllegalArgumentException If there are no decisions or a status is not APPROVED or REJECTED.
+     */
+    public List<Contributor> reviewContributors(String taskId, Map<String, String> decisions) {
+        if (decisions == null || decisions.isEmpty()) {
+            throw new IllegalArgumentException("At least one contributor decision is required.");
+        }
+        Map<ContributorStatus, List<String>> byStatus = new LinkedHashMap<>();
+        for (Map.Entry<String, String> decision : decisions.entrySet()) {
+            ContributorStatus status = ContributorStatus.valueOf(String.valueOf(decision.getValue()).toUpperCase());
+            if (status != ContributorStatus.APPROVED && status != ContributorStatus.REJECTED) {
+                throw new IllegalArgumentException("Contributors can only be APPROVED or REJECTED.");
+            }
+            byStatus.computeIfAbsent(status, s -> new ArrayList<>()).add(decision.getKey());
+        }
+
+        // One array filter per target status; each only matches contributors still open for review
+        Update update = new Update();
+        for (Map.Entry<ContributorStatus, List<String>> group : byStatus.entrySet()) {
+            String identifier = group.getKey().name().toLowerCase();
+            update.set("contributors.$[" + identifier + "].status", group.getKey().name());
+            update.filterArray(Criteria.where(identifier + ".userId").in(group.getValue())
+                .and(identifier + ".status").in(REVIEWABLE)
+                .and(identifier + ".payoutRunId").exists(false));
+        }
+        // The previous document is returned, so the changes can be worked out from exactly what this write replaced
+        Task before = mongoOperations.findAndModify(new Query(Criteria.where("_id").is(taskId)), update, Task.class);
+        if (before == null) {
+            return null;
+        }
+
+        List<Contributor> changed = new ArrayList<>();
+        for (Contributor contributor : before.getContributors()) {
+            ContributorStatus decided = decidedStatus(byStatus, contributor.getUserId());
+            if (decided != null && decided != contributor.getStatus()
+                    && REVIEWABLE.contains(contributor.getStatus().name()) && contributor.getPayoutRunId() == null) {
+                contributor.setStatus(decided);
+                changed.add(contributor);
+            }
+        }
+        return changed;
+    }
+
+    private static ContributorStatus decidedStatus(Map<ContributorStatus, List<String>> byStatus, String userId) {
+        for (Map.Entry<ContributorStatus, List<String>> group : byStatus.entrySet()) {
+            if (group.getValue().contains(userId)) {
+                return group.getKey();
             }
         }
         return null;
     }
 
     /**
-     * Retrieves tasks by their status.
+     * Retrieves tasks by their status, with contributor counts instead of contributors.
      * @param status The status to filter tasks by.
      * @return A list of tasks with the specified status.
      */
-    public List<Task> getTasksByStatus(String status) {
+    public List<TaskSummary> getTasksByStatus(String status) {
         TaskStatus taskStatus = TaskStatus.valueOf(status.toUpperCase()); // Convert string to enum
-        return taskRepository.findByStatus(taskStatus);
+        return summarize(Criteria.where("status").is(taskStatus), 0, null);
     }
 
     /**
-     * Process tasks, paying out all ACCEPTED contributors and changing their status to PROCESSED
+     * Process tasks, paying out all APPROVED contributors and changing their status to PROCESSED.
+     *
+     * The APPROVED contributors are first claimed for a payout run in one update of the task,
+     * so concurrent calls pay disjoint contributors. The run is recorded, every claimed user is
+     * paid in one unordered bulk $inc, and the claimed contributors are flipped to PROCESSED in
+     * one update. Each user's $inc is guarded by the run ID, recorded on the user in the same
+     * write, so a run resumed after a failure never pays anyone twice. Runs left incomplete by
+     * an earlier failure are resumed first.
      * @param taskId The task to process.
      * @return The updated task
      */
     public Task processTask(String taskId) {
-        Optional<Task> optionalTask = taskRepository.findById(taskId);
-        if (!optionalTask.isPresent()) {
+        Task task = taskRepository.findById(taskId).orElse(null);
+        if (task == null) {
             return null;
         }
-    
-        Task task = optionalTask.get();
-        double taskReward = task.getTaskReward();
-    
+
+        // Claimed but not yet processed, by run; left by an earlier call that failed part way
+        Map<String, List<String>> unfinished = new LinkedHashMap<>();
         for (Contributor contributor : task.getContributors()) {
-            try {
-                if (contributor.getStatus() == ContributorStatus.APPROVED) {
-                    userService.addBalance(contributor.getUserId(), taskReward);
-                    contributor.setStatus(ContributorStatus.PROCESSED);
-                }
-            } catch (Exception e) {
-                System.err.println("Error processing contributor " + contributor.getUserId() + ": " + e.getMessage());
+            if (contributor.getStatus() == ContributorStatus.APPROVED && contributor.getPayoutRunId() != null) {
+                unfinished.computeIfAbsent(contributor.getPayoutRunId(), r -> new ArrayList<>()).add(contributor.getUserId());
             }
         }
-    
-        return taskRepository.save(task);
+        for (Map.Entry<String, List<String>> run : unfinished.entrySet()) {
+            PayoutRun existing = mongoOperations.findById(run.getKey(), PayoutRun.class);
+            pay(existing != null ? existing : recordRun(run.getKey(), task, run.getValue()));
+        }
+
+        String runId = sequenceGeneratorService.generateId("PayoutRun");
+        Query claimable = new Query(Criteria.where("_id").is(taskId)
+            .and("contributors").elemMatch(Criteria.where("status").is(ContributorStatus.APPROVED.name())
+                .and("payoutRunId").exists(false)));
+        Update claim = new Update().set("contributors.$[c].payoutRunId", runId)
+            .filterArray(Criteria.where("c.status").is(ContributorStatus.APPROVED.name()).and("c.payoutRunId").exists(false));
+        Task claimed = mongoOperations.findAndModify(claimable, claim, FindAndModifyOptions.options().returnNew(true), Task.class);
+        if (claimed != null) {
+            List<String> userIds = claimed.getContributors().stream()
+                .filter(contributor -> runId.equals(contributor.getPayoutRunId()))
+                .map(Contributor::getUserId)
+                .toList();
+            pay(recordRun(runId, claimed, userIds));
+        }
+        return taskRepository.findById(taskId).orElse(null);
+    }
+
+    private PayoutRun recordRun(String runId, Task task, List<String> userIds) {
+        return mongoOperations.save(new PayoutRun(runId, task.getTaskId(), task.getTaskReward(), userIds));
+    }
+
+    // Pays every user in a run once, then marks the run's contributors PROCESSED
+    private void pay(PayoutRun run) {
+        if (!run.getUserIds().isEmpty()) {
+            BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, User.class);
+            for (String userId : new LinkedHashSet<>(run.getUserIds())) {
+                ops.updateOne(new Query(Criteria.where("_id").is(userId).and(User.PAYOUT_RUNS).ne(run.getRunId())),
+                    new Update().inc("voucherBal", run.getAmount())
+                        .push(User.PAYOUT_RUNS).slice(-User.RECENT_PAYOUT_RUNS).each(run.getRunId()));
+            }
+            ops.execute();
+            // Keyed by run and user, so a resumed run records each payout once
+            List<VoucherEntry> entries = new ArrayList<>();
+            for (String userId : new LinkedHashSet<>(run.getUserIds())) {
+                entries.add(voucherLedgerService.entry("V-" + run.getRunId() + "-" + userId, userId,
+                    VoucherEntryType.TASK_PAYOUT, run.getAmount(), run.getTaskId()));
+            }
+            voucherLedgerService.record(entries);
+            // A resumed run may skip users it already paid, so the new balances are read back
+            leaderboardService.reload(run.getUserIds());
+        }
+        mongoOperations.updateFirst(new Query(Criteria.where("_id").is(run.getTaskId())),
+            new Update().set("contributors.$[c].status", ContributorStatus.PROCESSED.name())
+                .filterArray(Criteria.where("c.payoutRunId").is(run.getRunId())
+                    .and("c.status").is(ContributorStatus.APPROVED.name())),
+            Task.class);
+        mongoOperations.updateFirst(new Query(Criteria.where("_id").is(run.getRunId())),
+            new Update().set("completed", true), PayoutRun.class);
+    }
+
+    /**
+     * Reopens a task so contributors can join again.
+     * @param taskId The task to reopen.
+     * @return The updated task
+     */
+    public Task openTask(String taskId) {
+        // Only the status is written, like closeTask
+        return mongoOperations.findAndModify(new Query(Criteria.where("_id").is(taskId)),
+            new Update().set("status", TaskStatus.OPEN), FindAndModifyOptions.options().returnNew(true), Task.class);
     }
 
     /**
@@ -148,15 +360,9 @@ public class TaskService {
      * @return The updated task
      */
     public Task closeTask(String taskId) {
-        Optional<Task> optionalTask = taskRepository.findById(taskId);
-        if (!optionalTask.isPresent()) {
-            return null;
-        }
-    
-        Task task = optionalTask.get();
-        task.setStatus(TaskStatus.CLOSED);
-    
-        return taskRepository.save(task);
+        // Only the status is written, so contributors joining concurrently are kept
+        return mongoOperations.findAndModify(new Query(Criteria.where("_id").is(taskId)),
+            new Update().set("status", TaskStatus.CLOSED), FindAndModifyOptions.options().returnNew(true), Task.class);
     }
 
     /**
@@ -168,4 +374,14 @@ public class TaskService {
     public List<Task> getTasksInTimeframe(LocalDateTime start, LocalDateTime end) {
         return taskRepository.findByDatetimeBetween(start, end);
     }
+
+    /**
+     * Streams all tasks created within a certain timeframe, for exports too large to hold in memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return A cursor-backed stream that the caller must close.
+     */
+    public Stream<Task> streamTasksInTimeframe(LocalDateTime start, LocalDateTime end) {
+        return taskRepository.streamByDatetimeBetween(start, end);
+    }
 }
@@ -5,17 +5,26 @@ import h4g.emart.models.Product;
 import h4g.emart.models.Transaction;
 import h4g.emart.models.Transaction;
 import h4g.emart.models.User;
+import h4g.emart.models.VoucherEntryType;
 import h4g.emart.services.ProductService;
 import h4g.emart.services.SequenceGeneratorService;
 import h4g.emart.services.UserService;
 import h4g.emart.exceptions.InsufficientStockException;
 import h4g.emart.repositories.TransactionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 public class TransactionService {
@@ -32,6 +41,15 @@ public class TransactionService {
     @Autowired
     private SequenceGeneratorService sequenceGeneratorService;
 
+    @Autowired
+    private InventoryLedgerService inventoryLedgerService;
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
     /**
      * Retrieves all transactions.
      * @return A list of all transactions.
@@ -40,6 +58,16 @@ public class TransactionService {
         return transactionRepository.findAll();
     }
 
+    /**
+     * Retrieves one page of transactions in ID order.
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of transactions to return.
+     * @return The transactions on the page.
+     */
+    public List<Transaction> getTransactionsPage(String after, int limit) {
+        return transactionRepository.findByTransactionIdGreaterThanOrderByTransactionIdAsc(after, Limit.of(limit));
+    }
+
     /**
      * Retrieves a transaction by its ID.
      * @param transactionId The ID of the transaction to retrieve.
@@ -74,48 +102,179 @@ public class TransactionService {
 
     /**
      * Creates a new transaction.
+     * Stock and balance are deducted with guarded server-side updates, so concurrent
+     * purchases cannot oversell a product or overdraw a balance. Earlier steps are
+     * compensated if a later one fails.
      * @param transaction The transaction object to create.
      * @return The created transaction.
      */
     public Transaction createTransaction(Transaction transaction) {
-        User user = userService.getUserById(transaction.getUserId());
-        if (user == null) {
-            throw new IllegalArgumentException("User with ID " + transaction.getUserId() + " not found.");
+        // A negative quantity would pass both guards and add stock and balance instead
+        if (transaction.getQtyPurchased() <= 0) {
+            throw new IllegalArgumentException("Invalid quantity for product ID " + transaction.getProductId());
         }
 
-        Product product = productService.getProductById(transaction.getProductId());
-        if (product == null) {
-            throw new IllegalArgumentException("Product with ID " + transaction.getProductId() + " not found.");
-        }
+        // Assigned up front so the voucher ledger can refer to it
+        transaction.setTransactionId(sequenceGeneratorService.generateId("Transaction"));
 
-        // Check if product quantity is sufficient
-        if (product.getQuantity() < transaction.getQtyPurchased()) {
+        // Hot products are reserved from this node's in-memory stock lease instead of the product document
+        InventoryLedgerService.Reservation reservation =
+            inventoryLedgerService.reserve(transaction.getProductId(), transaction.getQtyPurchased());
+        Product product = reservation != null
+            ? reservation.getProduct()
+            : productService.deductStock(transaction.getProductId(), transaction.getQtyPurchased());
+        if (product == null) {
+            if (productService.getProductById(transaction.getProductId()) == null) {
+                throw new IllegalArgumentException("Product with ID " + transaction.getProductId() + " not found.");
+            }
             throw new InsufficientStockException("Insufficient product stock for product ID " + transaction.getProductId());
         }
+        Runnable restoreStock = reservation != null
+            ? () -> inventoryLedgerService.release(reservation)
+            : () -> productService.restoreStock(transaction.getProductId(), transaction.getQtyPurchased());
 
         // Calculate the total price of the purchase
         double totalPrice = product.getPrice() * transaction.getQtyPurchased();
 
-        // Check if user's voucher balance is sufficient for the purchase
-        if (user.getVoucherBal() < totalPrice) {
+        // Deduct the total price from the user's voucher balance
+        User user = userService.deductBalance(transaction.getUserId(), totalPrice,
+            VoucherEntryType.PURCHASE, transaction.getTransactionId());
+        if (user == null) {
+            restoreStock.run();
+            if (userService.getUserById(transaction.getUserId()) == null) {
+                throw new IllegalArgumentException("User with ID " + transaction.getUserId() + " not found.");
+            }
             throw new InsufficientBalanceException("Insufficient voucher balance for user ID " + transaction.getUserId());
         }
 
-        // Deduct the purchased quantity from the product's stock
-        product.bought(transaction.getQtyPurchased());
-        productService.updateProductOnPurchase(product);
+        Transaction saved;
+        try {
+            transaction.setTotalPrice(totalPrice);
+            if (reservation != null) {
+                transaction.setLeaseId(reservation.getLeaseId());
+            }
 
-        // Deduct the total price from the user's voucher balance
-        user.deductBal(totalPrice);
-        userService.updateUser(user.getUserId(), user);
+            // Save the transaction
+            saved = transactionRepository.save(transaction);
+        } catch (RuntimeException e) {
+            restoreStock.run();
+            userService.addBalance(transaction.getUserId(), totalPrice,
+                VoucherEntryType.REFUND, transaction.getTransactionId());
+            throw e;
+        }
+        salesRollupService.record(saved);
+        return saved;
+    }
 
-        transaction.setTransactionId(sequenceGeneratorService.generateId("Transaction"));
-        transaction.setTotalPrice(totalPrice);
+    /**
+     * Creates several transactions as one all-or-nothing checkout.
+     * Stock and balances for every line are validated in one pass, then deducted with one
+     * guarded bulk write per collection, and the transactions are written with a single
+     * bulk insert. Hot products are reserved from this node's stock lease instead, as in
+     * single purchases. If any step fails, the earlier steps are reversed.
+     * @param transactions The cart lines to check out.
+     * @return The created transactions.
+     */
+    public List<Transaction> createTransactions(List<Transaction> transactions) {
+        if (transactions == null || transactions.isEmpty()) {
+            throw new IllegalArgumentException("Checkout must contain at least one transaction.");
+        }
 
-        // Save the transaction
-        return transactionRepository.save(transaction);
-    }
+        Map<String, Long> quantities = new LinkedHashMap<>();
+        for (Transaction transaction : transactions) {
+            if (transaction.getQtyPurchased() <= 0) {
+                throw new IllegalArgumentException("Invalid quantity for product ID " + transaction.getProductId());
+            }
+            quantities.merge(transaction.getProductId(), (long) transaction.getQtyPurchased(), Long::sum);
+        }
+
+        Map<String, Product> products = new HashMap<>();
+        for (Product product : productService.getProductsByIds(quantities.keySet())) {
+            products.put(product.getProductId(), product);
+        }
+        for (Map.Entry<String, Long> line : quantities.entrySet()) {
+            Product product = products.get(line.getKey());
+            if (product == null) {
+                throw new IllegalArgumentException("Product with ID " + line.getKey() + " not found.");
+            }
+            // Most of a hot product's stock is out on leases, so only its reservation can tell
+            if (!inventoryLedgerService.isHot(line.getKey()) && product.getQuantity() < line.getValue()) {
+                throw new InsufficientStockException("Insufficient product stock for product ID " + line.getKey());
+            }
+        }
+
+        Map<String, Double> charges = new LinkedHashMap<>();
+        for (Transaction transaction : transactions) {
+            double totalPrice = products.get(transaction.getProductId()).getPrice() * transaction.getQtyPurchased();
+            transaction.setTotalPrice(totalPrice);
+            charges.merge(transaction.getUserId(), totalPrice, Double::sum);
+        }
+
+        Map<String, User> users = new HashMap<>();
+        for (User user : userService.getUsersByIds(charges.keySet())) {
+            users.put(user.getUserId(), user);
+        }
+        for (Map.Entry<String, Double> charge : charges.entrySet()) {
+            User user = users.get(charge.getKey());
+            if (user == null) {
+                throw new IllegalArgumentException("User with ID " + charge.getKey() + " not found.");
+            }
+            if (user.getVoucherBal() < charge.getValue()) {
+                throw new InsufficientBalanceException("Insufficient voucher balance for user ID " + charge.getKey());
+            }
+        }
+
+        // Assigned up front so the voucher ledger can refer to the checkout by its first transaction
+        for (Transaction transaction : transactions) {
+            transaction.setTransactionId(sequenceGeneratorService.generateId("Transaction"));
+        }
+        String checkoutId = transactions.get(0).getTransactionId();
 
+        // Validation above is advisory; the guarded bulk writes are what prevent overselling
+        if (!userService.deductBalances(charges, checkoutId)) {
+            throw new InsufficientBalanceException("Insufficient voucher balance for checkout");
+        }
+        Map<String, InventoryLedgerService.Reservation> reservations = new HashMap<>();
+        Map<String, Long> coldQuantities = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, Long> line : quantities.entrySet()) {
+                InventoryLedgerService.Reservation reservation =
+                    inventoryLedgerService.reserve(line.getKey(), line.getValue());
+                if (reservation != null) {
+                    reservations.put(line.getKey(), reservation);
+                } else {
+                    coldQuantities.put(line.getKey(), line.getValue());
+                }
+            }
+        } catch (InsufficientStockException e) {
+            reservations.values().forEach(inventoryLedgerService::release);
+            userService.restoreBalances(charges, checkoutId);
+            throw e;
+        }
+        if (!productService.deductStock(coldQuantities)) {
+            reservations.values().forEach(inventoryLedgerService::release);
+            userService.restoreBalances(charges, checkoutId);
+            throw new InsufficientStockException("Insufficient product stock for checkout");
+        }
+
+        List<Transaction> created;
+        try {
+            for (Transaction transaction : transactions) {
+                InventoryLedgerService.Reservation reservation = reservations.get(transaction.getProductId());
+                if (reservation != null) {
+                    transaction.setLeaseId(reservation.getLeaseId());
+                }
+            }
+            created = transactionRepository.insert(transactions);
+        } catch (RuntimeException e) {
+            reservations.values().forEach(inventoryLedgerService::release);
+            productService.restoreStock(coldQuantities);
+            userService.restoreBalances(charges, checkoutId);
+            throw e;
+        }
+        salesRollupService.recordAll(created);
+        return created;
+    }
 
     /**
      * Deletes a transaction by its ID.
@@ -123,8 +282,11 @@ public class TransactionService {
      * @return True if the transaction was deleted, false otherwise.
      */
     public boolean deleteTransaction(String transactionId) {
-        if (transactionRepository.existsById(transactionId)) {
-            transactionRepository.deleteById(transactionId);
+        // Read and removed in one step, so of two concurrent deletes only one corrects the rollup
+        Transaction transaction = mongoOperations.findAndRemove(
+            new Query(Criteria.where("_id").is(transactionId)), Transaction.class);
+        if (transaction != null) {
+            salesRollupService.remove(transaction);
             return true;
         }
         return false;
@@ -139,4 +301,14 @@ public class TransactionService {
     public List<Transaction> getTransactionsInTimeframe(LocalDateTime start, LocalDateTime end) {
         return transactionRepository.findByDatetimeBetween(start, end);
     }
+
+    /**
+     * Streams all transactions created within a certain timeframe, for exports too large to hold in memory.
+     * @param start The start of the timeframe.
+     * @param end The end of the timeframe.
+     * @return A cursor-backed stream that the caller must close.
+     */
+    public Stream<Transaction> streamTransactionsInTimeframe(LocalDateTime start, LocalDateTime end) {
+        return transactionRepository.streamByDatetimeBetween(start, end);
+    }
 }
@@ -0,0 +1,241 @@
+package h4g.emart.services;
+
+import h4g.emart.models.User;
+import h4g.emart.models.VoucherEntry;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs balance-mutating commands one user at a time.
+ *
+ * Each user has a mailbox drained by a shared worker pool, so commands for the same user
+ * run in submission order while different users proceed in parallel. Consecutive credits
+ * or debits waiting in a mailbox are coalesced into a single $inc. A mailbox is removed once
+ * it is drained, so only users with commands in flight hold one. Each $inc is written in
+ * one transaction with the voucher ledger entries of the commands it applies.
+ */
+@Service
+public class UserCommandService {
+
+    @Autowired
+    private GuardedUpdateService guardedUpdateService;
+
+    @Value("${user-commands.threads:8}")
+    private int threads;
+
+    private ExecutorService workers;
+
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void start() {
+        workers = Executors.newFixedThreadPool(threads);
+    }
+
+    @PreDestroy
+    void stop() {
+        workers.shutdown();
+    }
+
+    /**
+     * Adds to a user's balance.
+     * @param entry The ledger entry recording the credit, written with it.
+     * @return The updated user, or null if the user does not exist.
+     */
+    public User credit(String userId, double amount, VoucherEntry entry) {
+        return submit(userId, new Command(amount, false, entry, null));
+    }
+
+    /**
+     * Deducts from a user's balance if it is sufficient.
+     * @param entry The ledger entry recording the debit, written with it.
+     * @return The updated user, or null if the user does not exist or the balance is insufficient.
+     */
+    public User debit(String userId, double amount, VoucherEntry entry) {
+        return submit(userId, new Command(-amount, true, entry, null));
+    }
+
+    /**
+     * Runs any other command that writes a user, ordered with that user's balance changes.
+     * The command must not submit further commands for the same user.
+     */
+    public User run(String userId, Supplier<User> action) {
+        return submit(userId, new Command(0, false, null, action));
+    }
+
+    private User submit(String userId, Command command) {
+        // Enqueued inside compute, so a mailbox is never removed between being found and being used
+        Mailbox mailbox = mailboxes.compute(userId, (id, existing) -> {
+            Mailbox box = existing != null ? existing : new Mailbox();
+            box.queue.add(command);
+            return box;
+        });
+        if (mailbox.scheduled.compareAndSet(false, true)) {
+            workers.execute(() -> drain(userId, mailbox));
+        }
+        try {
+            return command.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void drain(String userId, Mailbox mailbox) {
+        while (true) {
+            List<Command> batch = new ArrayList<>();
+            Command next;
+            while ((next = mailbox.queue.poll()) != null) {
+                batch.add(next);
+            }
+            if (batch.isEmpty()) {
+                mailbox.scheduled.set(false);
+                // Removed only while still empty; a later command then starts a new mailbox
+                mailboxes.computeIfPresent(userId, (id, box) -> box == mailbox && box.queue.isEmpty() ? null : box);
+                // A command may have arrived after the last poll but before the flag was cleared
+                if (mailbox.queue.isEmpty() || !mailbox.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            execute(userId, batch);
+        }
+    }
+
+    // Runs a batch in order, coalescing each run of consecutive credits or debits
+    private void execute(String userId, List<Command> batch) {
+        int i = 0;
+        while (i < batch.size()) {
+            Command first = batch.get(i);
+            if (first.action != null) {
+                complete(first, first.action);
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < batch.size() && batch.get(end).action == null
+                    && batch.get(end).guarded == first.guarded) {
+                end++;
+            }
+            List<Command> run = batch.subList(i, end);
+            if (first.guarded) {
+                applyDebits(userId, run);
+            } else {
+                applyCredits(userId, run);
+            }
+            i = end;
+        }
+    }
+
+    private void applyCredits(String userId, List<Command> credits) {
+        double total = 0;
+        for (Command credit : credits) {
+            total += credit.amount;
+        }
+        double sum = total;
+        try {
+            User user = inc(userId, sum, false, credits);
+            credits.forEach(credit -> credit.result.complete(user));
+        } catch (Throwable e) {
+            credits.forEach(credit -> credit.result.completeExceptionally(e));
+        }
+    }
+
+    // Tries all debits as one guarded $inc, falling back to one at a time if the total does not fit
+    private void applyDebits(String userId, List<Command> debits) {
+        if (debits.size() > 1) {
+            double total = 0;
+            for (Command debit : debits) {
+                total += debit.amount;
+            }
+            double sum = total;
+            try {
+                User user = inc(userId, sum, true, debits);
+                if (user != null) {
+                    debits.forEach(debit -> debit.result.complete(user));
+                    return;
+                }
+            } catch (Throwable e) {
+                debits.forEach(debit -> debit.result.completeExceptionally(e));
+                return;
+            }
+        }
+        for (Command debit : debits) {
+            complete(debit, () -> inc(userId, debit.amount, true, List.of(debit)));
+        }
+    }
+
+    // Applies the commands' total with their ledger entries, or neither
+    private User inc(String userId, double amount, boolean guarded, List<Command> commands) {
+        Criteria criteria = Criteria.where("_id").is(userId);
+        if (guarded) {
+            criteria = criteria.and("voucherBal").gte(-amount);
+        }
+        Query query = new Query(criteria);
+        List<VoucherEntry> entries = commands.stream().map(command -> command.entry).toList();
+        return guardedUpdateService.inTransaction(operations -> {
+            User user = operations.findAndModify(query, new Update().inc("voucherBal", amount),
+                FindAndModifyOptions.options().returnNew(true), User.class);
+            if (user != null) {
+                VoucherLedgerService.insert(operations, entries);
+            }
+            return user;
+        });
+    }
+
+    // Any Throwable completes the command, so its caller is never left waiting
+    private static void complete(Command command, Supplier<User> action) {
+        try {
+            command.result.complete(action.get());
+        } catch (Throwable e) {
+            command.result.completeExceptionally(e);
+        }
+    }
+
+    private static class Mailbox {
+        private final Queue<Command> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+
+    private static class Command {
+        private final double amount;
+        private final boolean guarded;
+        private final VoucherEntry entry;
+        private final Supplier<User> action;
+        private final CompletableFuture<User> result = new CompletableFuture<>();
+
+        private Command(double amount, boolean guarded, VoucherEntry entry, Supplier<User> action) {
+            this.amount = amount;
+            this.guarded = guarded;
+            this.entry = entry;
+            this.action = action;
+        }
+    }
+}
@@ -1,15 +1,30 @@
 package h4g.emart.services;
 
+import h4g.emart.models.LeaderboardEntry;
+import h4g.emart.models.Role;
+import h4g.emart.models.TopUpJob;
 import h4g.emart.models.UserStatus;
 import h4g.emart.models.User;
+import h4g.emart.models.VoucherEntry;
+import h4g.emart.models.VoucherEntryType;
+import h4g.emart.models.VoucherSnapshot;
 import h4g.emart.repositories.UserRepository;
 import h4g.emart.services.SequenceGeneratorService;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -21,10 +36,31 @@ public class UserService {
     @Autowired
     private SequenceGeneratorService sequenceGeneratorService;
 
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private GuardedUpdateService guardedUpdateService;
+
+    @Autowired
+    private UserCommandService userCommandService;
+
+    @Autowired
+    private LeaderboardService leaderboardService;
+
+    @Autowired
+    private VoucherLedgerService voucherLedgerService;
+
+    @Autowired
+    private BalanceTopUpService balanceTopUpService;
+
     // Create a new user
     public User createUser(User user) {
         // user.setUserId(sequenceGeneratorService.generateId("User"));
-        return userRepository.save(user);
+        User created = userRepository.save(user);
+        voucherLedgerService.open(created);
+        leaderboardService.update(created);
+        return created;
     }
 
     // Retrieve a user by their ID
@@ -33,58 +69,155 @@ public class UserService {
         return user.orElse(null);
     }
 
+    // Retrieve several users by ID in one query
+    public List<User> getUsersByIds(Collection<String> userIds) {
+        return userRepository.findAllById(userIds);
+    }
+
     // Retrieve all users
     public List<User> getAllUsers() {
         return userRepository.findAll();
     }
 
-    // Update an existing user
+    // Retrieve one page of users in ID order
+    public List<User> getUsersPage(String after, int limit) {
+        return userRepository.findByUserIdGreaterThanOrderByUserIdAsc(after, Limit.of(limit));
+    }
+
+    // Update an existing user, ordered with any balance changes pending for them
     public User updateUser(String userId, User updatedUser) {
-        if (userRepository.existsById(userId)) {
+        User user = userCommandService.run(userId, () -> {
+            // Only the editable fields are written, so server-kept fields such as payoutRuns survive an edit
+            Update update = new Update()
+                .set("name", updatedUser.getName())
+                .set("role", updatedUser.getRole())
+                .set("voucherBal", updatedUser.getVoucherBal())
+                .set("status", updatedUser.getStatus());
+            User existing = guardedUpdateService.inTransaction(operations -> {
+                User replaced = operations.findAndModify(new Query(Criteria.where("_id").is(userId)), update, User.class);
+                // The balance may be set directly; the ledger records the difference from the value this
+                // write replaced, in the same transaction, so a credit that lands just before it is counted once
+                double change = replaced != null ? updatedUser.getVoucherBal() - replaced.getVoucherBal() : 0;
+                if (VoucherLedgerService.toCents(change) != 0) {
+                    VoucherLedgerService.insert(operations, List.of(
+                        voucherLedgerService.entry(null, userId, VoucherEntryType.ADJUSTMENT, change, null)));
+                }
+                return replaced;
+            });
+            if (existing == null) {
+                return null;
+            }
             updatedUser.setUserId(userId);
-            return userRepository.save(updatedUser);
-        }
-        return null;
+            return updatedUser;
+        });
+        leaderboardService.update(user);
+        return user;
     }
 
     // Delete a user
     public boolean deleteUser(String userId) {
         if (userRepository.existsById(userId)) {
             userRepository.deleteById(userId);
+            leaderboardService.remove(userId);
             return true;
         }
         return false;
     }
 
-    // Add balance to a user's account
+    // Top up a user's account, serialized with the user's other balance changes
     public User addBalance(String userId, double amount) {
-        User user = getUserById(userId);
-        if (user != null) {
-            user.addBal(amount);
-            return userRepository.save(user);
-        }
-        return null;
+        return addBalance(userId, amount, VoucherEntryType.TOP_UP, null);
     }
 
-    // Deduct balance from a user's account
+    // Add balance to a user's account, recording why in the voucher ledger in the same transaction
+    public User addBalance(String userId, double amount, VoucherEntryType type, String reference) {
+        User user = userCommandService.credit(userId, amount, entry(userId, type, amount, reference));
+        leaderboardService.update(user);
+        return user;
+    }
+
+    // Adjust a user's account down, guarded so the balance never goes negative
     public User deductBalance(String userId, double amount) {
-        User user = getUserById(userId);
-        if (user != null && user.getVoucherBal() >= amount) {
-            user.deductBal(amount);
-            return userRepository.save(user);
+        return deductBalance(userId, amount, VoucherEntryType.ADJUSTMENT, null);
+    }
+
+    // Deduct balance from a user's account, recording why in the voucher ledger in the same transaction
+    public User deductBalance(String userId, double amount, VoucherEntryType type, String reference) {
+        User user = userCommandService.debit(userId, amount, entry(userId, type, -amount, reference));
+        leaderboardService.update(user);
+        return user;
+    }
+
+    // Deduct a checkout's charges from several accounts in one transaction with their ledger entries, all or nothing
+    public boolean deductBalances(Map<String, Double> amounts, String reference) {
+        boolean deducted = guardedUpdateService.deductAll(User.class, "voucherBal", amounts, (operations, userIds) ->
+            VoucherLedgerService.insert(operations, entries(amounts, -1, VoucherEntryType.PURCHASE, reference)));
+        if (deducted) {
+            leaderboardService.adjust(amounts, -1);
         }
-        return null;
+        return deducted;
+    }
+
+    // Return balances to several accounts with their ledger entries, used to compensate a failed checkout
+    public void restoreBalances(Map<String, Double> amounts, String reference) {
+        guardedUpdateService.restoreAll(User.class, "voucherBal", amounts, (operations, userIds) ->
+            VoucherLedgerService.insert(operations, entries(amounts, 1, VoucherEntryType.REFUND, reference)));
+        leaderboardService.adjust(amounts, 1);
+    }
+
+    // Keyed by the change's cause when it has one, so the same change is refused if it is made again
+    private VoucherEntry entry(String userId, VoucherEntryType type, double amount, String reference) {
+        String entryId = reference != null ? "V-" + type.name().toLowerCase() + "-" + reference + "-" + userId : null;
+        return voucherLedgerService.entry(entryId, userId, type, amount, reference);
+    }
+
+    private List<VoucherEntry> entries(Map<String, Double> amounts, int sign, VoucherEntryType type, String reference) {
+        List<VoucherEntry> entries = new ArrayList<>();
+        amounts.forEach((userId, amount) -> entries.add(entry(userId, type, sign * amount, reference)));
+        return entries;
+    }
+
+    // Start topping up every user with a role and status in the background; null or blank matches any
+    public TopUpJob startTopUp(String role, String status, double amount) {
+        Role userRole = role != null && !role.isBlank() ? Role.valueOf(role.toUpperCase()) : null;
+        UserStatus userStatus = status != null && !status.isBlank() ? UserStatus.valueOf(status.toUpperCase()) : null;
+        return balanceTopUpService.start(userRole, userStatus, amount);
+    }
+
+    // Retrieve a top-up job and its progress
+    public TopUpJob getTopUpJob(String jobId) {
+        return balanceTopUpService.getJob(jobId);
+    }
+
+    // Compute a user's balance from the voucher ledger, in cents
+    public VoucherSnapshot getLedgerBalance(String userId) {
+        return voucherLedgerService.getBalance(userId);
+    }
+
+    // Retrieve one page of a user's voucher ledger in ID order
+    public List<VoucherEntry> getLedgerPage(String userId, String after, int limit) {
+        return voucherLedgerService.getEntriesPage(userId, after, limit);
     }
 
     // Change the status of a user
     public User changeUserStatus(String userId, String status) {
         UserStatus userStatus = UserStatus.valueOf(status.toUpperCase()); // Convert string to enum
-        User user = getUserById(userId);
-        if (user != null) {
-            user.setStatus(userStatus);
-            return userRepository.save(user);
-        }
-        return null;
+        // Only the status is written, so a concurrent balance change is not overwritten
+        Query query = new Query(Criteria.where("_id").is(userId));
+        User user = mongoOperations.findAndModify(query, new Update().set("status", userStatus),
+            FindAndModifyOptions.options().returnNew(true), User.class);
+        leaderboardService.update(user);
+        return user;
+    }
+
+    // Retrieve the residents with the highest voucher balances
+    public List<LeaderboardEntry> getLeaderboard(int limit) {
+        return leaderboardService.getTop(limit);
+    }
+
+    // Retrieve one resident's place on the leaderboard
+    public LeaderboardEntry getLeaderboardRank(String userId) {
+        return leaderboardService.getRank(userId);
     }
 
     // Retrieve users by their status
@@ -0,0 +1,354 @@
+package h4g.emart.services;
+
+import h4g.emart.models.User;
+import h4g.emart.models.VoucherEntry;
+import h4g.emart.models.VoucherEntryType;
+import h4g.emart.models.VoucherSnapshot;
+import h4g.emart.repositories.VoucherEntryRepository;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Append-only record of every change to a voucher balance, in integer cents.
+ *
+ * User.voucherBal stays the balance that purchases are guarded against, since an
+ * overdraft check needs a single document to update atomically. Each change to it is
+ * written in one transaction with the entry here saying why, so a failure between the
+ * two cannot leave them disagreeing. Entries are keyed by the change's cause where it has
+ * one, so a repeated change is refused rather than applied twice. Entries are exact
+ * cents; voucherBal is still a double and can differ from them by rounding.
+ * A periodic job folds settled entries into a per-user snapshot, so a ledger balance is
+ * one snapshot read plus the entries since it.
+ */
+@Service
+public class VoucherLedgerService {
+
+    private static final Logger log = LoggerFactory.getLogger(VoucherLedgerService.class);
+
+    // Write error code for a duplicate _id, i.e. an entry already written by an earlier attempt
+    private static final int DUPLICATE_KEY = 11000;
+
+    private static final String OPENING_PREFIX = "V-open-";
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private VoucherEntryRepository voucherEntryRepository;
+
+    @Autowired
+    private SequenceGeneratorService sequenceGeneratorService;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private UserCommandService userCommandService;
+
+    // Entries are dated by the database as they are written; this margin covers a write that is
+    // dated just before a snapshot reads the clock but only becomes visible just after
+    @Value("${ledger.settle-ms:60000}")
+    private long settleMs;
+
+    // The cutoff of this node's last snapshot run, or null to consider every entry
+    private LocalDateTime lastCutoff;
+
+    /**
+     * Converts an amount in dollars to whole cents.
+     */
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    /**
+     * Creates an entry without inserting it. It is dated when it is recorded.
+     * @param entryId A deterministic ID for a change that may be retried, so it is recorded once;
+     *        null to generate one.
+     */
+    public VoucherEntry entry(String entryId, String userId, VoucherEntryType type, double amount, String reference) {
+        String id = entryId != null ? entryId : sequenceGeneratorService.generateId("VoucherEntry");
+        return new VoucherEntry(id, userId, type, toCents(amount), reference);
+    }
+
+    /**
+     * Writes entries in one unordered bulk write, each dated by the database clock rather than
+     * this node's, so snapshot cutoffs compare against one clock. An entry whose ID was already
+     * recorded is left exactly as it was, date included.
+     */
+    public void record(Collection<VoucherEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, VoucherEntry.class);
+        for (VoucherEntry entry : entries) {
+            ops.upsert(new Query(Criteria.where("_id").is(entry.getEntryId())), stamped(entry));
+        }
+        try {
+            ops.execute();
+        } catch (BulkOperationException e) {
+            if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Inserts entries with the write that changes the balances, inside its transaction, each
+     * dated by the database clock. An entry whose ID is already recorded fails with a duplicate
+     * key error, which aborts the transaction, so a change already applied is not applied again.
+     * @param operations Operations bound to the transaction.
+     */
+    public static void insert(MongoOperations operations, Collection<VoucherEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        BulkOperations ops = operations.bulkOps(BulkMode.UNORDERED, VoucherEntry.class);
+        for (VoucherEntry entry : entries) {
+            // Matches no recorded entry, so the upsert inserts, and collides on the ID of a recorded one
+            Query absent = new Query(Criteria.where("_id").is(entry.getEntryId()).and("amount").exists(false));
+            ops.upsert(absent, stamped(entry));
+        }
+        ops.execute();
+    }
+
+    // Sets each field only if it is not already set, with $$NOW as the date of a new entry
+    private static AggregationUpdate stamped(VoucherEntry entry) {
+        Document fields = new Document()
+            .append("userId", keep("userId", entry.getUserId()))
+            .append("type", keep("type", entry.getType().name()))
+            .append("amount", keep("amount", entry.getAmount()))
+            .append("reference", keep("reference", entry.getReference()))
+            .append("datetime", new Document("$ifNull", List.of("$datetime", "$$NOW")));
+        return AggregationUpdate.from(List.of(context -> new Document("$set", fields)));
+    }
+
+    private static Document keep(String field, Object value) {
+        return new Document("$ifNull", Arrays.asList("$" + field, new Document("$literal", value)));
+    }
+
+    /**
+     * Reads the database clock, which dates every entry.
+     */
+    private LocalDateTime databaseNow() {
+        Document hello = mongoOperations.executeCommand(new Document("hello", 1));
+        Instant now = hello.getDate("localTime").toInstant();
+        return LocalDateTime.ofInstant(now, ZoneId.systemDefault());
+    }
+
+    /**
+     * Starts a new user's ledger with the balance they were created with.
+     */
+    public void open(User user) {
+        record(List.of(entry(OPENING_PREFIX + user.getUserId(), user.getUserId(), VoucherEntryType.OPENING,
+            user.getVoucherBal(), null)));
+    }
+
+    /**
+     * Computes a user's balance from the ledger.
+     * @param userId The ID of the user.
+     * @return The latest snapshot with the entries since it added, through the newest entry.
+     */
+    public VoucherSnapshot getBalance(String userId) {
+        VoucherSnapshot snapshot = mongoOperations.findById(userId, VoucherSnapshot.class);
+        Criteria tail = Criteria.where("userId").is(userId);
+        if (snapshot != null) {
+            tail = tail.and("datetime").gt(snapshot.getThrough());
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(tail),
+            context -> new Document("$group", new Document("_id", null)
+                .append("amount", new Document("$sum", "$amount"))
+                .append("through", new Document("$max", "$datetime"))));
+        Document sum = mongoOperations.aggregate(aggregation, VoucherEntry.class, Document.class).getUniqueMappedResult();
+
+        long balance = snapshot != null ? snapshot.getBalance() : 0;
+        LocalDateTime through = snapshot != null ? snapshot.getThrough() : null;
+        if (sum != null) {
+            balance += ((Number) sum.get("amount")).longValue();
+            through = LocalDateTime.ofInstant(sum.getDate("through").toInstant(), ZoneId.systemDefault());
+        }
+        return new VoucherSnapshot(userId, balance, through);
+    }
+
+    /**
+     * Retrieves one page of a user's ledger entries in ID order.
+     * @param userId The ID of the user.
+     * @param after The last ID of the previous page, or an empty string for the first page.
+     * @param limit The maximum number of entries to return.
+     * @return The entries on the page.
+     */
+    public List<VoucherEntry> getEntriesPage(String userId, String after, int limit) {
+        return voucherEntryRepository.findByUserIdAndEntryIdGreaterThanOrderByEntryIdAsc(userId, after, Limit.of(limit));
+    }
+
+    /**
+     * Folds settled entries into each affected user's snapshot.
+     *
+     * Only users with entries since the previous run are visited. Each snapshot is replaced
+     * only if it is still the one the new balance was computed from, so runs on several nodes
+     * can overlap without counting an entry twice.
+     */
+    @Scheduled(fixedDelayString = "${ledger.snapshot-interval-ms:3600000}",
+        initialDelayString = "${ledger.snapshot-interval-ms:3600000}")
+    public synchronized void snapshot() {
+        try {
+            LocalDateTime cutoff = databaseNow().minus(settleMs, ChronoUnit.MILLIS).truncatedTo(ChronoUnit.MILLIS);
+            Criteria window = Criteria.where("datetime").lte(cutoff);
+            if (lastCutoff != null) {
+                window = window.gt(lastCutoff);
+            }
+            List<String> userIds = mongoOperations.findDistinct(new Query(window), "userId", VoucherEntry.class, String.class);
+            for (int i = 0; i < userIds.size(); i += BATCH_SIZE) {
+                snapshot(userIds.subList(i, Math.min(i + BATCH_SIZE, userIds.size())), cutoff);
+            }
+            lastCutoff = cutoff;
+        } catch (RuntimeException e) {
+            log.warn("Unable to snapshot voucher balances: {}", e.getMessage());
+        }
+    }
+
+    private void snapshot(List<String> userIds, LocalDateTime cutoff) {
+        Map<String, VoucherSnapshot> previous = new HashMap<>();
+        mongoOperations.find(new Query(Criteria.where("_id").in(userIds)), VoucherSnapshot.class)
+            .forEach(snapshot -> previous.put(snapshot.getUserId(), snapshot));
+
+        // Read from the oldest snapshot in the batch, skipping entries each user's own snapshot already holds
+        LocalDateTime from = previous.size() < userIds.size() ? null
+            : previous.values().stream().map(VoucherSnapshot::getThrough).min(LocalDateTime::compareTo).orElse(null);
+        Criteria range = Criteria.where("userId").in(userIds).and("datetime").lte(cutoff);
+        if (from != null) {
+            range = Criteria.where("userId").in(userIds).and("datetime").gt(from).lte(cutoff);
+        }
+        Query entries = new Query(range);
+        entries.fields().include("userId", "amount", "datetime");
+        Map<String, Long> balances = new HashMap<>();
+        try (Stream<VoucherEntry> stream = mongoOperations.stream(entries, VoucherEntry.class)) {
+            stream.forEach(entry -> {
+                VoucherSnapshot snapshot = previous.get(entry.getUserId());
+                if (snapshot == null || entry.getDatetime().isAfter(snapshot.getThrough())) {
+                    balances.merge(entry.getUserId(), entry.getAmount(), Long::sum);
+                }
+            });
+        }
+
+        BulkOperations ops = mongoOperations.bulkOps(BulkMode.UNORDERED, VoucherSnapshot.class);
+        int pending = 0;
+        for (String userId : userIds) {
+            VoucherSnapshot snapshot = previous.get(userId);
+            if (snapshot != null && !snapshot.getThrough().isBefore(cutoff)) {
+                continue;
+            }
+            long balance = (snapshot != null ? snapshot.getBalance() : 0) + balances.getOrDefault(userId, 0L);
+            // Upserted, so a snapshot written concurrently collides instead of being overwritten
+            Criteria unchanged = Criteria.where("_id").is(userId).and("through");
+            unchanged = snapshot != null ? unchanged.is(snapshot.getThrough()) : unchanged.exists(false);
+            ops.upsert(new Query(unchanged), new Update().set("balance", balance).set("through", cutoff));
+            pending++;
+        }
+        if (pending == 0) {
+            return;
+        }
+        try {
+            ops.execute();
+        } catch (BulkOperationException e) {
+            if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void openOnStartup() {
+        try {
+            int opened = openExisting();
+            if (opened > 0) {
+                log.info("Opened voucher ledgers for {} existing users", opened);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to open voucher ledgers: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a ledger for every user created before the ledger existed, so their balance is counted.
+     * @return The number of ledgers opened.
+     */
+    public int openExisting() {
+        Query users = new Query();
+        users.fields().include("_id");
+        List<String> batch = new ArrayList<>();
+        int opened = 0;
+        try (Stream<User> stream = mongoOperations.stream(users, User.class)) {
+            for (User user : (Iterable<User>) stream::iterator) {
+                batch.add(user.getUserId());
+                if (batch.size() == BATCH_SIZE) {
+                    opened += openExisting(batch);
+                    batch.clear();
+                }
+            }
+        }
+        return opened + openExisting(batch);
+    }
+
+    private int openExisting(List<String> userIds) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        Set<String> open = new HashSet<>();
+        Query openings = new Query(Criteria.where("_id").in(userIds.stream().map(id -> OPENING_PREFIX + id).toList()));
+        openings.fields().include("userId");
+        mongoOperations.find(openings, VoucherEntry.class).forEach(entry -> open.add(entry.getUserId()));
+
+        int opened = 0;
+        for (String userId : userIds) {
+            if (open.contains(userId)) {
+                continue;
+            }
+            // Ordered with the user's balance commands; entries already written since deployment are netted out
+            userCommandService.run(userId, () -> {
+                User user = mongoOperations.findById(userId, User.class);
+                if (user != null) {
+                    long recorded = getBalance(userId).getBalance();
+                    record(List.of(new VoucherEntry(OPENING_PREFIX + userId, userId, VoucherEntryType.OPENING,
+                        toCents(user.getVoucherBal()) - recorded, null)));
+                }
+                return user;
+            });
+            opened++;
+        }
+        return opened;
+    }
+}
@@ -0,0 +1,71 @@
+package h4g.emart.utils;
+
+import h4g.emart.exceptions.InvalidCursorException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Shared handling of keyset pagination parameters for list endpoints.
+ * Lists are ordered by ID; the cursor is an opaque token for the last ID of the previous page.
+ * The body stays a plain JSON array and the cursor for the next page is sent in the
+ * X-Next-Cursor header, which is absent on the last page.
+ */
+@Component
+public class Pagination {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    @Value("${pagination.default-limit:500}")
+    private int defaultLimit;
+
+    @Value("${pagination.max-limit:1000}")
+    private int maxLimit;
+
+    /**
+     * Resolves the requested page size, falling back to the default and capping at the maximum.
+     */
+    public int limit(Integer requested) {
+        if (requested == null || requested <= 0) {
+            return defaultLimit;
+        }
+        return Math.min(requested, maxLimit);
+    }
+
+    /**
+     * Decodes a cursor into the ID it points after.
+     * @return The ID, or an empty string for the first page.
+     */
+    public String after(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return "";
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    public String cursor(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Builds the response for one page, adding the next cursor if the page is full.
+     */
+    public <T> ResponseEntity<List<T>> respond(List<T> page, int limit, Function<T, String> idOf) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK);
+        if (page.size() == limit) {
+            response.header(NEXT_CURSOR_HEADER, cursor(idOf.apply(page.get(page.size() - 1))));
+        }
+        return response.body(page);
+    }
+}
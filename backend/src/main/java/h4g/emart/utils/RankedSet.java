@@ -0,0 +1,164 @@
+package h4g.emart.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A sorted set that also knows each element's position, backed by a treap whose nodes
+ * count the elements below them. Adding, removing and finding an element's rank take
+ * O(log n) expected time, and the first k elements are read in O(log n + k).
+ * Not thread-safe; callers synchronize.
+ */
+public class RankedSet<T> {
+
+    private final Comparator<? super T> comparator;
+    private Node<T> root;
+
+    private static class Node<T> {
+        private final T value;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node<T> left;
+        private Node<T> right;
+        private int size = 1;
+
+        private Node(T value) {
+            this.value = value;
+        }
+    }
+
+    public RankedSet(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Adds an element if no equal element is present.
+     * @return False if an equal element was already present.
+     */
+    public boolean add(T value) {
+        if (rank(value) >= 0) {
+            return false;
+        }
+        Node<T>[] parts = split(root, value);
+        root = merge(merge(parts[0], new Node<>(value)), parts[1]);
+        return true;
+    }
+
+    /**
+     * Removes an element.
+     * @return False if it was not present.
+     */
+    public boolean remove(T value) {
+        if (rank(value) < 0) {
+            return false;
+        }
+        root = remove(root, value);
+        return true;
+    }
+
+    /**
+     * Finds the position of an element in sort order.
+     * @return The zero-based rank, or -1 if the element is not present.
+     */
+    public int rank(T value) {
+        int before = 0;
+        Node<T> node = root;
+        while (node != null) {
+            int order = comparator.compare(value, node.value);
+            if (order == 0) {
+                return before + size(node.left);
+            }
+            if (order < 0) {
+                node = node.left;
+            } else {
+                before += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first elements in sort order.
+     * @param limit The maximum number of elements to return.
+     */
+    public List<T> first(int limit) {
+        List<T> values = new ArrayList<>(Math.min(limit, size()));
+        collect(root, limit, values);
+        return values;
+    }
+
+    private void collect(Node<T> node, int limit, List<T> values) {
+        if (node == null || values.size() >= limit) {
+            return;
+        }
+        collect(node.left, limit, values);
+        if (values.size() < limit) {
+            values.add(node.value);
+            collect(node.right, limit, values);
+        }
+    }
+
+    // Splits into the elements before value and the elements at or after it
+    @SuppressWarnings("unchecked")
+    private Node<T>[] split(Node<T> node, T value) {
+        if (node == null) {
+            return new Node[] {null, null};
+        }
+        if (comparator.compare(node.value, value) < 0) {
+            Node<T>[] parts = split(node.right, value);
+            node.right = parts[0];
+            update(node);
+            return new Node[] {node, parts[1]};
+        }
+        Node<T>[] parts = split(node.left, value);
+        node.left = parts[1];
+        update(node);
+        return new Node[] {parts[0], node};
+    }
+
+    // Joins two treaps where every element of the first sorts before every element of the second
+    private Node<T> merge(Node<T> first, Node<T> second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            update(first);
+            return first;
+        }
+        second.left = merge(first, second.left);
+        update(second);
+        return second;
+    }
+
+    private Node<T> remove(Node<T> node, T value) {
+        int order = comparator.compare(value, node.value);
+        if (order == 0) {
+            return merge(node.left, node.right);
+        }
+        if (order < 0) {
+            node.left = remove(node.left, value);
+        } else {
+            node.right = remove(node.right, value);
+        }
+        update(node);
+        return node;
+    }
+
+    private static <T> void update(Node<T> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static <T> int size(Node<T> node) {
+        return node == null ? 0 : node.size;
+    }
+}
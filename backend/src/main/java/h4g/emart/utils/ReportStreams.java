@@ -0,0 +1,115 @@
+package h4g.emart.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes report rows to the response as they are read from a Mongo cursor,
+ * so memory use does not grow with the size of the report.
+ * Supported formats are NDJSON (one JSON document per line) and CSV.
+ */
+@Component
+public class ReportStreams {
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    public static final MediaType CSV = MediaType.parseMediaType("text/csv");
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Builds a streaming response for a report.
+     * @param name The base file name of the download.
+     * @param format Either "ndjson" or "csv".
+     * @param rows Opens the cursor; called once the response starts streaming and closed afterwards.
+     * @return The streaming response, or HTTP status 400 (Bad Request) if the format is not supported.
+     */
+    public <T> ResponseEntity<StreamingResponseBody> respond(String name, String format, Supplier<Stream<T>> rows) {
+        boolean csv = "csv".equalsIgnoreCase(format);
+        if (!csv && !"ndjson".equalsIgnoreCase(format)) {
+            return ResponseEntity.badRequest().build();
+        }
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            try (Stream<T> stream = rows.get()) {
+                if (csv) {
+                    writeCsv(stream.iterator(), writer);
+                } else {
+                    writeNdjson(stream.iterator(), writer);
+                }
+            }
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+            .contentType(csv ? CSV : NDJSON)
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + name + (csv ? ".csv" : ".ndjson") + "\"")
+            .body(body);
+    }
+
+    private <T> void writeNdjson(Iterator<T> rows, Writer writer) throws java.io.IOException {
+        while (rows.hasNext()) {
+            writer.write(objectMapper.writeValueAsString(rows.next()));
+            writer.write('\n');
+        }
+    }
+
+    // Columns are taken from the first row; nested values are written as JSON text
+    private <T> void writeCsv(Iterator<T> rows, Writer writer) throws java.io.IOException {
+        List<String> columns = null;
+        while (rows.hasNext()) {
+            JsonNode row = objectMapper.valueToTree(rows.next());
+            if (columns == null) {
+                columns = new ArrayList<>();
+                row.fieldNames().forEachRemaining(columns::add);
+                writeCsvLine(columns, writer);
+            }
+            List<String> values = new ArrayList<>(columns.size());
+            for (String column : columns) {
+                JsonNode value = row.get(column);
+                if (value == null || value.isNull()) {
+                    values.add("");
+                } else if (value.isContainerNode()) {
+                    values.add(objectMapper.writeValueAsString(value));
+                } else {
+                    values.add(value.asText());
+                }
+            }
+            writeCsvLine(values, writer);
+        }
+    }
+
+    private static void writeCsvLine(List<String> values, Writer writer) throws java.io.IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = values.get(i);
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+}
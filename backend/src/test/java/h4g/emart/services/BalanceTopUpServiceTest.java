@@ -0,0 +1,158 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Role;
+import h4g.emart.models.TopUpJob;
+import h4g.emart.models.User;
+import h4g.emart.models.UserStatus;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BalanceTopUpServiceTest {
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private SequenceGeneratorService sequenceGeneratorService;
+
+    @Mock
+    private VoucherLedgerService voucherLedgerService;
+
+    @Mock
+    private LeaderboardService leaderboardService;
+
+    @Mock
+    private BulkOperations ops;
+
+    @InjectMocks
+    private BalanceTopUpService balanceTopUpService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(balanceTopUpService, "chunkSize", 2);
+        ReflectionTestUtils.setField(balanceTopUpService, "leaseMs", 60000L);
+        balanceTopUpService.start();
+
+        // Abandoned by another node after crediting u1
+        TopUpJob job = new TopUpJob("J-1", Role.RESIDENT, UserStatus.ACTIVE, 10, 3, "gone");
+        ReflectionTestUtils.setField(job, "lastUserId", "u1");
+        when(mongoOperations.find(any(Query.class), eq(TopUpJob.class))).thenReturn(List.of(job));
+        when(mongoOperations.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+            eq(TopUpJob.class))).thenReturn(job);
+
+        List<User> chunk = List.of(user("u2"), user("u3"));
+        when(mongoOperations.find(any(Query.class), eq(User.class))).thenReturn(chunk).thenReturn(chunk).thenReturn(List.of());
+        when(mongoOperations.bulkOps(BulkMode.UNORDERED, User.class)).thenReturn(ops);
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getModifiedCount()).thenReturn(2);
+        when(ops.execute()).thenReturn(result);
+    }
+
+    @Test
+    void resumeContinuesAfterLastUserAndCompletes() throws InterruptedException {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(TopUpJob.class)))
+            .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        balanceTopUpService.resumeAbandoned();
+        awaitJobs();
+
+        ArgumentCaptor<Query> reads = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations, times(3)).find(reads.capture(), eq(User.class));
+        assertEquals(new Document("$gt", "u1"), reads.getAllValues().get(0).getQueryObject().get("_id"));
+        assertEquals(new Document("$gt", "u3"), reads.getAllValues().get(2).getQueryObject().get("_id"));
+
+        ArgumentCaptor<Query> guards = ArgumentCaptor.forClass(Query.class);
+        verify(ops, times(2)).updateOne(guards.capture(), any(Update.class));
+        assertEquals(new Document("$ne", "J-1"), guards.getValue().getQueryObject().get(User.PAYOUT_RUNS));
+
+        ArgumentCaptor<UpdateDefinition> updates = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoOperations, times(2)).updateFirst(any(Query.class), updates.capture(), eq(TopUpJob.class));
+        assertEquals(new Document("$literal", "u3"), setOf(updates.getAllValues().get(0)).get("lastUserId"));
+        assertEquals(true, setOf(updates.getAllValues().get(1)).get("completed"));
+    }
+
+    @Test
+    void resumeStopsOnceAnotherNodeOwnsTheJob() throws InterruptedException {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(TopUpJob.class)))
+            .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        balanceTopUpService.resumeAbandoned();
+        awaitJobs();
+
+        // The chunk and its credited users are read, but not the next chunk
+        verify(mongoOperations, times(2)).find(any(Query.class), eq(User.class));
+        ArgumentCaptor<UpdateDefinition> updates = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoOperations).updateFirst(any(Query.class), updates.capture(), eq(TopUpJob.class));
+        assertTrue(setOf(updates.getValue()).containsKey("lastUserId"));
+        assertFalse(setOf(updates.getValue()).containsKey("completed"));
+    }
+
+    @Test
+    void leasesAreSetAndComparedOnTheDatabaseClock() throws InterruptedException {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(TopUpJob.class)))
+            .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        balanceTopUpService.resumeAbandoned();
+        awaitJobs();
+
+        Document expired = new Document("$expr", new Document("$lt", List.of("$leaseExpiresAt", "$$NOW")));
+        ArgumentCaptor<Query> claim = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> lease = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoOperations).findAndModify(claim.capture(), lease.capture(), any(FindAndModifyOptions.class),
+            eq(TopUpJob.class));
+        assertTrue(claim.getValue().getQueryObject().getList("$or", Document.class).contains(expired));
+        assertEquals(new Document("$add", List.of("$$NOW", 60000L)), setOf(lease.getValue()).get("leaseExpiresAt"));
+    }
+
+    private void awaitJobs() throws InterruptedException {
+        ExecutorService runner = (ExecutorService) ReflectionTestUtils.getField(balanceTopUpService, "runner");
+        runner.shutdown();
+        assertTrue(runner.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private static Document setOf(UpdateDefinition update) {
+        if (update instanceof AggregationUpdate pipeline) {
+            return (Document) pipeline.toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$set");
+        }
+        return (Document) update.getUpdateObject().get("$set");
+    }
+
+    private static User user(String userId) {
+        return new User(userId, userId, Role.RESIDENT, 0);
+    }
+}
@@ -0,0 +1,97 @@
+package h4g.emart.services;
+
+import h4g.emart.models.CatalogWatermark;
+import h4g.emart.models.Sequence;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogVersionServiceTest {
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @InjectMocks
+    private CatalogVersionService catalogVersionService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(catalogVersionService, "blockSize", 100);
+        ReflectionTestUtils.setField(catalogVersionService, "leaseMs", 30000L);
+    }
+
+    @Test
+    void committedIsBelowEveryLiveWatermark() {
+        when(mongoOperations.findById("CatalogVersion", Sequence.class)).thenReturn(sequence(300));
+        when(mongoOperations.find(any(Query.class), eq(CatalogWatermark.class)))
+            .thenReturn(List.of(watermark(180), watermark(Long.MAX_VALUE)));
+
+        assertEquals(180, catalogVersionService.committed());
+    }
+
+    @Test
+    void committedIsTheCounterWhenNoNodeIsWriting() {
+        when(mongoOperations.findById("CatalogVersion", Sequence.class)).thenReturn(sequence(300));
+        when(mongoOperations.find(any(Query.class), eq(CatalogWatermark.class)))
+            .thenReturn(List.of(watermark(Long.MAX_VALUE)));
+
+        assertEquals(300, catalogVersionService.committed());
+    }
+
+    @Test
+    void heartbeatHoldsWatermarkBelowWritesInFlight() {
+        // Another node has reserved up to 200, so this node's block is 201 to 300
+        when(mongoOperations.findById("CatalogVersion", Sequence.class)).thenReturn(sequence(200));
+        when(mongoOperations.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+            eq(Sequence.class))).thenReturn(sequence(300));
+
+        assertEquals(201L, catalogVersionService.<Long>write(version -> version));
+        assertEquals(202L, catalogVersionService.<Long>write(version -> {
+            catalogVersionService.heartbeat();
+            return version;
+        }));
+        catalogVersionService.heartbeat();
+
+        ArgumentCaptor<UpdateDefinition> published = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoOperations, times(3))
+            .upsert(any(Query.class), published.capture(), eq(CatalogWatermark.class));
+        List<Object> lows = published.getAllValues().stream()
+            .map(update -> ((Document) update.getUpdateObject().get("$set")).get("low"))
+            .toList();
+        assertEquals(List.of(200L, 201L, Long.MAX_VALUE), lows);
+    }
+
+    private static Sequence sequence(long seq) {
+        Sequence sequence = new Sequence();
+        ReflectionTestUtils.setField(sequence, "seqId", "CatalogVersion");
+        ReflectionTestUtils.setField(sequence, "seq", seq);
+        return sequence;
+    }
+
+    private static CatalogWatermark watermark(long low) {
+        CatalogWatermark watermark = new CatalogWatermark();
+        ReflectionTestUtils.setField(watermark, "low", low);
+        return watermark;
+    }
+}
@@ -0,0 +1,163 @@
+package h4g.emart.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import h4g.emart.exceptions.DuplicateRequestException;
+import h4g.emart.models.IdempotencyRecord;
+import h4g.emart.models.IdempotencyStatus;
+import h4g.emart.repositories.IdempotencyRecordRepository;
+
+import com.mongodb.client.result.UpdateResult;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyServiceTest {
+
+    @Mock
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks
+    private IdempotencyService idempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(idempotencyService, "cacheMaxSize", 100);
+        ReflectionTestUtils.setField(idempotencyService, "cacheTtlMinutes", 60L);
+        ReflectionTestUtils.setField(idempotencyService, "leaseSeconds", 60L);
+        idempotencyService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        idempotencyService.stop();
+    }
+
+    @Test
+    void failedActionReleasesOnlyItsOwnClaim() {
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute("purchase", "k1", List.of("u1"),
+            String.class, () -> {
+                throw new IllegalStateException("purchase failed");
+            }));
+
+        ArgumentCaptor<Query> claimed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).upsert(claimed.capture(), any(UpdateDefinition.class), eq(IdempotencyRecord.class));
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).remove(removed.capture(), eq(IdempotencyRecord.class));
+        assertEquals(claimed.getValue().getQueryObject(), removed.getValue().getQueryObject());
+        verify(idempotencyRecordRepository, never()).deleteById(any());
+    }
+
+    @Test
+    void errorInTheActionStopsRenewingTheClaim() throws InterruptedException {
+        ReflectionTestUtils.setField(idempotencyService, "leaseSeconds", 1L);
+
+        assertThrows(StackOverflowError.class, () -> idempotencyService.execute("purchase", "k1", List.of("u1"),
+            String.class, () -> {
+                throw new StackOverflowError();
+            }));
+        Thread.sleep(500);
+
+        verify(mongoOperations).remove(any(Query.class), eq(IdempotencyRecord.class));
+        verify(mongoOperations, never()).updateFirst(any(Query.class), any(UpdateDefinition.class),
+            eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void responseThatCannotBeStoredClosesTheClaim() throws JsonProcessingException {
+        doThrow(new JsonMappingException(null, "unserializable")).when(objectMapper).writeValueAsString("done");
+
+        assertThrows(IllegalStateException.class, () ->
+            idempotencyService.execute("purchase", "k1", List.of("u1"), String.class, () -> "done"));
+
+        // The purchase ran, so the claim is not released for a retry to run it again
+        verify(mongoOperations, never()).remove(any(Query.class), eq(IdempotencyRecord.class));
+        verify(mongoOperations).updateFirst(any(Query.class),
+            argThat(update -> IdempotencyStatus.FAILED.equals(update.getUpdateObject().get("$set", Document.class).get("status"))),
+            eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void attemptWhoseClaimWasTakenOverDoesNotOverwriteIt() {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+            .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertEquals("done", idempotencyService.execute("purchase", "k1", List.of("u1"), String.class, () -> "done"));
+
+        ArgumentCaptor<Query> claimed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).upsert(claimed.capture(), any(UpdateDefinition.class), eq(IdempotencyRecord.class));
+        verify(mongoOperations).updateFirst(
+            argThat(query -> claimed.getValue().getQueryObject().get("claimToken").equals(query.getQueryObject().get("claimToken"))),
+            any(UpdateDefinition.class), eq(IdempotencyRecord.class));
+        verify(idempotencyRecordRepository, never()).save(any());
+
+        // Not cached, so a retry reads the record the new owner completes
+        when(mongoOperations.upsert(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+            .thenThrow(new DuplicateKeyException("purchase:k1"));
+        when(idempotencyRecordRepository.findById("purchase:k1")).thenReturn(Optional.of(new IdempotencyRecord()));
+        assertThrows(DuplicateRequestException.class, () ->
+            idempotencyService.execute("purchase", "k1", List.of("u1"), String.class, () -> "again"));
+    }
+
+    @Test
+    void leaseIsRenewedWhileTheActionRuns() {
+        ReflectionTestUtils.setField(idempotencyService, "leaseSeconds", 1L);
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(IdempotencyRecord.class)))
+            .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        idempotencyService.execute("purchase", "k1", List.of("u1"), String.class, () -> {
+            try {
+                Thread.sleep(800);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+
+        // Renewed on the database clock rather than with a time from this node
+        verify(mongoOperations, atLeastOnce()).updateFirst(any(Query.class),
+            argThat(update -> update.getUpdateObject().get("$currentDate", Document.class) != null
+                && update.getUpdateObject().get("$currentDate", Document.class).containsKey("leasedAt")),
+            eq(IdempotencyRecord.class));
+        verify(mongoOperations).updateFirst(any(Query.class),
+            argThat(update -> update.getUpdateObject().get("$set", Document.class) != null
+                && IdempotencyStatus.COMPLETED.equals(update.getUpdateObject().get("$set", Document.class).get("status"))),
+            eq(IdempotencyRecord.class));
+    }
+}
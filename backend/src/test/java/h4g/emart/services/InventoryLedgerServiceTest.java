@@ -0,0 +1,155 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Product;
+import h4g.emart.models.StockLease;
+import h4g.emart.models.Transaction;
+
+import com.mongodb.client.result.DeleteResult;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class InventoryLedgerServiceTest {
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private CatalogVersionService catalogVersionService;
+
+    @InjectMocks
+    private InventoryLedgerService inventoryLedgerService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(inventoryLedgerService, "leaseSize", 10L);
+        ReflectionTestUtils.setField(inventoryLedgerService, "leaseTimeoutMs", 60000L);
+        lenient().when(catalogVersionService.write(any())).thenAnswer(invocation ->
+            ((LongFunction<?>) invocation.getArgument(0)).apply(1));
+        lenient().when(mongoOperations.findById(any(), eq(Product.class)))
+            .thenAnswer(invocation -> product(invocation.getArgument(0)));
+        lenient().when(mongoOperations.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(Product.class)))
+            .thenAnswer(invocation -> product((String) invocation.<Query>getArgument(0).getQueryObject().get("_id")));
+    }
+
+    @Test
+    void refillOfOneProductDoesNotWaitForAnother() throws Exception {
+        inventoryLedgerService.setHot("slow", true);
+        inventoryLedgerService.setHot("fast", true);
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        when(mongoOperations.findById("slow", Product.class)).thenAnswer(invocation -> {
+            stalled.countDown();
+            resume.await();
+            return product("slow");
+        });
+
+        CompletableFuture<InventoryLedgerService.Reservation> slow =
+            CompletableFuture.supplyAsync(() -> inventoryLedgerService.reserve("slow", 1));
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        // Leased while the other product's lease is still being taken
+        CompletableFuture<InventoryLedgerService.Reservation> fast =
+            CompletableFuture.supplyAsync(() -> inventoryLedgerService.reserve("fast", 1));
+        assertEquals("fast", fast.get(5, TimeUnit.SECONDS).getProduct().getProductId());
+        assertFalse(slow.isDone());
+
+        resume.countDown();
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS).getProduct().getProductId());
+    }
+
+    @Test
+    void leaseIsNotSoldFromPastHalfItsTimeout() {
+        ReflectionTestUtils.setField(inventoryLedgerService, "leaseTimeoutMs", 0L);
+        inventoryLedgerService.setHot("p1", true);
+        when(mongoOperations.remove(any(Query.class), eq(StockLease.class))).thenReturn(DeleteResult.acknowledged(1));
+
+        String first = inventoryLedgerService.reserve("p1", 1).getLeaseId();
+        String second = inventoryLedgerService.reserve("p1", 1).getLeaseId();
+
+        // The first lease had already expired for selling, so it was retired and a new one taken
+        assertFalse(first.equals(second));
+        verify(mongoOperations, times(2)).findAndModify(any(Query.class), any(UpdateDefinition.class),
+            any(FindAndModifyOptions.class), eq(Product.class));
+        verify(mongoOperations).remove(argThat(query -> first.equals(query.getQueryObject().get("_id"))),
+            eq(StockLease.class));
+    }
+
+    @Test
+    void flushOfAReclaimedLeaseReturnsNoStock() {
+        inventoryLedgerService.setHot("p1", true);
+        inventoryLedgerService.reserve("p1", 1);
+        when(mongoOperations.remove(any(Query.class), eq(StockLease.class))).thenReturn(DeleteResult.acknowledged(0));
+
+        inventoryLedgerService.flush("p1");
+
+        verify(mongoOperations, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Product.class));
+    }
+
+    @Test
+    void reclaimUsesTheDatabaseClockAndReturnsStockOnce() {
+        StockLease abandoned = new StockLease();
+        ReflectionTestUtils.setField(abandoned, "leaseId", "L-1");
+        ReflectionTestUtils.setField(abandoned, "productId", "p1");
+        ReflectionTestUtils.setField(abandoned, "quantity", 10L);
+        StockLease taken = new StockLease();
+        ReflectionTestUtils.setField(taken, "leaseId", "L-2");
+        ReflectionTestUtils.setField(taken, "productId", "p1");
+        ReflectionTestUtils.setField(taken, "quantity", 10L);
+        when(mongoOperations.find(any(Query.class), eq(StockLease.class))).thenReturn(List.of(abandoned, taken));
+        when(mongoOperations.aggregate(any(Aggregation.class), eq(Transaction.class), eq(Document.class)))
+            .thenReturn(new AggregationResults<>(List.of(new Document("sold", 4)), new Document()));
+        // Another node reclaims L-2 first
+        when(mongoOperations.remove(any(Query.class), eq(StockLease.class)))
+            .thenReturn(DeleteResult.acknowledged(1), DeleteResult.acknowledged(0));
+
+        inventoryLedgerService.reclaimExpiredLeases();
+
+        ArgumentCaptor<Query> expired = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).find(expired.capture(), eq(StockLease.class));
+        assertTrue(expired.getValue().getQueryObject().toJson().contains("$$NOW"));
+        ArgumentCaptor<UpdateDefinition> returned = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoOperations).updateFirst(any(Query.class), returned.capture(), eq(Product.class));
+        assertEquals(6L, ((Document) returned.getValue().getUpdateObject().get("$inc")).get("quantity"));
+    }
+
+    private static Product product(String productId) {
+        Product product = new Product();
+        product.setProductId(productId);
+        product.setQuantity(100);
+        return product;
+    }
+}
@@ -0,0 +1,95 @@
+package h4g.emart.services;
+
+import h4g.emart.exceptions.PreorderAllocatedException;
+import h4g.emart.models.Preorder;
+import h4g.emart.models.PreorderStatus;
+import h4g.emart.repositories.PreorderRepository;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PreorderServiceTest {
+
+    @Mock
+    private PreorderRepository preorderRepository;
+
+    @Mock
+    private PreorderDemandService preorderDemandService;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @InjectMocks
+    private PreorderService preorderService;
+
+    @Test
+    void updateDoesNotUndoAnAllocationThatLandedAfterTheRead() {
+        Preorder stored = new Preorder("P-1", "u1", "p1", 2, 4.0, LocalDateTime.now(), PreorderStatus.PENDING);
+        when(preorderRepository.findById("P-1")).thenReturn(Optional.of(stored));
+        when(preorderRepository.existsById("P-1")).thenReturn(true);
+        // Applies the update only if the stored preorder still matches the guard
+        when(mongoOperations.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+            eq(Preorder.class))).thenAnswer(invocation -> {
+                Document guard = invocation.getArgument(0, Query.class).getQueryObject();
+                boolean pending = guard.get("status") == stored.getStatus();
+                boolean unallocated = guard.get("allocationId", Document.class).equals(new Document("$exists", false))
+                    && stored.getAllocationId() == null;
+                if (!pending || !unallocated) {
+                    return null;
+                }
+                Document set = (Document) invocation.getArgument(1, UpdateDefinition.class).getUpdateObject().get("$set");
+                stored.setQtyPreordered(set.getInteger("qtyPreordered"));
+                return stored;
+            });
+
+        // The resident reads the pending preorder, then a restock allocates and charges it
+        Preorder read = preorderService.getPreorderById("P-1");
+        stored.setStatus(PreorderStatus.FULFILLED);
+        stored.setAllocationId("A-1");
+
+        Preorder edit = new Preorder(read.getPreorderId(), read.getUserId(), read.getProductId(), 5, 10.0,
+            read.getDatetime(), read.getStatus());
+        assertThrows(PreorderAllocatedException.class, () -> preorderService.updatePreorder("P-1", edit));
+
+        assertEquals(PreorderStatus.FULFILLED, stored.getStatus());
+        assertEquals("A-1", stored.getAllocationId());
+        assertEquals(2, stored.getQtyPreordered());
+        verify(preorderRepository, never()).save(any(Preorder.class));
+        verify(preorderDemandService, never()).invalidate();
+    }
+
+    @Test
+    void updateSetsOnlyTheEditedFields() {
+        Preorder edit = new Preorder("P-1", "u1", "p1", 5, 10.0, LocalDateTime.now(), PreorderStatus.PENDING);
+        when(mongoOperations.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+            eq(Preorder.class))).thenAnswer(invocation -> {
+                Document set = (Document) invocation.getArgument(1, UpdateDefinition.class).getUpdateObject().get("$set");
+                assertEquals(Set.of("qtyPreordered", "totalPrice", "datetime"), set.keySet());
+                return edit;
+            });
+
+        assertEquals(edit, preorderService.updatePreorder("P-1", edit));
+        verify(preorderDemandService).invalidate();
+    }
+}
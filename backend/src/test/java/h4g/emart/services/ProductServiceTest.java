@@ -0,0 +1,316 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Product;
+import h4g.emart.models.ProductSort;
+import h4g.emart.repositories.ProductRepository;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.TransactionBody;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductServiceTest {
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private InventoryLedgerService inventoryLedgerService;
+
+    @Mock
+    private PreorderAllocationService preorderAllocationService;
+
+    @Mock
+    private CatalogVersionService catalogVersionService;
+
+    @Mock
+    private ProductLogService productLogService;
+
+    @Mock
+    private ProductSearchService productSearchService;
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private MongoDatabaseFactory mongoDatabaseFactory;
+
+    @Mock
+    private ClientSession session;
+
+    @InjectMocks
+    private ProductService productService;
+
+    // The product collection, applied to by the mocked writes below
+    private final Map<String, Document> products = new LinkedHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        GuardedUpdateService guardedUpdateService = new GuardedUpdateService();
+        ReflectionTestUtils.setField(guardedUpdateService, "mongoOperations", mongoOperations);
+        ReflectionTestUtils.setField(guardedUpdateService, "mongoDatabaseFactory", mongoDatabaseFactory);
+        ReflectionTestUtils.setField(productService, "guardedUpdateService", guardedUpdateService);
+        ReflectionTestUtils.setField(productService, "cacheMaxSize", 100);
+        ReflectionTestUtils.setField(productService, "cacheTtlMs", 5000L);
+        ReflectionTestUtils.setField(productService, "priceBuckets", new double[] {0, 10});
+        ReflectionTestUtils.setField(productService, "maxOffset", 1000L);
+        productService.initCache();
+
+        lenient().when(catalogVersionService.write(any())).thenAnswer(invocation ->
+            ((LongFunction<?>) invocation.getArgument(0)).apply(7));
+        lenient().when(mongoDatabaseFactory.getSession(any(ClientSessionOptions.class))).thenReturn(session);
+        lenient().when(mongoOperations.withSession(session)).thenReturn(mongoOperations);
+        // A transaction whose body throws leaves the collection as it was
+        lenient().when(session.withTransaction(any())).thenAnswer(invocation -> {
+            Map<String, Document> before = new LinkedHashMap<>();
+            products.forEach((id, product) -> before.put(id, new Document(product)));
+            try {
+                return invocation.<TransactionBody<?>>getArgument(0).execute();
+            } catch (RuntimeException e) {
+                products.putAll(before);
+                throw e;
+            }
+        });
+        lenient().when(mongoOperations.bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class)))
+            .thenAnswer(invocation -> bulk());
+        lenient().when(mongoOperations.findAndModify(any(Query.class), any(UpdateDefinition.class), eq(Product.class)))
+            .thenAnswer(invocation -> {
+                Document product = products.get(invocation.<Query>getArgument(0).getQueryObject().get("_id"));
+                if (product == null) {
+                    return null;
+                }
+                Product previous = toProduct(product);
+                apply(product, invocation.<UpdateDefinition>getArgument(1).getUpdateObject());
+                return previous;
+            });
+        lenient().when(mongoOperations.findById(any(), eq(Product.class))).thenAnswer(invocation -> {
+            Document product = products.get(invocation.<String>getArgument(0));
+            return product == null ? null : toProduct(product);
+        });
+    }
+
+    @Test
+    void failedBulkDeductionLeavesNoStockTaken() {
+        products.put("p1", new Document("_id", "p1").append("quantity", 5L).append("sold", 4L));
+        products.put("p2", new Document("_id", "p2").append("quantity", 0L).append("sold", 0L));
+
+        Map<String, Long> quantities = new LinkedHashMap<>();
+        quantities.put("p1", 2L);
+        quantities.put("p2", 3L);
+        assertFalse(productService.deductStock(quantities));
+
+        // p1 matched and p2 did not, so the transaction was aborted; nothing is written to undo it
+        assertEquals(5L, products.get("p1").get("quantity"));
+        assertEquals(4L, products.get("p1").get("sold"));
+        assertEquals(0L, products.get("p2").get("quantity"));
+        verify(productRepository, never()).save(any());
+    }
+
+    @Test
+    void bulkDeductionCommitsWhenEveryProductHasStock() {
+        products.put("p1", new Document("_id", "p1").append("quantity", 5L).append("sold", 4L));
+        products.put("p2", new Document("_id", "p2").append("quantity", 3L).append("sold", 0L));
+        when(productRepository.findAllById(any())).thenReturn(List.of());
+
+        Map<String, Long> quantities = new LinkedHashMap<>();
+        quantities.put("p1", 2L);
+        quantities.put("p2", 3L);
+        assertTrue(productService.deductStock(quantities));
+
+        assertEquals(3L, products.get("p1").get("quantity"));
+        assertEquals(6L, products.get("p1").get("sold"));
+        assertEquals(0L, products.get("p2").get("quantity"));
+        assertEquals(3L, products.get("p2").get("sold"));
+    }
+
+    @Test
+    void updateProductSetsOnlyEditedFields() {
+        products.put("p1", new Document("_id", "p1").append("name", "Rice").append("quantity", 5L).append("sold", 4L));
+        Product edited = new Product("p1", "Brown rice", "Food", "5kg", 12.5, 8, "rice.png");
+
+        Product product = productService.updateProduct("p1", edited, "admin");
+
+        Document p1 = products.get("p1");
+        assertEquals("Brown rice", p1.get("name"));
+        assertEquals(8L, p1.get("quantity"));
+        assertEquals(4L, p1.get("sold"));
+        assertEquals(7L, product.getVersion());
+        verify(productLogService).createProductLog(eq("admin"), eq("p1"), eq("UPDATE"), any());
+        verify(productRepository, never()).save(any());
+    }
+
+    @Test
+    void updateProductQuantityKeepsStockLeasedAfterTheRead() {
+        products.put("p1", new Document("_id", "p1").append("quantity", 5L).append("sold", 4L));
+
+        // A lease refill takes 3 units between the read and the write
+        when(mongoOperations.findById("p1", Product.class)).thenAnswer(invocation -> {
+            Product read = toProduct(products.get("p1"));
+            products.get("p1").put("quantity", 2L);
+            return read;
+        });
+
+        Product product = productService.updateProductQuantity("p1", 10, "admin");
+
+        // Raised by 5 rather than set to 10, so the 3 leased units returned later are not counted twice
+        assertEquals(7L, products.get("p1").get("quantity"));
+        assertEquals(7L, product.getQuantity());
+        verify(inventoryLedgerService).flush("p1");
+    }
+
+    @Test
+    void catalogVersionIsAnsweredWithoutLoadingTheCatalog() {
+        when(catalogVersionService.committed()).thenReturn(41L, 42L);
+
+        assertEquals(41L, productService.getCatalogVersion());
+        assertEquals(41L, productService.getCatalogVersion());
+        productService.invalidateCache(null);
+        assertEquals(42L, productService.getCatalogVersion());
+
+        verify(catalogVersionService, times(2)).committed();
+        verify(productRepository, never()).findAll();
+    }
+
+    @Test
+    void eachFacetCountsWithoutItsOwnFilter() {
+        Document empty = new Document("products", List.of()).append("total", List.of())
+            .append("categories", List.of()).append("priceBuckets", List.of());
+        when(mongoOperations.aggregate(any(Aggregation.class), eq(Product.class), eq(Document.class)))
+            .thenReturn(new AggregationResults<>(List.of(empty), new Document()));
+
+        productService.queryProducts("Food", 5.0, null, true, ProductSort.PRICE, 2, 20);
+
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoOperations).aggregate(aggregation.capture(), eq(Product.class), eq(Document.class));
+        List<Document> pipeline = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertEquals(new Document("quantity", new Document("$gt", 0)), pipeline.get(0).get("$match"));
+        Document facets = (Document) pipeline.get(1).get("$facet");
+        Document category = new Document("category", "Food");
+        Document price = new Document("price", new Document("$gte", 5.0));
+        Document both = new Document(category).append("price", price.get("price"));
+        assertEquals(both, firstMatch(facets, "products"));
+        assertEquals(both, firstMatch(facets, "total"));
+        assertEquals(price, firstMatch(facets, "categories"));
+        assertEquals(category, firstMatch(facets, "priceBuckets"));
+        assertEquals(new Document("$skip", 40L), facets.getList("products", Document.class).get(2));
+    }
+
+    @Test
+    void pagesBeyondTheMaximumOffsetAreRefused() {
+        assertThrows(IllegalArgumentException.class, () ->
+            productService.queryProducts(null, null, null, false, ProductSort.NAME, 51, 20));
+        verify(mongoOperations, never()).aggregate(any(Aggregation.class), eq(Product.class), eq(Document.class));
+    }
+
+    private static Object firstMatch(Document facets, String facet) {
+        return facets.getList(facet, Document.class).get(0).get("$match");
+    }
+
+    // A bulk write that applies each matching update to the collection when executed
+    private BulkOperations bulk() {
+        BulkOperations ops = mock(BulkOperations.class);
+        List<Object[]> updates = new ArrayList<>();
+        when(ops.updateOne(any(Query.class), any(Update.class))).thenAnswer(invocation -> {
+            updates.add(invocation.getArguments());
+            return ops;
+        });
+        when(ops.execute()).thenAnswer(invocation -> {
+            int matched = 0;
+            for (Object[] update : updates) {
+                for (Document product : matching((Query) update[0])) {
+                    apply(product, ((Update) update[1]).getUpdateObject());
+                    matched++;
+                }
+            }
+            BulkWriteResult result = mock(BulkWriteResult.class);
+            lenient().when(result.getMatchedCount()).thenReturn(matched);
+            return result;
+        });
+        return ops;
+    }
+
+    private List<Document> matching(Query query) {
+        List<Document> found = new ArrayList<>();
+        for (Document product : products.values()) {
+            if (matches(product, query.getQueryObject())) {
+                found.add(product);
+            }
+        }
+        return found;
+    }
+
+    private static boolean matches(Document product, Document criteria) {
+        for (Map.Entry<String, Object> criterion : criteria.entrySet()) {
+            Object value = product.get(criterion.getKey());
+            Object expected = criterion.getValue();
+            if (expected instanceof Document operator) {
+                if (operator.containsKey("$gte")
+                        && !(value != null && ((Number) value).doubleValue() >= ((Number) operator.get("$gte")).doubleValue())) {
+                    return false;
+                }
+            } else if (!expected.equals(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void apply(Document product, Document update) {
+        Document set = (Document) update.get("$set");
+        if (set != null) {
+            set.forEach((field, value) -> product.put(field, value instanceof Integer i ? (long) i : value));
+        }
+        Document inc = (Document) update.get("$inc");
+        if (inc != null) {
+            inc.forEach((field, amount) -> product.put(field,
+                ((Number) product.getOrDefault(field, 0L)).longValue() + ((Number) amount).longValue()));
+        }
+    }
+
+    private static Product toProduct(Document document) {
+        Product product = new Product();
+        product.setProductId(document.getString("_id"));
+        product.setName(document.getString("name"));
+        product.setQuantity(((Number) document.getOrDefault("quantity", 0L)).longValue());
+        product.setSold(((Number) document.getOrDefault("sold", 0L)).longValue());
+        return product;
+    }
+}
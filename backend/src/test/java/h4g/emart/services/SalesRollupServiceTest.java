@@ -0,0 +1,93 @@
+package h4g.emart.services;
+
+import h4g.emart.models.DailySalesRollup;
+import h4g.emart.models.JobLease;
+import h4g.emart.models.Product;
+import h4g.emart.models.Transaction;
+
+import com.mongodb.client.result.UpdateResult;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SalesRollupServiceTest {
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private ProductService productService;
+
+    @InjectMocks
+    private SalesRollupService salesRollupService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(salesRollupService, "rebuildLeaseMs", 3600000L);
+    }
+
+    @Test
+    void rebuildIsSkippedWhileAnotherNodeHoldsTheLease() {
+        when(mongoOperations.upsert(any(Query.class), any(UpdateDefinition.class), eq(JobLease.class)))
+            .thenThrow(new DuplicateKeyException("E11000"));
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(JobLease.class)))
+            .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertFalse(salesRollupService.rebuild());
+        verify(mongoOperations, never()).aggregate(any(Aggregation.class), eq(Transaction.class), eq(Document.class));
+    }
+
+    @Test
+    void rebuildMergesPastDaysAndKeepsRowsTouchedWhileItRuns() {
+        Date startedAt = new Date();
+        JobLease lease = new JobLease();
+        ReflectionTestUtils.setField(lease, "leasedAt", startedAt);
+        when(mongoOperations.findOne(any(Query.class), eq(JobLease.class))).thenReturn(lease);
+        when(mongoOperations.getCollectionName(DailySalesRollup.class)).thenReturn("DailySalesRollup");
+
+        assertTrue(salesRollupService.rebuild());
+
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoOperations).aggregate(aggregation.capture(), eq(Transaction.class), eq(Document.class));
+        List<Document> pipeline = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertTrue(pipeline.get(0).get("$match", Document.class).containsKey("datetime"));
+        Document merge = pipeline.get(pipeline.size() - 1).get("$merge", Document.class);
+        assertEquals("insert", merge.get("whenNotMatched"));
+        // The existing row wins once it has been touched at or after the lease was taken
+        Document replace = merge.getList("whenMatched", Document.class).get(0).get("$replaceWith", Document.class);
+        List<?> choice = replace.getList("$cond", Object.class);
+        assertEquals("$$ROOT", choice.get(1));
+        assertEquals("$$new", choice.get(2));
+        assertTrue(choice.get(0).toString().contains(startedAt.toString()));
+
+        // Released once done, and products with a count are never reset
+        verify(mongoOperations).remove(any(Query.class), eq(JobLease.class));
+        verify(mongoOperations).exists(any(Query.class), eq(Product.class));
+        verify(productService, never()).initUnitsSold(any());
+    }
+}
@@ -0,0 +1,112 @@
+package h4g.emart.services;
+
+import h4g.emart.models.Contributor;
+import h4g.emart.models.ContributorStatus;
+import h4g.emart.models.PayoutRun;
+import h4g.emart.models.Task;
+import h4g.emart.models.User;
+import h4g.emart.models.VoucherEntryType;
+import h4g.emart.repositories.TaskRepository;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TaskServiceTest {
+
+    @Mock
+    private TaskRepository taskRepository;
+
+    @Mock
+    private SequenceGeneratorService sequenceGeneratorService;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private LeaderboardService leaderboardService;
+
+    @Mock
+    private VoucherLedgerService voucherLedgerService;
+
+    @Mock
+    private BulkOperations ops;
+
+    @InjectMocks
+    private TaskService taskService;
+
+    private Task task;
+
+    @BeforeEach
+    void setUp() {
+        // A contributor claimed by run R-1 by an earlier call that failed before paying
+        task = new Task("Sweep hall", "Sweep the community hall", 50);
+        task.setTaskId("T-1");
+        Contributor contributor = new Contributor("T-1", "u1", "Alice");
+        contributor.setStatus(ContributorStatus.APPROVED);
+        ReflectionTestUtils.setField(contributor, "payoutRunId", "R-1");
+        task.getContributors().add(contributor);
+
+        when(taskRepository.findById("T-1")).thenReturn(Optional.of(task));
+        when(sequenceGeneratorService.generateId("PayoutRun")).thenReturn("R-2");
+        when(mongoOperations.bulkOps(BulkMode.UNORDERED, User.class)).thenReturn(ops);
+    }
+
+    @Test
+    void processTaskResumesUnfinishedRunWithoutPayingTwice() {
+        when(mongoOperations.findById("R-1", PayoutRun.class))
+            .thenReturn(new PayoutRun("R-1", "T-1", 50, List.of("u1")));
+
+        taskService.processTask("T-1");
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(ops).updateOne(query.capture(), update.capture());
+        assertEquals(new Document("_id", "u1").append(User.PAYOUT_RUNS, new Document("$ne", "R-1")),
+            query.getValue().getQueryObject());
+        assertEquals(new Document("voucherBal", 50.0), update.getValue().getUpdateObject().get("$inc"));
+
+        verify(voucherLedgerService).entry("V-R-1-u1", "u1", VoucherEntryType.TASK_PAYOUT, 50, "T-1");
+        verify(leaderboardService).reload(List.of("u1"));
+        verify(mongoOperations, never()).save(any(PayoutRun.class));
+        verify(mongoOperations).updateFirst(argThat(q -> "R-1".equals(q.getQueryObject().get("_id"))),
+            argThat(u -> new Document("completed", true).equals(u.getUpdateObject().get("$set"))),
+            eq(PayoutRun.class));
+    }
+
+    @Test
+    void processTaskRecordsMissingRunBeforePaying() {
+        when(mongoOperations.save(any(PayoutRun.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        taskService.processTask("T-1");
+
+        ArgumentCaptor<PayoutRun> run = ArgumentCaptor.forClass(PayoutRun.class);
+        verify(mongoOperations).save(run.capture());
+        assertEquals("R-1", run.getValue().getRunId());
+        assertEquals(List.of("u1"), run.getValue().getUserIds());
+        verify(voucherLedgerService).entry("V-R-1-u1", "u1", VoucherEntryType.TASK_PAYOUT, 50, "T-1");
+    }
+}
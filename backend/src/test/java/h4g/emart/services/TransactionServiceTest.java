@@ -0,0 +1,138 @@
+package h4g.emart.services;
+
+import h4g.emart.exceptions.InsufficientStockException;
+import h4g.emart.models.Product;
+import h4g.emart.models.Role;
+import h4g.emart.models.Transaction;
+import h4g.emart.models.User;
+import h4g.emart.repositories.TransactionRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionServiceTest {
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private ProductService productService;
+
+    @Mock
+    private SequenceGeneratorService sequenceGeneratorService;
+
+    @Mock
+    private InventoryLedgerService inventoryLedgerService;
+
+    @Mock
+    private SalesRollupService salesRollupService;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @InjectMocks
+    private TransactionService transactionService;
+
+    private final List<Transaction> cart = List.of(new Transaction("u1", "p1", 2));
+
+    @BeforeEach
+    void setUp() {
+        Product product = new Product();
+        product.setProductId("p1");
+        product.setPrice(10);
+        product.setQuantity(5);
+        lenient().when(productService.getProductsByIds(any())).thenReturn(List.of(product));
+        lenient().when(userService.getUsersByIds(any())).thenReturn(List.of(new User("u1", "Alice", Role.RESIDENT, 100)));
+        lenient().when(sequenceGeneratorService.generateId("Transaction")).thenReturn("T1");
+        lenient().when(userService.deductBalances(anyMap(), anyString())).thenReturn(true);
+    }
+
+    @Test
+    void singlePurchaseRejectsQuantitiesBelowOne() {
+        assertThrows(IllegalArgumentException.class, () ->
+            transactionService.createTransaction(new Transaction("u1", "p1", -3)));
+
+        verify(inventoryLedgerService, never()).reserve(any(), anyLong());
+        verify(productService, never()).deductStock(any(), anyLong());
+        verify(userService, never()).deductBalance(any(), anyDouble(), any(), any());
+    }
+
+    @Test
+    void deleteCorrectsTheRollupOnlyForTheDeleteThatRemovedTheTransaction() {
+        Transaction transaction = new Transaction("t1", "u1", "p1", 2, 20);
+        when(mongoOperations.findAndRemove(any(Query.class), eq(Transaction.class))).thenReturn(transaction, (Transaction) null);
+
+        assertTrue(transactionService.deleteTransaction("t1"));
+        assertFalse(transactionService.deleteTransaction("t1"));
+
+        verify(salesRollupService, times(1)).remove(transaction);
+    }
+
+    @Test
+    void failedStockDeductionRestoresBalances() {
+        when(productService.deductStock(anyMap())).thenReturn(false);
+
+        assertThrows(InsufficientStockException.class, () -> transactionService.createTransactions(cart));
+
+        verify(userService).restoreBalances(Map.of("u1", 20.0), "T1");
+        verify(transactionRepository, never()).insert(anyList());
+    }
+
+    @Test
+    void failedInsertRestoresStockAndBalances() {
+        when(productService.deductStock(anyMap())).thenReturn(true);
+        when(transactionRepository.insert(anyList())).thenThrow(new IllegalStateException("write failed"));
+
+        assertThrows(IllegalStateException.class, () -> transactionService.createTransactions(cart));
+
+        verify(productService).restoreStock(Map.of("p1", 2L));
+        verify(userService).restoreBalances(Map.of("u1", 20.0), "T1");
+        verify(salesRollupService, never()).recordAll(anyList());
+    }
+
+    @Test
+    void failedInsertReleasesHotProductReservations() {
+        InventoryLedgerService.Reservation reservation = mock(InventoryLedgerService.Reservation.class);
+        when(inventoryLedgerService.isHot("p1")).thenReturn(true);
+        when(inventoryLedgerService.reserve("p1", 2L)).thenReturn(reservation);
+        when(productService.deductStock(anyMap())).thenReturn(true);
+        when(transactionRepository.insert(anyList())).thenThrow(new IllegalStateException("write failed"));
+
+        assertThrows(IllegalStateException.class, () -> transactionService.createTransactions(cart));
+
+        // Reserved from the lease, so nothing was deducted from the product document
+        verify(productService).deductStock(Map.of());
+        verify(inventoryLedgerService).release(reservation);
+        verify(userService).restoreBalances(Map.of("u1", 20.0), "T1");
+    }
+}
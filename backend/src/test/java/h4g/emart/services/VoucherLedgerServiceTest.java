@@ -0,0 +1,141 @@
+package h4g.emart.services;
+
+import h4g.emart.models.VoucherEntry;
+import h4g.emart.models.VoucherEntryType;
+import h4g.emart.models.VoucherSnapshot;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class VoucherLedgerServiceTest {
+
+    private static final LocalDateTime SNAPSHOT_THROUGH = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private static final LocalDateTime LAST_ENTRY = LocalDateTime.of(2024, 1, 2, 12, 0);
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private BulkOperations ops;
+
+    @InjectMocks
+    private VoucherLedgerService voucherLedgerService;
+
+    @Test
+    void balanceIsSnapshotPlusLaterEntries() {
+        when(mongoOperations.findById("u1", VoucherSnapshot.class))
+            .thenReturn(new VoucherSnapshot("u1", 1000, SNAPSHOT_THROUGH));
+        when(mongoOperations.aggregate(any(Aggregation.class), eq(VoucherEntry.class), eq(Document.class)))
+            .thenReturn(tail(250));
+
+        VoucherSnapshot balance = voucherLedgerService.getBalance("u1");
+
+        assertEquals(1250, balance.getBalance());
+        assertEquals(LAST_ENTRY, balance.getThrough());
+        assertEquals(new Document("userId", "u1").append("datetime", new Document("$gt", SNAPSHOT_THROUGH)),
+            matchOf(captureAggregation()));
+    }
+
+    @Test
+    void balanceWithoutSnapshotSumsEveryEntry() {
+        when(mongoOperations.aggregate(any(Aggregation.class), eq(VoucherEntry.class), eq(Document.class)))
+            .thenReturn(tail(400));
+
+        assertEquals(400, voucherLedgerService.getBalance("u1").getBalance());
+        assertEquals(new Document("userId", "u1"), matchOf(captureAggregation()));
+    }
+
+    @Test
+    void balanceWithNoEntriesIsTheSnapshot() {
+        when(mongoOperations.findById("u1", VoucherSnapshot.class))
+            .thenReturn(new VoucherSnapshot("u1", 1000, SNAPSHOT_THROUGH));
+        when(mongoOperations.aggregate(any(Aggregation.class), eq(VoucherEntry.class), eq(Document.class)))
+            .thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+        VoucherSnapshot balance = voucherLedgerService.getBalance("u1");
+
+        assertEquals(1000, balance.getBalance());
+        assertEquals(SNAPSHOT_THROUGH, balance.getThrough());
+    }
+
+    @Test
+    void snapshotFoldsSettledEntriesUpToTheDatabaseClock() {
+        Date databaseNow = new Date();
+        when(mongoOperations.executeCommand(any(Document.class))).thenReturn(new Document("localTime", databaseNow));
+        when(mongoOperations.findDistinct(any(Query.class), eq("userId"), eq(VoucherEntry.class), eq(String.class)))
+            .thenReturn(List.of("u1"));
+        when(mongoOperations.stream(any(Query.class), eq(VoucherEntry.class))).thenReturn(Stream.of(
+            new VoucherEntry("V-1", "u1", VoucherEntryType.TOP_UP, 300, "J-1"),
+            new VoucherEntry("V-2", "u1", VoucherEntryType.PURCHASE, -100, "TX-1")));
+        when(mongoOperations.bulkOps(BulkMode.UNORDERED, VoucherSnapshot.class)).thenReturn(ops);
+
+        voucherLedgerService.snapshot();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(ops).upsert(query.capture(), update.capture());
+        assertEquals(new Document("_id", "u1").append("through", new Document("$exists", false)),
+            query.getValue().getQueryObject());
+        LocalDateTime cutoff = LocalDateTime.ofInstant(databaseNow.toInstant(), ZoneId.systemDefault())
+            .truncatedTo(ChronoUnit.MILLIS);
+        assertEquals(new Document("balance", 200L).append("through", cutoff), update.getValue().getUpdateObject().get("$set"));
+    }
+
+    @Test
+    void insertCollidesWithAnEntryAlreadyRecordedInsteadOfKeepingIt() {
+        when(mongoOperations.bulkOps(BulkMode.UNORDERED, VoucherEntry.class)).thenReturn(ops);
+
+        VoucherLedgerService.insert(mongoOperations,
+            List.of(new VoucherEntry("V-purchase-T1-u1", "u1", VoucherEntryType.PURCHASE, -2000, "T1")));
+
+        // Never matches a recorded entry, so a repeat upserts onto its ID and aborts the transaction
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(ops).upsert(query.capture(), any(UpdateDefinition.class));
+        assertEquals(new Document("_id", "V-purchase-T1-u1").append("amount", new Document("$exists", false)),
+            query.getValue().getQueryObject());
+        verify(ops).execute();
+    }
+
+    private Aggregation captureAggregation() {
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoOperations).aggregate(aggregation.capture(), eq(VoucherEntry.class), eq(Document.class));
+        return aggregation.getValue();
+    }
+
+    private static Object matchOf(Aggregation aggregation) {
+        return aggregation.toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$match");
+    }
+
+    private static AggregationResults<Document> tail(long amount) {
+        Date through = Date.from(LAST_ENTRY.atZone(ZoneId.systemDefault()).toInstant());
+        return new AggregationResults<>(List.of(new Document("amount", amount).append("through", through)), new Document());
+    }
+}
@@ -1,6 +1,7 @@
 "use client";
 
 import React, { useState, useEffect } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import TopBarAdmin from "@/components/topbarAdmin";
 import ProductTable from "@/components/productTable";
 import { Product } from "@/app/types/shop";
@@ -38,11 +39,10 @@ export default function InventoryPage() {
 
     const fetchProducts = async () => {
         try {
-            const response = await fetch(`${baseUrl}/products`);
-            if (!response.ok) {
+            const data = await fetchAllPages<APIProduct>(`${baseUrl}/products`);
+            if (!data) {
                 throw new Error("Failed to fetch products");
             }
-            const data: APIProduct[] = await response.json();
             const mappedProducts = data.map(mapAPIProductToProduct);
             setProducts(mappedProducts);
         } catch (error) {
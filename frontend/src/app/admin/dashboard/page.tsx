@@ -1,5 +1,6 @@
 "use client";
 import React, { useState, useEffect } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import { ScrollArea } from "@/components/ui/scroll-area";
 import QuickAction from "@/components/quickAction";
 import TopBarAdmin from "@/components/topbarAdmin";
@@ -19,12 +20,18 @@ interface Product {
     productPhoto: string;
 }
 
+interface FieldChange {
+    oldValue: unknown;
+    newValue: unknown;
+}
+
 interface ProductLog {
     logId: string;
     userId: string;
     productId: string;
     datetime: string;
     action: string;
+    changes?: Record<string, FieldChange>;
 }
 
 interface InventoryAlert {
@@ -53,11 +60,46 @@ const AdminDashboard = () => {
     const [loading, setLoading] = useState(true);
     const [error, setError] = useState<string | null>(null);
 
-    const formatActionDescription = (log: ProductLog): string => {
+    const formatChange = (field: string, change: FieldChange): string => {
+        // Photos are URLs, too long to be worth showing
+        if (field === "productPhoto") {
+            return "photo";
+        }
+        const format = (value: unknown) =>
+            value === null || value === undefined ? "none" : String(value);
+        return `${field} from ${format(change.oldValue)} to ${format(
+            change.newValue
+        )}`;
+    };
+
+    const formatActionDescription = (
+        log: ProductLog,
+        productNames: Map<string, string>
+    ): string => {
         if (log.action === "DELETE") {
             return "Product deleted from inventory";
         }
 
+        if (log.action === "CREATE") {
+            const name = log.changes?.name?.newValue;
+            return name
+                ? `New product added: ${name}`
+                : "New product added to inventory";
+        }
+
+        if (log.action === "UPDATE") {
+            const changes = Object.entries(log.changes ?? {});
+            if (changes.length === 0) {
+                return "Product updated in inventory";
+            }
+            const name = productNames.get(log.productId) ?? "product";
+            return `Updated ${changes
+                .map(([field, change]) => formatChange(field, change))
+                .join(", ")} for ${name}`;
+        }
+
+        // Entries recorded before logs held field-level changes
+
         if (log.action.startsWith("UPDATE:")) {
             const match = log.action.match(/name=(.*?),.*quantity=(\d+)/);
             if (match) {
@@ -80,12 +122,10 @@ const AdminDashboard = () => {
 
     const fetchData = async () => {
         try {
-            const productsResponse = await fetch(
+            const products = await fetchAllPages<Product>(
                 `${process.env.NEXT_PUBLIC_API}/products`
             );
-            if (!productsResponse.ok)
-                throw new Error("Failed to fetch products");
-            const products: Product[] = await productsResponse.json();
+            if (!products) throw new Error("Failed to fetch products");
 
             const alerts: InventoryAlert[] = products
                 .filter((product) => product.quantity < 10)
@@ -98,16 +138,20 @@ const AdminDashboard = () => {
                     date: new Date().toISOString(),
                 }));
 
+            // Only the latest few entries are shown, so one small page newest first is enough
             const logsResponse = await fetch(
-                `${process.env.NEXT_PUBLIC_API}/product-logs`
+                `${process.env.NEXT_PUBLIC_API}/product-logs/recent?limit=10`
             );
             if (!logsResponse.ok)
                 throw new Error("Failed to fetch product logs");
             const logs: ProductLog[] = await logsResponse.json();
 
-            const activities: Activity[] = logs.slice(0, 10).map((log) => ({
+            const productNames = new Map<string, string>(
+                products.map((product) => [product.productId, product.name])
+            );
+            const activities: Activity[] = logs.map((log) => ({
                 id: log.logId,
-                description: formatActionDescription(log),
+                description: formatActionDescription(log, productNames),
                 type: "inventory",
                 date: new Date(log.datetime).toLocaleString(),
             }));
@@ -1,6 +1,7 @@
 "use client";
 
 import React, { useEffect, useState } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import PreorderCard from "@/components/preorderCard";
 import { useToast } from "@/hooks/use-toast";
 import { useAuth } from "@clerk/nextjs";
@@ -17,11 +18,10 @@ const PreordersPage = () => {
 
     const fetchPreorders = async () => {
         try {
-            const response = await fetch(
+            const data = await fetchAllPages<Preorder>(
                 `${process.env.NEXT_PUBLIC_API}/preorders`
             );
-            if (!response.ok) throw new Error("Failed to fetch preorders");
-            const data = await response.json();
+            if (!data) throw new Error("Failed to fetch preorders");
             setPreorders(data);
         } catch (error) {
             console.error("Error fetching preorders:", error);
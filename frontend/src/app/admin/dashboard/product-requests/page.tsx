@@ -1,6 +1,7 @@
 "use client";
 
 import React, { useEffect, useState } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import { Card, CardContent, CardHeader, CardTitle } from "@/components/ui/card";
 import { PackageSearch } from "lucide-react";
 import { format } from "date-fns";
@@ -28,13 +29,12 @@ const ProductRequests = () => {
     useEffect(() => {
         const fetchRequests = async () => {
             try {
-                const response = await fetch(
+                const data = await fetchAllPages<ProductRequest>(
                     `${process.env.NEXT_PUBLIC_API}/product-requests`
                 );
-                if (!response.ok) {
+                if (!data) {
                     throw new Error("Failed to fetch product requests");
                 }
-                const data = await response.json();
                 setRequests(data);
             } catch (err) {
                 setError(
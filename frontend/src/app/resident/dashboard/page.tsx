@@ -1,5 +1,6 @@
 "use client";
 import React, { useEffect, useState } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import VoucherBalance from "@/components/voucherBalance";
 import TopBar from "@/components/topbar";
 import { Card } from "@/components/ui/card";
@@ -7,20 +8,13 @@ import { ScrollArea } from "@/components/ui/scroll-area";
 import { useUser } from "@clerk/nextjs";
 import { Badge } from "@/components/ui/badge";
 
-interface TaskContributor {
-    taskId: string;
-    userId: string;
-    datetime: string;
-    status: string;
-}
-
 interface Task {
     taskId: string;
     taskName: string;
     taskDesc: string;
     taskReward: number;
     datetime: string;
-    contributors: TaskContributor[];
+    contributorCount: number;
     status: "OPEN" | "CLOSED";
 }
 
@@ -68,7 +62,7 @@ export default function ResidentDashboard() {
                 const userData: UserDetails = await userResponse.json();
                 setVoucherBalance(userData.voucherBal);
 
-                const tasksResponse = await fetch(
+                const tasksData = await fetchAllPages<Task>(
                     `${process.env.NEXT_PUBLIC_API}/tasks`,
                     {
                         headers: {
@@ -76,8 +70,7 @@ export default function ResidentDashboard() {
                         },
                     }
                 );
-                if (!tasksResponse.ok) throw new Error("Failed to fetch tasks");
-                const tasksData = await tasksResponse.json();
+                if (!tasksData) throw new Error("Failed to fetch tasks");
                 setTasks(tasksData);
 
                 const transactionsResponse = await fetch(
@@ -179,10 +172,10 @@ export default function ResidentDashboard() {
                                                 Reward: $
                                                 {task.taskReward.toFixed(2)}
                                             </p>
-                                            {task.contributors.length > 0 && (
+                                            {task.contributorCount > 0 && (
                                                 <p className="text-sm text-gray-500 mt-2">
                                                     Contributors:{" "}
-                                                    {task.contributors.length}
+                                                    {task.contributorCount}
                                                 </p>
                                             )}
                                         </Card>
@@ -1,6 +1,7 @@
 "use client";
 
 import React, { useState, useEffect } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import TopBar from "@/components/topbar";
 import { TaskCard } from "@/components/task";
 import { Input } from "@/components/ui/input";
@@ -13,14 +14,7 @@ import {
 } from "@/components/ui/select";
 import { Search } from "lucide-react";
 import { useToast } from "@/hooks/use-toast";
-
-interface Contributor {
-    taskId: string;
-    userId: string;
-    contributorName: string;
-    datetime: string;
-    status: "PENDING" | "FULFILLED" | "CANCELLED";
-}
+import { useAuth } from "@clerk/nextjs";
 
 interface Task {
     taskId: string;
@@ -28,7 +22,8 @@ interface Task {
     taskDesc: string;
     taskReward: number;
     datetime: string;
-    contributors: Contributor[];
+    contributorCount: number;
+    contributorStatus?: string;
     status: "OPEN" | "CLOSED";
 }
 
@@ -40,16 +35,19 @@ const TaskPage = () => {
         "ALL"
     );
     const { toast } = useToast();
+    const { userId, isLoaded } = useAuth();
 
     const fetchTasks = async () => {
         try {
-            const response = await fetch(
-                `${process.env.NEXT_PUBLIC_API}/tasks`
+            // Counts only, plus this resident's own status on each task
+            const data = await fetchAllPages<Task>(
+                `${process.env.NEXT_PUBLIC_API}/tasks${
+                    userId ? `?contributor=${encodeURIComponent(userId)}` : ""
+                }`
             );
-            if (!response.ok) {
+            if (!data) {
                 throw new Error("Failed to fetch tasks");
             }
-            const data = await response.json();
             setTasks(data);
         } catch (error) {
             toast({
@@ -63,8 +61,10 @@ const TaskPage = () => {
     };
 
     useEffect(() => {
-        fetchTasks();
-    }, []);
+        if (isLoaded) {
+            fetchTasks();
+        }
+    }, [isLoaded, userId]);
 
     const filteredTasks = tasks.filter((task) => {
         const matches =
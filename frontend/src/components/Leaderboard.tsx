@@ -6,11 +6,10 @@ import { Avatar, AvatarFallback } from "@/components/ui/avatar";
 import { Crown, Medal, Trophy } from "lucide-react";
 
 interface User {
+    rank: number;
     userId: string;
     name: string;
     voucherBal: number;
-    role: string;
-    status: string;
 }
 
 const Leaderboard = () => {
@@ -21,18 +20,11 @@ const Leaderboard = () => {
         const fetchUsers = async () => {
             try {
                 const response = await fetch(
-                    `${process.env.NEXT_PUBLIC_API}/users`
+                    `${process.env.NEXT_PUBLIC_API}/users/leaderboard?limit=50`
                 );
                 const data = await response.json();
 
-                const sortedResidents = data
-                    .filter(
-                        (user: User) =>
-                            user.role === "RESIDENT" && user.status === "ACTIVE"
-                    )
-                    .sort((a: User, b: User) => b.voucherBal - a.voucherBal);
-
-                setUsers(sortedResidents);
+                setUsers(data);
             } catch (error) {
                 console.error("Error fetching users:", error);
             } finally {
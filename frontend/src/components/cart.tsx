@@ -32,15 +32,12 @@ const Cart = () => {
     ) => {
         try {
             const response = await fetch(
-                `${process.env.NEXT_PUBLIC_API}/products`
+                `${process.env.NEXT_PUBLIC_API}/products/${productId}`
             );
-            if (!response.ok) {
+            if (!response.ok && response.status !== 404) {
                 throw new Error("Failed to fetch product information");
             }
-            const products = await response.json();
-            const product = products.find(
-                (p: any) => p.productId === productId
-            );
+            const product = response.ok ? await response.json() : null;
 
             if (!product || newQuantity > product.quantity) {
                 toast({
@@ -67,66 +64,34 @@ const Cart = () => {
 
         setIsCheckingOut(true);
         try {
-            const response = await fetch(
-                `${process.env.NEXT_PUBLIC_API}/products`
+            const transactionData = cartItems.map((item) => ({
+                userId: userId,
+                productId: item.id,
+                qtyPurchased: item.quantity,
+            }));
+
+            const checkoutResponse = await fetch(
+                `${process.env.NEXT_PUBLIC_API}/transactions/batch`,
+                {
+                    method: "POST",
+                    headers: {
+                        "Content-Type": "application/json",
+                    },
+                    body: JSON.stringify(transactionData),
+                }
             );
-            if (!response.ok) {
-                throw new Error("Failed to fetch product information");
-            }
-            const products = await response.json();
-
-            const outOfStockItems = cartItems.filter((cartItem) => {
-                const shopItem = products.find(
-                    (item: any) => item.productId === cartItem.id
-                );
-                return !shopItem || shopItem.quantity < cartItem.quantity;
-            });
 
-            if (outOfStockItems.length > 0) {
-                const itemNames = outOfStockItems
-                    .map((item) => item.name)
-                    .join(", ");
+            // Any rejected checkout, whatever its status, leaves the cart for the user to fix and retry
+            if (!checkoutResponse.ok) {
                 toast({
-                    title: "Items Out of Stock",
-                    description: `The following items are no longer available in the requested quantity: ${itemNames}`,
+                    title: "Checkout Failed",
+                    description:
+                        "Unable to checkout, please check your balance and item availability and try again",
                     variant: "destructive",
                 });
                 return;
             }
 
-            for (const item of cartItems) {
-                const transactionData = {
-                    userId: userId,
-                    productId: item.id,
-                    qtyPurchased: item.quantity,
-                };
-
-                const checkoutResponse = await fetch(
-                    `${process.env.NEXT_PUBLIC_API}/transactions`,
-                    {
-                        method: "POST",
-                        headers: {
-                            "Content-Type": "application/json",
-                        },
-                        body: JSON.stringify(transactionData),
-                    }
-                );
-
-                if (checkoutResponse.status === 500) {
-                    toast({
-                        title: "Checkout Failed",
-                        description:
-                            "Unable to checkout, please check your balance and try again",
-                        variant: "destructive",
-                    });
-                    return;
-                }
-
-                if (!checkoutResponse.ok) {
-                    throw new Error("Transaction failed");
-                }
-            }
-
             clearCart();
 
             toast({
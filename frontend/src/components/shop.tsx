@@ -1,6 +1,7 @@
 "use client";
 
 import React, { useEffect, useState } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import { Input } from "./ui/input";
 import { Button } from "./ui/button";
 import { ShoppingCart, Search } from "lucide-react";
@@ -41,13 +42,12 @@ const Shop: React.FC = () => {
         const fetchProducts = async () => {
             try {
                 setIsLoading(true);
-                const response = await fetch(
+                const apiProducts = await fetchAllPages<ApiProduct>(
                     `${process.env.NEXT_PUBLIC_API}/products`
                 );
-                if (!response.ok) {
+                if (!apiProducts) {
                     throw new Error("Failed to fetch products");
                 }
-                const apiProducts: ApiProduct[] = await response.json();
 
                 // Transform API products to match our Product interface
                 const transformedProducts: Product[] = apiProducts.map((p) => ({
@@ -1,6 +1,6 @@
 "use client";
 
-import React, { useCallback } from "react";
+import React, { useCallback, useState } from "react";
 import { Card, CardContent, CardHeader, CardTitle } from "@/components/ui/card";
 import { Button } from "@/components/ui/button";
 import { Avatar, AvatarFallback, AvatarImage } from "@/components/ui/avatar";
@@ -16,6 +16,7 @@ import {
 import { Badge } from "@/components/ui/badge";
 import { useAuth, useUser } from "@clerk/nextjs";
 import { useToast } from "@/hooks/use-toast";
+import { fetchAllPages } from "@/lib/utils";
 
 interface Contributor {
     taskId: string;
@@ -31,7 +32,8 @@ interface Task {
     taskDesc: string;
     taskReward: number;
     datetime: string;
-    contributors: Contributor[];
+    contributorCount: number;
+    contributorStatus?: string;
     status: "OPEN" | "CLOSED";
 }
 
@@ -49,19 +51,31 @@ const TaskCard: React.FC<TaskCardProps> = ({
     const { userId } = useAuth();
     const { user } = useUser();
     const { toast } = useToast();
+    // Loaded when the quest is opened, since listings only carry the count
+    const [contributors, setContributors] = useState<Contributor[]>([]);
 
     const isUserPartOfTask = useCallback(() => {
-        return task.contributors.some(
-            (contributor) => contributor.userId === userId
-        );
-    }, [task.contributors, userId]);
+        return !!task.contributorStatus;
+    }, [task.contributorStatus]);
 
     const getUserTaskStatus = useCallback(() => {
-        const userContribution = task.contributors.find(
-            (contributor) => contributor.userId === userId
+        return task.contributorStatus || null;
+    }, [task.contributorStatus]);
+
+    const loadContributors = async () => {
+        const data = await fetchAllPages<Contributor>(
+            `${process.env.NEXT_PUBLIC_API}/tasks/${task.taskId}/contributors`
         );
-        return userContribution?.status || null;
-    }, [task.contributors, userId]);
+        if (!data) {
+            toast({
+                title: "Error",
+                description: "Failed to load contributors",
+                variant: "destructive",
+            });
+            return;
+        }
+        setContributors(data);
+    };
 
     const handleAcceptTask = async () => {
         if (!userId || !user) {
@@ -83,27 +97,10 @@ const TaskCard: React.FC<TaskCardProps> = ({
         }
 
         try {
-            const newContributor: Contributor = {
-                taskId: task.taskId,
-                userId: userId,
-                contributorName: `${user.firstName} ${user.lastName}`.trim(),
-                datetime: new Date().toISOString(),
-                status: "PENDING",
-            };
-
-            const updatedTask: Task = {
-                ...task,
-                contributors: [...task.contributors, newContributor],
-            };
-
             const response = await fetch(
-                `${process.env.NEXT_PUBLIC_API}/tasks/${task.taskId}`,
+                `${process.env.NEXT_PUBLIC_API}/tasks/${task.taskId}/contributors/${userId}`,
                 {
-                    method: "PUT",
-                    headers: {
-                        "Content-Type": "application/json",
-                    },
-                    body: JSON.stringify(updatedTask),
+                    method: "POST",
                 }
             );
 
@@ -168,19 +165,8 @@ const TaskCard: React.FC<TaskCardProps> = ({
                 <div className="space-y-4">
                     <p className="text-sm text-gray-500">{task.taskDesc}</p>
                     <div className="flex items-center justify-between">
-                        <div className="flex -space-x-2">
-                            {task.contributors.map((contributor, index) => (
-                                <Avatar
-                                    key={`${contributor.userId}-${index}`}
-                                    className="border-2 border-white w-8 h-8"
-                                >
-                                    <AvatarFallback>
-                                        {getInitials(
-                                            contributor.contributorName
-                                        )}
-                                    </AvatarFallback>
-                                </Avatar>
-                            ))}
+                        <div className="text-sm text-gray-500">
+                            Contributors: {task.contributorCount}
                         </div>
                         <div className="text-sm font-semibold">
                             Reward: ${task.taskReward.toFixed(2)}
@@ -188,7 +174,11 @@ const TaskCard: React.FC<TaskCardProps> = ({
                     </div>
 
                     {task.status === "OPEN" && (
-                        <Dialog>
+                        <Dialog
+                            onOpenChange={(open) => {
+                                if (open) loadContributors();
+                            }}
+                        >
                             <DialogTrigger asChild>
                                 <Button className="w-full mt-4">
                                     View Quest
@@ -207,7 +197,7 @@ const TaskCard: React.FC<TaskCardProps> = ({
                                             Current Contributors
                                         </h4>
                                         <div className="flex flex-wrap gap-2">
-                                            {task.contributors.map(
+                                            {contributors.map(
                                                 (contributor, index) => (
                                                     <div
                                                         key={`${contributor.userId}-${index}`}
@@ -1,6 +1,7 @@
 "use client";
 
 import React, { useState, useEffect } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import {
     Dialog,
     DialogContent,
@@ -72,7 +73,7 @@ interface Task {
     taskDesc: string;
     taskReward: number;
     createdOn: string;
-    contributors: Contributor[];
+    contributorCount: number;
     status: "OPEN" | "CLOSED";
 }
 
@@ -99,6 +100,8 @@ const TaskTableAdmin = () => {
     const [rowSelection, setRowSelection] = useState({});
     const [dialogOpen, setDialogOpen] = useState(false);
     const [selectedTask, setSelectedTask] = useState<Task | null>(null);
+    // Contributors of the selected task, loaded when its dialog is opened
+    const [contributors, setContributors] = useState<Contributor[]>([]);
     const [confirmDialogOpen, setConfirmDialogOpen] = useState(false);
     const [selectedAction, setSelectedAction] = useState<{
         type: "CONTRIBUTOR" | "TASK";
@@ -114,11 +117,10 @@ const TaskTableAdmin = () => {
 
     const fetchTasks = async () => {
         try {
-            const response = await fetch(
+            const data = await fetchAllPages<Task>(
                 `${process.env.NEXT_PUBLIC_API}/tasks`
             );
-            if (!response.ok) throw new Error("Failed to fetch tasks");
-            const data = await response.json();
+            if (!data) throw new Error("Failed to fetch tasks");
             setTasks(data);
         } catch (error) {
             console.error("Error fetching tasks:", error);
@@ -193,35 +195,15 @@ const TaskTableAdmin = () => {
         newStatus: "OPEN" | "CLOSED"
     ) => {
         try {
-            let response;
-            if (newStatus === "CLOSED") {
-                response = await fetch(
-                    `${process.env.NEXT_PUBLIC_API}/tasks/close/${taskId}`,
-                    {
-                        method: "POST",
-                    }
-                );
-            } else {
-                const taskToUpdate = tasks.find(
-                    (task) => task.taskId === taskId
-                );
-                if (!taskToUpdate) {
-                    throw new Error("Task not found");
+            // Status-only updates, so contributors are never overwritten from this copy of the task
+            const response = await fetch(
+                `${process.env.NEXT_PUBLIC_API}/tasks/${
+                    newStatus === "CLOSED" ? "close" : "open"
+                }/${taskId}`,
+                {
+                    method: "POST",
                 }
-                response = await fetch(
-                    `${process.env.NEXT_PUBLIC_API}/tasks/${taskId}`,
-                    {
-                        method: "PUT",
-                        headers: {
-                            "Content-Type": "application/json",
-                        },
-                        body: JSON.stringify({
-                            ...taskToUpdate,
-                            status: "OPEN",
-                        }),
-                    }
-                );
-            }
+            );
 
             if (!response.ok)
                 throw new Error(`Failed to ${newStatus.toLowerCase()} task`);
@@ -262,54 +244,34 @@ const TaskTableAdmin = () => {
         newStatus: "APPROVED" | "REJECTED"
     ) => {
         try {
-            const taskToUpdate = tasks.find((task) => task.taskId === taskId);
-            if (!taskToUpdate) {
-                throw new Error("Task not found");
-            }
-
-            // Create the request body exactly as the API expects
-            const requestBody = {
-                taskId: taskToUpdate.taskId,
-                taskName: taskToUpdate.taskName,
-                taskDesc: taskToUpdate.taskDesc,
-                taskReward: taskToUpdate.taskReward,
-                createdOn: taskToUpdate.createdOn, // Map from datetime to createdOn
-                status: taskToUpdate.status,
-                contributors: taskToUpdate.contributors.map((contributor) => {
-                    if (contributor.userId === contributorId) {
-                        return {
-                            taskId: contributor.taskId,
-                            userId: contributor.userId,
-                            contributorName: contributor.contributorName,
-                            datetime: contributor.datetime,
-                            status: newStatus,
-                        };
-                    }
-                    return contributor;
-                }),
-            };
-
             const response = await fetch(
-                `${process.env.NEXT_PUBLIC_API}/tasks/${taskId}`,
+                `${process.env.NEXT_PUBLIC_API}/tasks/${taskId}/contributors`,
                 {
-                    method: "PUT",
+                    method: "PATCH",
                     headers: {
                         "Content-Type": "application/json",
                     },
-                    body: JSON.stringify(requestBody),
+                    body: JSON.stringify({ [contributorId]: newStatus }),
                 }
             );
 
             if (!response.ok) {
-                const errorData = await response.json();
                 throw new Error(
-                    errorData.message ||
-                        `Failed to ${newStatus.toLowerCase()} contributor`
+                    `Failed to ${newStatus.toLowerCase()} contributor`
                 );
             }
-            const updatedTask = await response.json();
+            const changed: Contributor[] = await response.json();
             await fetchTasks();
-            setSelectedTask(updatedTask);
+            if (selectedTask?.taskId === taskId) {
+                setContributors((current) =>
+                    current.map(
+                        (contributor) =>
+                            changed.find(
+                                (c) => c.userId === contributor.userId
+                            ) ?? contributor
+                    )
+                );
+            }
             toast({
                 title: "Success",
                 description: `Contributor ${newStatus.toLowerCase()} successfully`,
@@ -439,9 +401,22 @@ const TaskTableAdmin = () => {
         },
     });
 
-    const handleTaskClick = (task: Task) => {
+    const handleTaskClick = async (task: Task) => {
         setSelectedTask(task);
+        setContributors([]);
         setDialogOpen(true);
+        const data = await fetchAllPages<Contributor>(
+            `${process.env.NEXT_PUBLIC_API}/tasks/${task.taskId}/contributors`
+        );
+        if (!data) {
+            toast({
+                title: "Error",
+                description: "Failed to fetch contributors",
+                variant: "destructive",
+            });
+            return;
+        }
+        setContributors(data);
     };
 
     const handleBulkProcess = async () => {
@@ -691,23 +666,9 @@ const TaskTableAdmin = () => {
                                 <span className="text-gray-500">
                                     Contributors:
                                 </span>
-                                <div className="flex -space-x-2">
-                                    {row.original.contributors.map(
-                                        (contributor) => (
-                                            <Avatar
-                                                key={contributor.userId}
-                                                className="border-2 border-white w-8 h-8"
-                                            >
-                                                <AvatarFallback>
-                                                    {
-                                                        contributor
-                                                            .contributorName[0]
-                                                    }
-                                                </AvatarFallback>
-                                            </Avatar>
-                                        )
-                                    )}
-                                </div>
+                                <span className="font-medium">
+                                    {row.original.contributorCount}
+                                </span>
                             </div>
                             <div className="flex justify-between items-center text-sm mt-2">
                                 <span className="text-gray-500">Reward:</span>
@@ -741,7 +702,7 @@ const TaskTableAdmin = () => {
                         <div>
                             <h4 className="font-semibold mb-2">Contributors</h4>
                             <div className="grid gap-4">
-                                {selectedTask?.contributors.map(
+                                {contributors.map(
                                     (contributor) => (
                                         <Card key={contributor.userId}>
                                             <CardContent className="pt-6">
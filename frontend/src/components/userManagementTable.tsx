@@ -1,6 +1,7 @@
 "use client";
 
 import React, { useEffect, useState } from "react";
+import { fetchAllPages } from "@/lib/utils";
 import {
     ColumnDef,
     ColumnFiltersState,
@@ -498,11 +499,10 @@ export function UserManagementDataTable() {
     const fetchUsers = async () => {
         try {
             setIsLoading(true);
-            const response = await fetch(`${API_BASE}/users`);
-            if (!response.ok) {
+            const data = await fetchAllPages<User>(`${API_BASE}/users`);
+            if (!data) {
                 throw new Error("Failed to fetch users");
             }
-            const data = await response.json();
             setUsers(data);
         } catch (error) {
             toast({
@@ -4,3 +4,25 @@ import { twMerge } from "tailwind-merge"
 export function cn(...inputs: ClassValue[]) {
   return twMerge(clsx(inputs))
 }
+
+// List endpoints return one page at a time, with the cursor for the next page in the
+// X-Next-Cursor header; this follows it to the end. Returns null if any page fails.
+export async function fetchAllPages<T>(
+  url: string,
+  init?: RequestInit
+): Promise<T[] | null> {
+  const items: T[] = []
+  let cursor: string | null = null
+  do {
+    const pageUrl: string = cursor
+      ? `${url}${url.includes("?") ? "&" : "?"}after=${encodeURIComponent(cursor)}`
+      : url
+    const response = await fetch(pageUrl, init)
+    if (!response.ok) {
+      return null
+    }
+    items.push(...((await response.json()) as T[]))
+    cursor = response.headers.get("X-Next-Cursor")
+  } while (cursor)
+  return items
+}